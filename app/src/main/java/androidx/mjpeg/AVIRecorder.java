@@ -0,0 +1,358 @@
+package androidx.mjpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * AVI录像<br/>
+ * 收到的JPEG数据不经过解码和重新编码，原样写入MJPG视频流的AVI文件：
+ * 文件头先写入占位，帧数据顺序追加到movi列表，结束时写入idx1索引并回写文件头（帧数、帧率、宽高），
+ * 生成的文件可拖动播放。单个文件不超过{@link #MAX_FILE_SIZE}（RIFF与idx1使用32位偏移）。
+ */
+public class AVIRecorder {
+
+    /**
+     * 最大文件长度
+     */
+    public final static long MAX_FILE_SIZE = 0xFFFFFFFFL - 1024 * 1024;
+    /**
+     * 文件头长度（RIFF + hdrl列表 + movi列表头）
+     */
+    private final static int HEADER_LENGTH = 224;
+    /**
+     * movi标识位置，idx1偏移相对此位置
+     */
+    private final static int MOVI_OFFSET = 220;
+    /**
+     * 关键帧标志
+     */
+    private final static int AVIIF_KEYFRAME = 0x10;
+    /**
+     * 包含索引标志
+     */
+    private final static int AVIF_HASINDEX = 0x10;
+
+    /**
+     * 文件
+     */
+    private final RandomAccessFile file;
+    /**
+     * 文件通道
+     */
+    private final FileChannel channel;
+    /**
+     * 块头缓冲
+     */
+    private final ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * 块填充字节
+     */
+    private final ByteBuffer padding = ByteBuffer.allocate(1);
+    /**
+     * JPEG信息
+     */
+    private final JPEGInfo info = new JPEGInfo();
+    /**
+     * 帧偏移（相对movi）
+     */
+    private int[] offsets = new int[1024];
+    /**
+     * 帧长度
+     */
+    private int[] sizes = new int[1024];
+    /**
+     * 帧数
+     */
+    private int frames;
+    /**
+     * 写入位置
+     */
+    private long position = HEADER_LENGTH;
+    /**
+     * 最大帧长度
+     */
+    private int maxFrameSize;
+    /**
+     * 视频宽度
+     */
+    private int width;
+    /**
+     * 视频高度
+     */
+    private int height;
+    /**
+     * 第一帧时间戳（微秒）
+     */
+    private long firstTimestamp = -1;
+    /**
+     * 最后一帧时间戳（微秒）
+     */
+    private long lastTimestamp;
+    /**
+     * 默认帧率，时间戳不足以计算帧率时使用
+     */
+    private int frameRate = 25;
+    /**
+     * 已关闭
+     */
+    private boolean closed;
+
+    /**
+     * 创建录像文件
+     *
+     * @param path 文件路径
+     * @throws IOException
+     */
+    public AVIRecorder(String path) throws IOException {
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        //文件头占位，结束时回写
+        channel.write(ByteBuffer.allocate(HEADER_LENGTH), 0);
+    }
+
+    /**
+     * 设置默认帧率，时间戳不足以计算帧率时使用
+     *
+     * @param frameRate
+     * @return
+     */
+    public AVIRecorder frameRate(int frameRate) {
+        this.frameRate = Math.max(1, frameRate);
+        return this;
+    }
+
+    /**
+     * 写入帧，时间戳使用帧时间戳
+     *
+     * @param frame 帧
+     * @return 是否写入，不是有效JPEG或文件已满时返回false
+     * @throws IOException
+     */
+    public boolean write(Frame frame) throws IOException {
+        return write(frame.array(), 0, frame.length(), frame.timestamp());
+    }
+
+    /**
+     * 写入帧，时间戳为当前时间
+     *
+     * @param data JPEG数据
+     * @return 是否写入，不是有效JPEG或文件已满时返回false
+     * @throws IOException
+     */
+    public boolean write(byte[] data) throws IOException {
+        return write(data, 0, data.length, System.currentTimeMillis() * 1000L);
+    }
+
+    /**
+     * 写入帧
+     *
+     * @param data      数据
+     * @param offset    偏移
+     * @param length    长度
+     * @param timestamp 时间戳（微秒）
+     * @return 是否写入，不是有效JPEG或文件已满时返回false
+     * @throws IOException
+     */
+    public synchronized boolean write(byte[] data, int offset, int length, long timestamp) throws IOException {
+        if (closed || !info.parse(data, offset, length)) {
+            return false;
+        }
+        long next = position + 8 + length + (length & 1);
+        //预留idx1空间
+        if (next + 8 + (long) (frames + 1) * 16 > MAX_FILE_SIZE) {
+            return false;
+        }
+        if (width == 0) {
+            width = info.getWidth();
+            height = info.getHeight();
+        }
+        if (frames == offsets.length) {
+            int[] grow = new int[frames * 2];
+            System.arraycopy(offsets, 0, grow, 0, frames);
+            offsets = grow;
+            grow = new int[frames * 2];
+            System.arraycopy(sizes, 0, grow, 0, frames);
+            sizes = grow;
+        }
+        offsets[frames] = (int) (position - MOVI_OFFSET);
+        sizes[frames] = length;
+        frames++;
+        maxFrameSize = Math.max(maxFrameSize, length);
+        if (firstTimestamp < 0) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+        chunk.clear();
+        chunk.put((byte) '0').put((byte) '0').put((byte) 'd').put((byte) 'c').putInt(length);
+        chunk.flip();
+        writeFully(chunk);
+        writeFully(ByteBuffer.wrap(data, offset, length));
+        if ((length & 1) != 0) {
+            padding.clear();
+            writeFully(padding);
+        }
+        return true;
+    }
+
+    /**
+     * 在当前位置写入
+     *
+     * @param buffer 缓冲区
+     * @throws IOException
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * 帧数
+     *
+     * @return
+     */
+    public synchronized int getFrames() {
+        return frames;
+    }
+
+    /**
+     * 是否已关闭
+     *
+     * @return
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 结束录像，写入索引并回写文件头
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            ByteBuffer index = ByteBuffer.allocate(8 + frames * 16).order(ByteOrder.LITTLE_ENDIAN);
+            index.put((byte) 'i').put((byte) 'd').put((byte) 'x').put((byte) '1').putInt(frames * 16);
+            for (int i = 0; i < frames; i++) {
+                index.put((byte) '0').put((byte) '0').put((byte) 'd').put((byte) 'c');
+                index.putInt(AVIIF_KEYFRAME).putInt(offsets[i]).putInt(sizes[i]);
+            }
+            index.flip();
+            long moviEnd = position;
+            writeFully(index);
+            ByteBuffer header = header(moviEnd);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } finally {
+            channel.close();
+            file.close();
+        }
+    }
+
+    /**
+     * 每帧时长（微秒），由首尾帧时间戳计算
+     *
+     * @return
+     */
+    private int microSecPerFrame() {
+        long duration = lastTimestamp - firstTimestamp;
+        if (frames > 1 && duration > 0) {
+            long perFrame = duration / (frames - 1);
+            if (perFrame > 0 && perFrame < Integer.MAX_VALUE) {
+                return (int) perFrame;
+            }
+        }
+        return 1000000 / frameRate;
+    }
+
+    /**
+     * 文件头
+     *
+     * @param moviEnd movi列表结束位置
+     * @return
+     */
+    private ByteBuffer header(long moviEnd) {
+        int perFrame = microSecPerFrame();
+        int bufferSize = maxFrameSize + 8;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        fourcc(buffer, "RIFF").putInt((int) (position - 8));
+        fourcc(buffer, "AVI ");
+        fourcc(buffer, "LIST").putInt(192);
+        fourcc(buffer, "hdrl");
+        //avih
+        fourcc(buffer, "avih").putInt(56);
+        buffer.putInt(perFrame);
+        buffer.putInt((int) Math.min(Integer.MAX_VALUE, (long) bufferSize * 1000000L / perFrame));
+        buffer.putInt(0);
+        buffer.putInt(AVIF_HASINDEX);
+        buffer.putInt(frames);
+        buffer.putInt(0);
+        buffer.putInt(1);
+        buffer.putInt(bufferSize);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(0).putInt(0).putInt(0).putInt(0);
+        //strl
+        fourcc(buffer, "LIST").putInt(116);
+        fourcc(buffer, "strl");
+        fourcc(buffer, "strh").putInt(56);
+        fourcc(buffer, "vids");
+        fourcc(buffer, "MJPG");
+        buffer.putInt(0);
+        buffer.putShort((short) 0).putShort((short) 0);
+        buffer.putInt(0);
+        //帧率 = rate / scale
+        buffer.putInt(perFrame);
+        buffer.putInt(1000000);
+        buffer.putInt(0);
+        buffer.putInt(frames);
+        buffer.putInt(bufferSize);
+        buffer.putInt(-1);
+        buffer.putInt(0);
+        buffer.putShort((short) 0).putShort((short) 0).putShort((short) width).putShort((short) height);
+        //strf（BITMAPINFOHEADER）
+        fourcc(buffer, "strf").putInt(40);
+        buffer.putInt(40);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 24);
+        fourcc(buffer, "MJPG");
+        buffer.putInt(width * height * 3);
+        buffer.putInt(0).putInt(0).putInt(0).putInt(0);
+        //movi
+        fourcc(buffer, "LIST").putInt((int) (moviEnd - MOVI_OFFSET));
+        fourcc(buffer, "movi");
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 写入四字符码
+     *
+     * @param buffer 缓冲区
+     * @param code   四字符码
+     * @return
+     */
+    private static ByteBuffer fourcc(ByteBuffer buffer, String code) {
+        for (int i = 0; i < 4; i++) {
+            buffer.put((byte) code.charAt(i));
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,212 @@
+package androidx.mjpeg;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AVI异步录像<br/>
+ * 接收线程只把帧（增加引用）放入有界队列，由{@link StreamScheduler}的IO线程写入{@link AVIRecorder}，
+ * 文件写入不阻塞接收。队列已满（磁盘跟不上）时丢弃最旧的帧；写入失败时停止录像并通过回调通知。
+ */
+public class AVIWriter {
+
+    /**
+     * 默认队列长度
+     */
+    public final static int DEFAULT_QUEUE_SIZE = 30;
+
+    private final String TAG = AVIWriter.class.getSimpleName();
+    /**
+     * 录像文件
+     */
+    private final AVIRecorder recorder;
+    /**
+     * 待写入的帧
+     */
+    private final ArrayBlockingQueue<Frame> queue;
+    /**
+     * 是否已提交写入任务
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * 丢弃帧数
+     */
+    private final AtomicLong droppedFrames = new AtomicLong();
+    /**
+     * 写入任务
+     */
+    private final Runnable drainTask = this::drain;
+    /**
+     * 写入失败回调
+     */
+    private final Callback callback;
+    /**
+     * 已结束（关闭或写入失败）
+     */
+    private volatile boolean closed;
+
+    /**
+     * 写入失败回调
+     */
+    public interface Callback {
+
+        /**
+         * 写入失败（IO线程），录像已停止
+         *
+         * @param writer 失败的录像
+         * @param e      异常
+         */
+        void onError(AVIWriter writer, IOException e);
+
+    }
+
+    /**
+     * 创建异步录像
+     *
+     * @param recorder 录像文件
+     * @param callback 写入失败回调，可以为null
+     */
+    public AVIWriter(AVIRecorder recorder, Callback callback) {
+        this(recorder, DEFAULT_QUEUE_SIZE, callback);
+    }
+
+    /**
+     * 创建异步录像
+     *
+     * @param recorder  录像文件
+     * @param queueSize 队列长度
+     * @param callback  写入失败回调，可以为null
+     */
+    public AVIWriter(AVIRecorder recorder, int queueSize, Callback callback) {
+        this.recorder = recorder;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.callback = callback;
+    }
+
+    /**
+     * 写入帧，帧在写入完成前保持引用
+     *
+     * @param frame 帧
+     * @return 已结束时返回false
+     */
+    public boolean write(Frame frame) {
+        if (closed) {
+            return false;
+        }
+        frame.retain();
+        while (!queue.offer(frame)) {
+            Frame oldest = queue.poll();
+            if (oldest != null) {
+                oldest.release();
+                droppedFrames.incrementAndGet();
+            }
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            StreamScheduler.getInstance().io().execute(drainTask);
+        }
+        return true;
+    }
+
+    /**
+     * 写入队列中的帧（IO线程）
+     */
+    private void drain() {
+        IOException error = null;
+        synchronized (this) {
+            scheduled.set(false);
+            try {
+                write();
+            } catch (IOException e) {
+                error = e;
+                closed = true;
+                clear();
+            }
+        }
+        if (error != null) {
+            Log.e(TAG, "write avi exception:" + error);
+            if (callback != null) {
+                callback.onError(this, error);
+            }
+        } else if (!closed && !queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            //提交任务和清除标志之间加入的帧
+            StreamScheduler.getInstance().io().execute(drainTask);
+        }
+    }
+
+    /**
+     * 写入队列中的全部帧
+     *
+     * @throws IOException
+     */
+    private void write() throws IOException {
+        Frame frame;
+        while ((frame = queue.poll()) != null) {
+            try {
+                //结束后加入的帧不写入（录像文件已关闭）
+                recorder.write(frame);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * 丢弃队列中的帧
+     */
+    private void clear() {
+        Frame frame;
+        while ((frame = queue.poll()) != null) {
+            frame.release();
+        }
+    }
+
+    /**
+     * 结束录像：写完队列中的帧，写入索引并回写文件头
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        boolean failed = closed;
+        closed = true;
+        try {
+            if (!failed) {
+                write();
+            }
+        } finally {
+            clear();
+            recorder.close();
+        }
+    }
+
+    /**
+     * 是否已结束
+     *
+     * @return
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 录像文件
+     *
+     * @return
+     */
+    public AVIRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * 队列已满时丢弃的帧数
+     *
+     * @return
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+}
@@ -0,0 +1,214 @@
+package androidx.mjpeg;
+
+import android.graphics.Bitmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 位图交换器<br/>
+ * 解码线程与显示线程之间的多缓冲位图交换（一个显示者时即三缓冲：解码、就绪、显示），
+ * 通过原子操作交换槽位：解码线程只写入没有被显示者持有的槽位，从不等待显示；
+ * 显示者只读取已发布的完整帧，不会看到写了一半的位图。每增加一个显示者最多增加一个槽位。
+ */
+public class BitmapExchanger {
+
+    /**
+     * 槽位状态：正在写入
+     */
+    private final static int WRITING = -1;
+    /**
+     * 槽位
+     */
+    private volatile Slot[] slots = new Slot[0];
+    /**
+     * 最新发布的槽位
+     */
+    private final AtomicReference<Slot> ready = new AtomicReference<>();
+    /**
+     * 正在写入的槽位（仅解码线程访问）
+     */
+    private Slot writing;
+
+    /**
+     * 槽位
+     */
+    private static class Slot {
+
+        /**
+         * 位图
+         */
+        private volatile Bitmap bitmap;
+        /**
+         * 状态：大于等于0为持有的显示者数量，{@link #WRITING}为正在写入
+         */
+        private final AtomicInteger state = new AtomicInteger();
+
+        /**
+         * 显示者持有
+         *
+         * @return 是否成功，槽位正在写入时失败
+         */
+        private boolean retain() {
+            for (; ; ) {
+                int current = state.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (state.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 获取可写入的位图（解码线程），完成后调用{@link #publish(Bitmap)}或{@link #cancel()}
+     *
+     * @return 可复用的位图，可能为null
+     */
+    public Bitmap obtain() {
+        if (writing != null) {
+            cancel();
+        }
+        Slot latest = ready.get();
+        Slot[] current = slots;
+        for (Slot slot : current) {
+            if (slot != latest && slot.state.compareAndSet(0, WRITING)) {
+                writing = slot;
+                return slot.bitmap;
+            }
+        }
+        Slot slot = new Slot();
+        slot.state.set(WRITING);
+        Slot[] grow = new Slot[current.length + 1];
+        System.arraycopy(current, 0, grow, 0, current.length);
+        grow[current.length] = slot;
+        slots = grow;
+        writing = slot;
+        return null;
+    }
+
+    /**
+     * 发布解码完成的位图（解码线程）
+     *
+     * @param bitmap 位图，可以是{@link #obtain()}返回的位图或新分配的位图
+     */
+    public void publish(Bitmap bitmap) {
+        Slot slot = writing;
+        if (slot == null) {
+            throw new IllegalStateException("publish without obtain");
+        }
+        writing = null;
+        slot.bitmap = bitmap;
+        slot.state.set(0);
+        ready.set(slot);
+    }
+
+    /**
+     * 放弃写入（解码线程）
+     */
+    public void cancel() {
+        Slot slot = writing;
+        if (slot != null) {
+            writing = null;
+            slot.state.set(0);
+        }
+    }
+
+    /**
+     * 最新发布的位图，仅用于查看，显示请使用{@link Reader}
+     *
+     * @return
+     */
+    public Bitmap peek() {
+        Slot slot = ready.get();
+        return slot == null ? null : slot.bitmap;
+    }
+
+    /**
+     * 创建显示者
+     *
+     * @return
+     */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * 槽位数量
+     *
+     * @return
+     */
+    public int size() {
+        return slots.length;
+    }
+
+    /**
+     * 清空（解码停止后调用），回收没有被显示者持有的位图
+     */
+    public void clear() {
+        cancel();
+        ready.set(null);
+        for (Slot slot : slots) {
+            if (slot.state.compareAndSet(0, WRITING)) {
+                Bitmap bitmap = slot.bitmap;
+                slot.bitmap = null;
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+            }
+        }
+        slots = new Slot[0];
+    }
+
+    /**
+     * 显示者，持有当前显示的槽位直到下一次获取
+     */
+    public class Reader {
+
+        /**
+         * 当前持有的槽位
+         */
+        private Slot held;
+
+        private Reader() {
+        }
+
+        /**
+         * 获取最新位图，同时释放之前持有的位图
+         *
+         * @return 最新位图，没有时返回当前持有的位图
+         */
+        public Bitmap acquire() {
+            Slot latest;
+            for (; ; ) {
+                latest = ready.get();
+                if (latest == null || latest == held) {
+                    return held == null ? null : held.bitmap;
+                }
+                if (latest.retain()) {
+                    break;
+                }
+            }
+            if (held != null) {
+                held.state.decrementAndGet();
+            }
+            held = latest;
+            return latest.bitmap;
+        }
+
+        /**
+         * 释放持有的位图
+         */
+        public void release() {
+            if (held != null) {
+                held.state.decrementAndGet();
+                held = null;
+            }
+        }
+
+    }
+
+}
@@ -2,34 +2,101 @@ package androidx.mjpeg;
 
 import android.graphics.Bitmap;
 import android.os.Handler;
-import android.os.Message;
 
-import androidx.annotation.NonNull;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * 绘制通道
+ * 绘制通道<br/>
+ * 单槽位信箱：只保存最新一帧，同一时间最多一个待执行的UI回调，
+ * UI线程繁忙时旧帧被覆盖而不会在消息队列中堆积。
  */
 public class Channel extends Handler {
 
+    /**
+     * 最新位图
+     */
+    private final AtomicReference<Bitmap> pending = new AtomicReference<>();
+    /**
+     * 已提交UI回调
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * 绘制回调
+     */
+    private final Runnable drain = this::drain;
+    /**
+     * 播放器
+     */
+    private volatile MJPEGImage player;
+    /**
+     * 位图显示者，设置后在UI线程从交换器获取最新的完整帧
+     */
+    private volatile BitmapExchanger.Reader reader;
+    /**
+     * 性能统计，记录每次显示的耗时
+     */
+    private volatile StreamMetrics metrics;
+
+    /**
+     * 设置位图显示者，之后{@link #post(MJPEGImage, Bitmap)}只作为绘制通知，
+     * 显示的位图在UI线程从交换器获取，解码线程不会写入正在显示的位图
+     *
+     * @param reader 显示者，null表示直接显示传入的位图
+     */
+    public void setReader(BitmapExchanger.Reader reader) {
+        BitmapExchanger.Reader previous = this.reader;
+        this.reader = reader;
+        if (previous != null && previous != reader && !post(previous::release)) {
+            previous.release();
+        }
+    }
+
+    /**
+     * 设置性能统计
+     *
+     * @param metrics 数据流的统计，null表示不记录
+     */
+    public void setMetrics(StreamMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * 发送绘制消息
      * @param player 播放器
      * @param bitmap 位图
      */
     public void post(MJPEGImage player, Bitmap bitmap) {
-        Message message = obtainMessage();
-        ChannelBody body = new ChannelBody();
-        body.setPlayer(player);
-        body.setBitmap(bitmap);
-        message.obj = body;
-        sendMessage(message);
+        this.player = player;
+        pending.set(bitmap);
+        if (scheduled.compareAndSet(false, true)) {
+            post(drain);
+        }
     }
 
-    @Override
-    public void handleMessage(@NonNull Message msg) {
-        super.handleMessage(msg);
-        ChannelBody body = (ChannelBody) msg.obj;
-        body.getPlayer().setImageBitmap(body.getBitmap());
+    /**
+     * 显示最新位图（UI线程）
+     */
+    private void drain() {
+        //先清除标记，之后到达的帧会重新提交回调
+        scheduled.set(false);
+        Bitmap bitmap = pending.getAndSet(null);
+        MJPEGImage player = this.player;
+        BitmapExchanger.Reader reader = this.reader;
+        if (bitmap != null && reader != null) {
+            //持有最新的完整帧直到下一次显示
+            bitmap = reader.acquire();
+        }
+        if (bitmap == null || player == null || bitmap.isRecycled()) {
+            return;
+        }
+        long begin = System.nanoTime();
+        //替换播放器Drawable中的位图，不创建BitmapDrawable
+        player.display(bitmap);
+        StreamMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordRendered(System.nanoTime() - begin);
+        }
     }
 
     /**
@@ -37,6 +104,13 @@ public class Channel extends Handler {
      */
     public void release() {
         removeCallbacksAndMessages(null);
+        pending.set(null);
+        scheduled.set(false);
+        BitmapExchanger.Reader reader = this.reader;
+        this.reader = null;
+        if (reader != null) {
+            reader.release();
+        }
     }
 
 }
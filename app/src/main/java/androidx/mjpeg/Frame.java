@@ -0,0 +1,183 @@
+package androidx.mjpeg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 帧数据<br/>
+ * 由{@link FrameBufferPool}分配，引用计数归零后回收缓冲区。
+ * 监听回调中帧仅在回调期间有效，需要异步使用时先调用{@link #retain()}，使用完成后调用{@link #release()}。
+ */
+public class Frame {
+
+    /**
+     * 缓冲区
+     */
+    private final byte[] data;
+    /**
+     * 所属缓冲池，为空时不回收
+     */
+    private final FrameBufferPool pool;
+    /**
+     * 引用计数
+     */
+    private final AtomicInteger references = new AtomicInteger();
+    /**
+     * 有效长度
+     */
+    private int length;
+    /**
+     * 时间戳（微秒），分段头未提供时为接收时间
+     */
+    private long timestamp;
+    /**
+     * 接收时间（{@link System#nanoTime()}）
+     */
+    private long arrivalTime;
+
+    Frame(FrameBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    /**
+     * 设置帧数据
+     *
+     * @param src    源数据
+     * @param offset 偏移
+     * @param length 长度
+     * @return
+     */
+    public Frame put(byte[] src, int offset, int length) {
+        System.arraycopy(src, offset, data, 0, length);
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * 设置帧数据，读取源缓冲区的剩余内容
+     *
+     * @param src 源数据，例如内存映射文件的视图
+     * @return
+     */
+    public Frame put(ByteBuffer src) {
+        int length = src.remaining();
+        src.get(data, 0, length);
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * 增加引用
+     *
+     * @return
+     */
+    public Frame retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * 释放引用，引用归零后回收到缓冲池
+     */
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            if (pool != null) {
+                pool.recycle(this);
+            }
+        } else if (count < 0) {
+            references.set(0);
+            throw new IllegalStateException("frame released too many times");
+        }
+    }
+
+    /**
+     * 重置引用
+     */
+    void obtain() {
+        references.set(1);
+        length = 0;
+        timestamp = 0;
+        arrivalTime = 0;
+    }
+
+    /**
+     * 缓冲区，有效数据为[0, length)
+     *
+     * @return
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    /**
+     * 缓冲区容量
+     *
+     * @return
+     */
+    public int capacity() {
+        return data.length;
+    }
+
+    /**
+     * 有效长度
+     *
+     * @return
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 时间戳（微秒）
+     *
+     * @return
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 设置时间戳（微秒）
+     *
+     * @param timestamp
+     * @return
+     */
+    public Frame timestamp(long timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+    /**
+     * 接收时间（{@link System#nanoTime()}）
+     *
+     * @return
+     */
+    public long arrivalTime() {
+        return arrivalTime;
+    }
+
+    /**
+     * 设置接收时间（{@link System#nanoTime()}）
+     *
+     * @param arrivalTime
+     * @return
+     */
+    public Frame arrivalTime(long arrivalTime) {
+        this.arrivalTime = arrivalTime;
+        return this;
+    }
+
+    /**
+     * 复制帧数据
+     *
+     * @return
+     */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return copy;
+    }
+
+}
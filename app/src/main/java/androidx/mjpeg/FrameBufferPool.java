@@ -0,0 +1,129 @@
+package androidx.mjpeg;
+
+/**
+ * 帧缓冲池<br/>
+ * 按2的幂划分大小等级（64KB ~ 32MB），每个等级保留固定数量的空闲缓冲区，
+ * 稳定播放时接收路径不再分配内存，超出最大等级的帧直接分配且不回收。
+ */
+public class FrameBufferPool {
+
+    /**
+     * 最小等级（2^16 = 64KB）
+     */
+    private final static int MIN_SHIFT = 16;
+    /**
+     * 最大等级（2^25 = 32MB）
+     */
+    private final static int MAX_SHIFT = 25;
+    /**
+     * 共享缓冲池
+     */
+    private static volatile FrameBufferPool shared;
+    /**
+     * 空闲缓冲区
+     */
+    private final Frame[][] free;
+    /**
+     * 空闲数量
+     */
+    private final int[] count;
+
+    /**
+     * 构造缓冲池
+     *
+     * @param capacity 每个等级最多保留的空闲缓冲区数量
+     */
+    public FrameBufferPool(int capacity) {
+        int classes = MAX_SHIFT - MIN_SHIFT + 1;
+        free = new Frame[classes][capacity];
+        count = new int[classes];
+    }
+
+    /**
+     * 共享缓冲池
+     *
+     * @return
+     */
+    public static FrameBufferPool shared() {
+        if (shared == null) {
+            synchronized (FrameBufferPool.class) {
+                if (shared == null) {
+                    shared = new FrameBufferPool(16);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * 获取大小等级
+     *
+     * @param length 长度
+     * @return 等级，-1表示超出最大等级
+     */
+    private static int sizeClass(int length) {
+        if (length <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    /**
+     * 获取帧，引用计数为1
+     *
+     * @param length 需要的长度
+     * @return
+     */
+    public Frame obtain(int length) {
+        int index = sizeClass(length);
+        Frame frame = null;
+        if (index < 0) {
+            frame = new Frame(null, length);
+        } else {
+            synchronized (free[index]) {
+                if (count[index] > 0) {
+                    frame = free[index][--count[index]];
+                    free[index][count[index]] = null;
+                }
+            }
+            if (frame == null) {
+                frame = new Frame(this, 1 << (index + MIN_SHIFT));
+            }
+        }
+        frame.obtain();
+        return frame;
+    }
+
+    /**
+     * 回收帧
+     *
+     * @param frame
+     */
+    void recycle(Frame frame) {
+        int index = sizeClass(frame.capacity());
+        if (index < 0) {
+            return;
+        }
+        synchronized (free[index]) {
+            if (count[index] < free[index].length) {
+                free[index][count[index]++] = frame;
+            }
+        }
+    }
+
+    /**
+     * 清空空闲缓冲区
+     */
+    public void clear() {
+        for (int i = 0; i < free.length; i++) {
+            synchronized (free[i]) {
+                for (int j = 0; j < count[i]; j++) {
+                    free[i][j] = null;
+                }
+                count[i] = 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+package androidx.mjpeg;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+
+/**
+ * 帧显示Drawable<br/>
+ * 播放器一直使用同一个Drawable，每帧只替换位图并重绘，
+ * 交换器轮换的位图不需要每帧创建BitmapDrawable和替换ImageView的Drawable。
+ */
+class FrameDrawable extends Drawable {
+
+    /**
+     * 绘制画笔
+     */
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /**
+     * 当前位图
+     */
+    private Bitmap bitmap;
+
+    /**
+     * 替换位图并重绘（UI线程）
+     *
+     * @param bitmap 位图
+     * @return 尺寸是否变化，变化时需要重新计算缩放
+     */
+    boolean setBitmap(Bitmap bitmap) {
+        Bitmap previous = this.bitmap;
+        this.bitmap = bitmap;
+        invalidateSelf();
+        return previous == null || previous.getWidth() != bitmap.getWidth() || previous.getHeight() != bitmap.getHeight();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Bitmap bitmap = this.bitmap;
+        if (bitmap != null && !bitmap.isRecycled()) {
+            canvas.drawBitmap(bitmap, null, getBounds(), paint);
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return bitmap == null ? -1 : bitmap.getWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return bitmap == null ? -1 : bitmap.getHeight();
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return bitmap == null || bitmap.hasAlpha() || paint.getAlpha() < 255 ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+    }
+
+}
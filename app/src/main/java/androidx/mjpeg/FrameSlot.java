@@ -0,0 +1,76 @@
+package androidx.mjpeg;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 最新帧槽位（单生产者/单消费者）<br/>
+ * 接收线程不断写入最新帧，解码任务总是取出最新的完整帧，未被取走的旧帧直接释放并计入丢帧数。
+ */
+public class FrameSlot {
+
+    /**
+     * 槽位
+     */
+    private final AtomicReference<Frame> slot = new AtomicReference<>();
+    /**
+     * 丢帧数
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * 写入最新帧，槽位的所有权转移给消费者
+     *
+     * @param frame 帧
+     * @return 是否替换了未被消费的旧帧
+     */
+    public boolean offer(Frame frame) {
+        Frame old = slot.getAndSet(frame);
+        if (old != null) {
+            old.release();
+            dropped.incrementAndGet();
+        }
+        return old != null;
+    }
+
+    /**
+     * 取出最新帧
+     *
+     * @return 帧，没有时返回null
+     */
+    public Frame poll() {
+        return slot.getAndSet(null);
+    }
+
+    /**
+     * 是否有待取出的帧
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return slot.get() == null;
+    }
+
+    /**
+     * 丢帧数
+     *
+     * @return
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 释放槽位中的帧
+     *
+     * @return 是否释放了未被消费的帧
+     */
+    public boolean clear() {
+        Frame frame = poll();
+        if (frame != null) {
+            frame.release();
+        }
+        return frame != null;
+    }
+
+}
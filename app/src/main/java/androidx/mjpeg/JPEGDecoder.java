@@ -0,0 +1,1337 @@
+package androidx.mjpeg;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * JPEG解码器<br/>
+ * 纯Java实现的基线JPEG解码（霍夫曼解码、反量化、整数IDCT），不经过Bitmap和RGB颜色转换，
+ * 直接输出YUV420平面（I420/NV12/NV21，或编码器输入图像的直接缓冲区平面）：4:2:0数据的IDCT结果直接写入输出平面，
+ * 其他采样格式先写入分量平面再按2x2平均重采样。不依赖Android，可在JVM中运行；
+ * 对象可重复使用，预热后解码过程不分配内存（非线程安全）。<br/>
+ * 开启{@link #setParallel(boolean)}后，带重置间隔（DRI）的帧按RST标记拆分熵编码数据，
+ * 各段的直流预测值独立，在多个核心上并行解码。
+ */
+public class JPEGDecoder {
+
+    /**
+     * 最大分量数
+     */
+    private final static int MAX_COMPONENTS = 3;
+    /**
+     * 霍夫曼快速查找位数
+     */
+    private final static int LOOKUP_BITS = 9;
+    /**
+     * Z字形扫描顺序对应的自然顺序下标
+     */
+    final static int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * 标准直流亮度霍夫曼表（ITU T.81 K.3，码长数量+符号），很多MJPEG数据流省略DHT段
+     */
+    final static byte[] STANDARD_DC_LUMINANCE = {
+            0x00, 0x01, 0x05, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+            0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b
+    };
+    /**
+     * 标准直流色度霍夫曼表
+     */
+    final static byte[] STANDARD_DC_CHROMINANCE = {
+            0x00, 0x03, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00,
+            0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b
+    };
+    /**
+     * 标准交流亮度霍夫曼表
+     */
+    final static byte[] STANDARD_AC_LUMINANCE = {
+            0x00, 0x02, 0x01, 0x03, 0x03, 0x02, 0x04, 0x03, 0x05, 0x05, 0x04, 0x04, 0x00, 0x00, 0x01, 0x7d,
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, (byte) 0x81, (byte) 0x91, (byte) 0xa1, 0x08, 0x23, 0x42, (byte) 0xb1, (byte) 0xc1, 0x15, 0x52, (byte) 0xd1, (byte) 0xf0,
+            0x24, 0x33, 0x62, 0x72, (byte) 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, (byte) 0x83, (byte) 0x84, (byte) 0x85, (byte) 0x86, (byte) 0x87, (byte) 0x88, (byte) 0x89,
+            (byte) 0x8a, (byte) 0x92, (byte) 0x93, (byte) 0x94, (byte) 0x95, (byte) 0x96, (byte) 0x97, (byte) 0x98, (byte) 0x99, (byte) 0x9a, (byte) 0xa2, (byte) 0xa3, (byte) 0xa4, (byte) 0xa5, (byte) 0xa6, (byte) 0xa7,
+            (byte) 0xa8, (byte) 0xa9, (byte) 0xaa, (byte) 0xb2, (byte) 0xb3, (byte) 0xb4, (byte) 0xb5, (byte) 0xb6, (byte) 0xb7, (byte) 0xb8, (byte) 0xb9, (byte) 0xba, (byte) 0xc2, (byte) 0xc3, (byte) 0xc4, (byte) 0xc5,
+            (byte) 0xc6, (byte) 0xc7, (byte) 0xc8, (byte) 0xc9, (byte) 0xca, (byte) 0xd2, (byte) 0xd3, (byte) 0xd4, (byte) 0xd5, (byte) 0xd6, (byte) 0xd7, (byte) 0xd8, (byte) 0xd9, (byte) 0xda, (byte) 0xe1, (byte) 0xe2,
+            (byte) 0xe3, (byte) 0xe4, (byte) 0xe5, (byte) 0xe6, (byte) 0xe7, (byte) 0xe8, (byte) 0xe9, (byte) 0xea, (byte) 0xf1, (byte) 0xf2, (byte) 0xf3, (byte) 0xf4, (byte) 0xf5, (byte) 0xf6, (byte) 0xf7, (byte) 0xf8,
+            (byte) 0xf9, (byte) 0xfa
+    };
+    /**
+     * 标准交流色度霍夫曼表
+     */
+    final static byte[] STANDARD_AC_CHROMINANCE = {
+            0x00, 0x02, 0x01, 0x02, 0x04, 0x04, 0x03, 0x04, 0x07, 0x05, 0x04, 0x04, 0x00, 0x01, 0x02, 0x77,
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, (byte) 0x81, 0x08, 0x14, 0x42, (byte) 0x91, (byte) 0xa1, (byte) 0xb1, (byte) 0xc1, 0x09, 0x23, 0x33, 0x52, (byte) 0xf0,
+            0x15, 0x62, 0x72, (byte) 0xd1, 0x0a, 0x16, 0x24, 0x34, (byte) 0xe1, 0x25, (byte) 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, (byte) 0x82, (byte) 0x83, (byte) 0x84, (byte) 0x85, (byte) 0x86, (byte) 0x87,
+            (byte) 0x88, (byte) 0x89, (byte) 0x8a, (byte) 0x92, (byte) 0x93, (byte) 0x94, (byte) 0x95, (byte) 0x96, (byte) 0x97, (byte) 0x98, (byte) 0x99, (byte) 0x9a, (byte) 0xa2, (byte) 0xa3, (byte) 0xa4, (byte) 0xa5,
+            (byte) 0xa6, (byte) 0xa7, (byte) 0xa8, (byte) 0xa9, (byte) 0xaa, (byte) 0xb2, (byte) 0xb3, (byte) 0xb4, (byte) 0xb5, (byte) 0xb6, (byte) 0xb7, (byte) 0xb8, (byte) 0xb9, (byte) 0xba, (byte) 0xc2, (byte) 0xc3,
+            (byte) 0xc4, (byte) 0xc5, (byte) 0xc6, (byte) 0xc7, (byte) 0xc8, (byte) 0xc9, (byte) 0xca, (byte) 0xd2, (byte) 0xd3, (byte) 0xd4, (byte) 0xd5, (byte) 0xd6, (byte) 0xd7, (byte) 0xd8, (byte) 0xd9, (byte) 0xda,
+            (byte) 0xe2, (byte) 0xe3, (byte) 0xe4, (byte) 0xe5, (byte) 0xe6, (byte) 0xe7, (byte) 0xe8, (byte) 0xe9, (byte) 0xea, (byte) 0xf2, (byte) 0xf3, (byte) 0xf4, (byte) 0xf5, (byte) 0xf6, (byte) 0xf7, (byte) 0xf8,
+            (byte) 0xf9, (byte) 0xfa
+    };
+
+    /**
+     * IDCT常量（放大4096倍）
+     */
+    private final static int
+            F0_541 = f2f(0.5411961f),
+            F1_847 = f2f(-1.847759065f),
+            F0_765 = f2f(0.765366865f),
+            F1_175 = f2f(1.175875602f),
+            F0_298 = f2f(0.298631336f),
+            F2_053 = f2f(2.053119869f),
+            F3_072 = f2f(3.072711026f),
+            F1_501 = f2f(1.501321110f),
+            F0_899 = f2f(-0.899976223f),
+            F2_562 = f2f(-2.562915447f),
+            F1_961 = f2f(-1.961570560f),
+            F0_390 = f2f(-0.390180644f);
+
+    /**
+     * 量化表（Z字形顺序）
+     */
+    private final int[][] quantization = new int[4][64];
+    /**
+     * 直流霍夫曼表
+     */
+    private final Huffman[] dcTables = {new Huffman(), new Huffman(), new Huffman(), new Huffman()};
+    /**
+     * 交流霍夫曼表
+     */
+    private final Huffman[] acTables = {new Huffman(), new Huffman(), new Huffman(), new Huffman()};
+    /**
+     * 图像宽度
+     */
+    private int width;
+    /**
+     * 图像高度
+     */
+    private int height;
+    /**
+     * 分量数
+     */
+    private int components;
+    /**
+     * 分量ID
+     */
+    private final int[] componentIds = new int[MAX_COMPONENTS];
+    /**
+     * 分量水平采样因子
+     */
+    private final int[] horizontalSampling = new int[MAX_COMPONENTS];
+    /**
+     * 分量垂直采样因子
+     */
+    private final int[] verticalSampling = new int[MAX_COMPONENTS];
+    /**
+     * 分量量化表
+     */
+    private final int[] quantizationIndex = new int[MAX_COMPONENTS];
+    /**
+     * 分量直流表
+     */
+    private final int[] dcIndex = new int[MAX_COMPONENTS];
+    /**
+     * 分量交流表
+     */
+    private final int[] acIndex = new int[MAX_COMPONENTS];
+    /**
+     * 最大水平采样因子
+     */
+    private int maxHorizontal;
+    /**
+     * 最大垂直采样因子
+     */
+    private int maxVertical;
+    /**
+     * 水平MCU数量
+     */
+    private int mcusPerRow;
+    /**
+     * 垂直MCU数量
+     */
+    private int mcuRows;
+    /**
+     * 重置间隔（MCU数），0表示无
+     */
+    private int restartInterval;
+    /**
+     * 数据
+     */
+    private byte[] data;
+    /**
+     * 扫描数据开始位置
+     */
+    private int scanStart;
+    /**
+     * 数据结束位置
+     */
+    private int end;
+    /**
+     * 分量输出数组
+     */
+    private final byte[][] targets = new byte[MAX_COMPONENTS][];
+    /**
+     * 分量输出缓冲区（输出到缓冲区时，对应的{@link #targets}为null）
+     */
+    private final ByteBuffer[] targetBuffers = new ByteBuffer[MAX_COMPONENTS];
+    /**
+     * 分量输出偏移
+     */
+    private final int[] targetOffsets = new int[MAX_COMPONENTS];
+    /**
+     * 分量输出行跨度
+     */
+    private final int[] targetRowStrides = new int[MAX_COMPONENTS];
+    /**
+     * 分量输出像素跨度
+     */
+    private final int[] targetPixelStrides = new int[MAX_COMPONENTS];
+    /**
+     * 分量输出宽度（超出部分不写入）
+     */
+    private final int[] targetWidths = new int[MAX_COMPONENTS];
+    /**
+     * 分量输出高度（超出部分不写入）
+     */
+    private final int[] targetHeights = new int[MAX_COMPONENTS];
+    /**
+     * 分量平面（不能直接输出的分量）
+     */
+    private final byte[][] planes = new byte[MAX_COMPONENTS][];
+    /**
+     * 顺序解码的扫描状态
+     */
+    private final Scan scan = new Scan();
+    /**
+     * 并行解码
+     */
+    private boolean parallel;
+    /**
+     * 并行任务数量
+     */
+    private int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * 重置段开始位置
+     */
+    private int[] segments = new int[0];
+    /**
+     * 并行任务
+     */
+    private Segments[] tasks = new Segments[0];
+    /**
+     * 并行解码的根任务（复用）
+     */
+    private final Fork fork = new Fork();
+
+    /**
+     * 霍夫曼表
+     */
+    private static class Huffman {
+
+        /**
+         * 快速查找表：(码长<<8)|符号，0表示码长超过{@link #LOOKUP_BITS}
+         */
+        private final int[] lookup = new int[1 << LOOKUP_BITS];
+        /**
+         * 各码长的最大码值，-1表示没有该码长
+         */
+        private final int[] maxCode = new int[18];
+        /**
+         * 各码长的符号偏移
+         */
+        private final int[] valueOffset = new int[17];
+        /**
+         * 符号
+         */
+        private final int[] values = new int[256];
+        /**
+         * 是否已定义
+         */
+        private boolean defined;
+
+        /**
+         * 构建表
+         *
+         * @param data   数据
+         * @param counts 各码长数量开始位置
+         * @return 符号数量，-1表示无效
+         */
+        private int build(byte[] data, int counts) {
+            int total = 0;
+            for (int i = 0; i < 16; i++) {
+                total += data[counts + i] & 0xFF;
+            }
+            if (total > 256) {
+                return -1;
+            }
+            for (int i = 0; i < total; i++) {
+                values[i] = data[counts + 16 + i] & 0xFF;
+            }
+            Arrays.fill(lookup, 0);
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                int count = data[counts + length - 1] & 0xFF;
+                valueOffset[length] = k - code;
+                for (int i = 0; i < count; i++) {
+                    if (length <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - length;
+                        int first = code << shift;
+                        int entry = (length << 8) | values[k];
+                        for (int j = 0; j < (1 << shift); j++) {
+                            lookup[first + j] = entry;
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                maxCode[length] = count > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+            defined = true;
+            return total;
+        }
+
+    }
+
+    /**
+     * 放大4096倍
+     *
+     * @param x 系数
+     * @return
+     */
+    private static int f2f(float x) {
+        return (int) (x * 4096 + 0.5f);
+    }
+
+    /**
+     * 解析JPEG标记段直到扫描开始（SOS）
+     *
+     * @param data   数据
+     * @param offset 偏移
+     * @param length 长度
+     * @return 是否支持解码：8位基线（SOF0/SOF1）、1或3个分量、单次交错扫描
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        this.data = data;
+        end = offset + length;
+        width = 0;
+        height = 0;
+        components = 0;
+        restartInterval = 0;
+        scanStart = -1;
+        for (Huffman table : dcTables) {
+            table.defined = false;
+        }
+        for (Huffman table : acTables) {
+            table.defined = false;
+        }
+        if (length < 4 || data[offset] != (byte) 0xFF || data[offset + 1] != (byte) 0xD8) {
+            return false;
+        }
+        int position = offset + 2;
+        while (position < end) {
+            if (data[position] != (byte) 0xFF) {
+                return false;
+            }
+            while (position < end && data[position] == (byte) 0xFF) {
+                position++;
+            }
+            if (position >= end) {
+                return false;
+            }
+            int marker = data[position++] & 0xFF;
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            if (marker == 0xD9 || position + 2 > end) {
+                return false;
+            }
+            int segment = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+            if (segment < 2 || position + segment > end) {
+                return false;
+            }
+            int start = position + 2;
+            int size = segment - 2;
+            switch (marker) {
+                case 0xC0:
+                case 0xC1:
+                    if (!parseFrame(start, size)) {
+                        return false;
+                    }
+                    break;
+                case 0xC4:
+                    if (!parseHuffman(start, size)) {
+                        return false;
+                    }
+                    break;
+                case 0xDB:
+                    if (!parseQuantization(start, size)) {
+                        return false;
+                    }
+                    break;
+                case 0xDD:
+                    if (size < 2) {
+                        return false;
+                    }
+                    restartInterval = ((data[start] & 0xFF) << 8) | (data[start + 1] & 0xFF);
+                    break;
+                case 0xDA:
+                    if (!parseScan(start, size)) {
+                        return false;
+                    }
+                    scanStart = position + segment;
+                    return true;
+                default:
+                    if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                        //渐进式、无损和算术编码不支持
+                        return false;
+                    }
+                    break;
+            }
+            position += segment;
+        }
+        return false;
+    }
+
+    /**
+     * 解析帧开始段
+     *
+     * @param start 段内容开始
+     * @param size  段内容长度
+     * @return
+     */
+    private boolean parseFrame(int start, int size) {
+        if (size < 6 || (data[start] & 0xFF) != 8) {
+            return false;
+        }
+        height = ((data[start + 1] & 0xFF) << 8) | (data[start + 2] & 0xFF);
+        width = ((data[start + 3] & 0xFF) << 8) | (data[start + 4] & 0xFF);
+        components = data[start + 5] & 0xFF;
+        if (width == 0 || height == 0 || (components != 1 && components != 3) || size < 6 + components * 3) {
+            return false;
+        }
+        maxHorizontal = 1;
+        maxVertical = 1;
+        for (int i = 0; i < components; i++) {
+            int index = start + 6 + i * 3;
+            componentIds[i] = data[index] & 0xFF;
+            horizontalSampling[i] = (data[index + 1] & 0xFF) >> 4;
+            verticalSampling[i] = data[index + 1] & 0x0F;
+            quantizationIndex[i] = data[index + 2] & 0x03;
+            if (horizontalSampling[i] < 1 || horizontalSampling[i] > 4 || verticalSampling[i] < 1 || verticalSampling[i] > 4) {
+                return false;
+            }
+            maxHorizontal = Math.max(maxHorizontal, horizontalSampling[i]);
+            maxVertical = Math.max(maxVertical, verticalSampling[i]);
+        }
+        if (components == 1) {
+            //非交错扫描，每个MCU为一个块
+            horizontalSampling[0] = verticalSampling[0] = 1;
+            maxHorizontal = maxVertical = 1;
+        }
+        mcusPerRow = (width + 8 * maxHorizontal - 1) / (8 * maxHorizontal);
+        mcuRows = (height + 8 * maxVertical - 1) / (8 * maxVertical);
+        return true;
+    }
+
+    /**
+     * 解析霍夫曼表段
+     *
+     * @param start 段内容开始
+     * @param size  段内容长度
+     * @return
+     */
+    private boolean parseHuffman(int start, int size) {
+        int position = start;
+        int stop = start + size;
+        while (position + 17 <= stop) {
+            int info = data[position] & 0xFF;
+            int type = info >> 4;
+            int index = info & 0x0F;
+            if (type > 1 || index > 3) {
+                return false;
+            }
+            Huffman table = type == 0 ? dcTables[index] : acTables[index];
+            int total = table.build(data, position + 1);
+            if (total < 0 || position + 17 + total > stop) {
+                return false;
+            }
+            position += 17 + total;
+        }
+        return true;
+    }
+
+    /**
+     * 解析量化表段
+     *
+     * @param start 段内容开始
+     * @param size  段内容长度
+     * @return
+     */
+    private boolean parseQuantization(int start, int size) {
+        int position = start;
+        int stop = start + size;
+        while (position < stop) {
+            int info = data[position++] & 0xFF;
+            int precision = info >> 4;
+            int index = info & 0x0F;
+            if (index > 3 || position + (precision == 0 ? 64 : 128) > stop) {
+                return false;
+            }
+            int[] table = quantization[index];
+            for (int i = 0; i < 64; i++) {
+                if (precision == 0) {
+                    table[i] = data[position++] & 0xFF;
+                } else {
+                    table[i] = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+                    position += 2;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析扫描开始段
+     *
+     * @param start 段内容开始
+     * @param size  段内容长度
+     * @return
+     */
+    private boolean parseScan(int start, int size) {
+        if (components == 0 || size < 1) {
+            return false;
+        }
+        int count = data[start] & 0xFF;
+        if (count != components || size < 1 + count * 2 + 3) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int id = data[start + 1 + i * 2] & 0xFF;
+            int tables = data[start + 2 + i * 2] & 0xFF;
+            if (componentIds[i] != id) {
+                return false;
+            }
+            dcIndex[i] = (tables >> 4) & 0x03;
+            acIndex[i] = tables & 0x03;
+            //没有DHT段时使用标准霍夫曼表（表0为亮度，表1为色度）
+            Huffman dc = dcTables[dcIndex[i]];
+            if (!dc.defined && (dcIndex[i] > 1 || dc.build(dcIndex[i] == 0 ? STANDARD_DC_LUMINANCE : STANDARD_DC_CHROMINANCE, 0) < 0)) {
+                return false;
+            }
+            Huffman ac = acTables[acIndex[i]];
+            if (!ac.defined && (acIndex[i] > 1 || ac.build(acIndex[i] == 0 ? STANDARD_AC_LUMINANCE : STANDARD_AC_CHROMINANCE, 0) < 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解码为YUV420P/I420
+     *
+     * @param data   JPEG数据
+     * @param offset 偏移
+     * @param length 长度
+     * @param out    输出缓冲区，长度不小于{@link YUVCodec#getYUV420Size(int, int)}
+     * @return 是否成功
+     */
+    public boolean decodeYUV420P(byte[] data, int offset, int length, byte[] out) {
+        if (!parse(data, offset, length)) {
+            return false;
+        }
+        int frameSize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        int chromaSize = chromaWidth * ((height + 1) / 2);
+        return decode(out, 0, width, frameSize, frameSize + chromaSize, chromaWidth, 1);
+    }
+
+    /**
+     * 解码为YUV420SP/NV12
+     *
+     * @param data   JPEG数据
+     * @param offset 偏移
+     * @param length 长度
+     * @param out    输出缓冲区，长度不小于{@link YUVCodec#getYUV420Size(int, int)}
+     * @return 是否成功
+     */
+    public boolean decodeYUV420SP(byte[] data, int offset, int length, byte[] out) {
+        if (!parse(data, offset, length)) {
+            return false;
+        }
+        int frameSize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        return decode(out, 0, width, frameSize, frameSize + 1, chromaWidth * 2, 2);
+    }
+
+    /**
+     * 解码已解析（{@link #parse(byte[], int, int)}）的JPEG，按偏移、行跨度和像素跨度写入YUV420平面
+     *
+     * @param out           输出缓冲区
+     * @param yOffset       Y平面偏移
+     * @param yRowStride    Y平面行跨度
+     * @param uOffset       U平面偏移
+     * @param vOffset       V平面偏移
+     * @param uvRowStride   UV平面行跨度
+     * @param uvPixelStride UV像素跨度，平面格式为1，半平面格式为2
+     * @return 是否成功
+     */
+    public boolean decode(byte[] out, int yOffset, int yRowStride, int uOffset, int vOffset, int uvRowStride, int uvPixelStride) {
+        return decode(out, null, null, null, yOffset, yRowStride, uOffset, vOffset, uvRowStride, uvPixelStride);
+    }
+
+    /**
+     * 解码已解析（{@link #parse(byte[], int, int)}）的JPEG，按行跨度和像素跨度直接写入YUV420平面缓冲区，
+     * 例如编码器输入图像（{@link android.media.MediaCodec#getInputImage(int)}）的各平面，不经过中间数组复制；
+     * 缓冲区从位置0开始写入，不改变缓冲区的位置
+     *
+     * @param y             Y平面
+     * @param yRowStride    Y平面行跨度
+     * @param u             U平面
+     * @param v             V平面
+     * @param uvRowStride   UV平面行跨度
+     * @param uvPixelStride UV像素跨度，平面格式为1，半平面格式为2
+     * @return 是否成功
+     */
+    public boolean decode(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        return decode(null, y, u, v, 0, yRowStride, 0, 0, uvRowStride, uvPixelStride);
+    }
+
+    /**
+     * 解码已解析的JPEG，写入输出数组或输出缓冲区
+     *
+     * @param out           输出数组，为null时写入输出缓冲区
+     * @param y             Y平面缓冲区
+     * @param u             U平面缓冲区
+     * @param v             V平面缓冲区
+     * @param yOffset       Y平面偏移
+     * @param yRowStride    Y平面行跨度
+     * @param uOffset       U平面偏移
+     * @param vOffset       V平面偏移
+     * @param uvRowStride   UV平面行跨度
+     * @param uvPixelStride UV像素跨度
+     * @return 是否成功
+     */
+    private boolean decode(byte[] out, ByteBuffer y, ByteBuffer u, ByteBuffer v, int yOffset, int yRowStride, int uOffset, int vOffset, int uvRowStride, int uvPixelStride) {
+        if (scanStart < 0) {
+            return false;
+        }
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int[] offsets = {yOffset, uOffset, vOffset};
+        ByteBuffer[] buffers = {y, u, v};
+        for (int i = 0; i < components; i++) {
+            boolean luma = i == 0;
+            int divisor = luma ? 1 : 2;
+            if (horizontalSampling[i] * divisor == maxHorizontal && verticalSampling[i] * divisor == maxVertical) {
+                //分量分辨率与输出平面一致，IDCT结果直接写入
+                targets[i] = out;
+                targetBuffers[i] = out == null ? buffers[i] : null;
+                targetOffsets[i] = offsets[i];
+                targetRowStrides[i] = luma ? yRowStride : uvRowStride;
+                targetPixelStrides[i] = luma ? 1 : uvPixelStride;
+                targetWidths[i] = luma ? width : chromaWidth;
+                targetHeights[i] = luma ? height : chromaHeight;
+            } else {
+                int planeWidth = mcusPerRow * horizontalSampling[i] * 8;
+                int planeHeight = mcuRows * verticalSampling[i] * 8;
+                if (planes[i] == null || planes[i].length < planeWidth * planeHeight) {
+                    planes[i] = new byte[planeWidth * planeHeight];
+                }
+                targets[i] = planes[i];
+                targetBuffers[i] = null;
+                targetOffsets[i] = 0;
+                targetRowStrides[i] = planeWidth;
+                targetPixelStrides[i] = 1;
+                targetWidths[i] = planeWidth;
+                targetHeights[i] = planeHeight;
+            }
+        }
+        if (!decodeScan()) {
+            return false;
+        }
+        for (int i = 0; i < components; i++) {
+            if (targets[i] != null && targets[i] == planes[i]) {
+                boolean luma = i == 0;
+                resample(i, out, buffers[i], offsets[i], luma ? yRowStride : uvRowStride, luma ? 1 : uvPixelStride,
+                        luma ? width : chromaWidth, luma ? height : chromaHeight, luma ? 1 : 2);
+            }
+        }
+        if (components == 1) {
+            //灰度图像色度为128
+            for (int row = 0; row < chromaHeight; row++) {
+                for (int x = 0; x < chromaWidth; x++) {
+                    int index = row * uvRowStride + x * uvPixelStride;
+                    if (out != null) {
+                        out[uOffset + index] = (byte) 128;
+                        out[vOffset + index] = (byte) 128;
+                    } else {
+                        u.put(index, (byte) 128);
+                        v.put(index, (byte) 128);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 分量平面重采样到输出平面，每个输出像素取其覆盖的divisor x divisor个图像像素对应分量值的平均
+     *
+     * @param component   分量
+     * @param out         输出数组，为null时写入输出缓冲区
+     * @param buffer      输出缓冲区
+     * @param offset      输出偏移
+     * @param rowStride   输出行跨度
+     * @param pixelStride 输出像素跨度
+     * @param outWidth    输出宽度
+     * @param outHeight   输出高度
+     * @param divisor     输出平面相对图像的缩小倍数
+     */
+    private void resample(int component, byte[] out, ByteBuffer buffer, int offset, int rowStride, int pixelStride, int outWidth, int outHeight, int divisor) {
+        byte[] plane = planes[component];
+        int planeStride = targetRowStrides[component];
+        int h = horizontalSampling[component];
+        int v = verticalSampling[component];
+        int area = divisor * divisor;
+        for (int y = 0; y < outHeight; y++) {
+            for (int x = 0; x < outWidth; x++) {
+                int sum = 0;
+                for (int dy = 0; dy < divisor; dy++) {
+                    int row = Math.min(y * divisor + dy, height - 1) * v / maxVertical;
+                    for (int dx = 0; dx < divisor; dx++) {
+                        int column = Math.min(x * divisor + dx, width - 1) * h / maxHorizontal;
+                        sum += plane[row * planeStride + column] & 0xFF;
+                    }
+                }
+                int index = offset + y * rowStride + x * pixelStride;
+                if (out != null) {
+                    out[index] = (byte) ((sum + area / 2) / area);
+                } else {
+                    buffer.put(index, (byte) ((sum + area / 2) / area));
+                }
+            }
+        }
+    }
+
+    /**
+     * 解码熵编码数据，有重置间隔且开启并行时按段并行解码
+     *
+     * @return 是否成功
+     */
+    private boolean decodeScan() {
+        int total = mcusPerRow * mcuRows;
+        int count = restartInterval > 0 ? (total + restartInterval - 1) / restartInterval : 1;
+        int threads = Math.min(parallelism, count);
+        if (!parallel || threads < 2 || !findSegments(count)) {
+            scan.reset(scanStart);
+            return scan.decode(0, total);
+        }
+        if (tasks.length < threads) {
+            Segments[] grow = new Segments[threads];
+            System.arraycopy(tasks, 0, grow, 0, tasks.length);
+            for (int i = tasks.length; i < threads; i++) {
+                grow[i] = new Segments(i == 0 ? scan : new Scan());
+            }
+            tasks = grow;
+        }
+        for (int i = 0; i < threads; i++) {
+            Segments task = tasks[i];
+            task.reinitialize();
+            task.from = (int) ((long) count * i / threads);
+            task.to = (int) ((long) count * (i + 1) / threads);
+            task.total = total;
+            task.success = false;
+        }
+        fork.reinitialize();
+        fork.threads = threads;
+        YUVCodec.pool().invoke(fork);
+        for (int i = 0; i < threads; i++) {
+            if (!tasks[i].success) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查找所有重置段的开始位置（RSTn标记之后）
+     *
+     * @param count 段数量
+     * @return 是否找到全部段，缺少RST标记的损坏帧按顺序解码
+     */
+    private boolean findSegments(int count) {
+        if (segments.length < count) {
+            segments = new int[count];
+        }
+        segments[0] = scanStart;
+        int found = 1;
+        for (int position = scanStart; position + 1 < end && found < count; position++) {
+            if (data[position] != (byte) 0xFF) {
+                continue;
+            }
+            int marker = data[position + 1] & 0xFF;
+            if (marker >= 0xD0 && marker <= 0xD7) {
+                segments[found++] = position + 2;
+                position++;
+            } else if (marker == 0) {
+                position++;
+            } else if (marker != 0xFF) {
+                //EOI或其他标记
+                break;
+            }
+        }
+        return found == count;
+    }
+
+    /**
+     * 设置是否并行解码带重置间隔的帧
+     *
+     * @param parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * 设置并行任务数量
+     *
+     * @param parallelism 默认CPU核数
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 重置间隔（MCU数）
+     *
+     * @return 0表示无
+     */
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    /**
+     * 并行解码的根任务：派生前{@link #threads}个任务，第一个任务在当前线程执行，不复制任务数组
+     */
+    private class Fork extends RecursiveAction {
+
+        /**
+         * 本帧使用的任务数量
+         */
+        private int threads;
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < threads; i++) {
+                tasks[i].fork();
+            }
+            tasks[0].invoke();
+            for (int i = threads - 1; i > 0; i--) {
+                tasks[i].join();
+            }
+        }
+
+    }
+
+    /**
+     * 并行任务：顺序解码连续的若干重置段，每个任务使用独立的扫描状态
+     */
+    private class Segments extends RecursiveAction {
+
+        /**
+         * 扫描状态
+         */
+        private final Scan scan;
+        /**
+         * 开始段
+         */
+        private int from;
+        /**
+         * 结束段（不包含）
+         */
+        private int to;
+        /**
+         * MCU总数
+         */
+        private int total;
+        /**
+         * 是否成功
+         */
+        private boolean success;
+
+        private Segments(Scan scan) {
+            this.scan = scan;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = from; i < to; i++) {
+                int first = i * restartInterval;
+                scan.reset(segments[i]);
+                if (!scan.decode(first, Math.min(restartInterval, total - first))) {
+                    return;
+                }
+            }
+            success = true;
+        }
+
+    }
+
+    /**
+     * 扫描状态：位读取器、直流预测值和块缓冲区
+     */
+    private class Scan {
+
+        /**
+         * 读取位置
+         */
+        private int position;
+        /**
+         * 位缓冲（高位对齐）
+         */
+        private long bits;
+        /**
+         * 位缓冲中的有效位数
+         */
+        private int count;
+        /**
+         * 遇到标记，之后补0
+         */
+        private boolean marker;
+        /**
+         * 数据结束（没有标记）后补0的位数，读取到补位表示帧被截断
+         */
+        private int padded;
+        /**
+         * 直流预测值
+         */
+        private final int[] predictions = new int[MAX_COMPONENTS];
+        /**
+         * 系数块（自然顺序）
+         */
+        private final int[] block = new int[64];
+        /**
+         * IDCT中间结果
+         */
+        private final int[] workspace = new int[64];
+        /**
+         * 块像素（输出到缓冲区时IDCT结果先写入这里）
+         */
+        private final byte[] pixels = new byte[64];
+        /**
+         * 输出缓冲区
+         */
+        private final ByteBuffer[] sources = new ByteBuffer[MAX_COMPONENTS];
+        /**
+         * 输出缓冲区的副本（各任务的位置互不影响）
+         */
+        private final ByteBuffer[] views = new ByteBuffer[MAX_COMPONENTS];
+
+        /**
+         * 重置到指定位置
+         *
+         * @param position 熵编码数据位置
+         */
+        private void reset(int position) {
+            this.position = position;
+            bits = 0;
+            count = 0;
+            marker = false;
+            padded = 0;
+            Arrays.fill(predictions, 0);
+        }
+
+        /**
+         * 解码连续的MCU
+         *
+         * @param first 第一个MCU
+         * @param total MCU数量
+         * @return 是否成功
+         */
+        private boolean decode(int first, int total) {
+            for (int i = 0; i < total; i++) {
+                int mcu = first + i;
+                if (restartInterval > 0 && i > 0 && mcu % restartInterval == 0) {
+                    restart();
+                }
+                if (!decodeMCU(mcu) || padded > count) {
+                    //无效编码，或已读取到截断帧的补位
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 跳过重置标记（RSTn），重置位缓冲和直流预测值
+         */
+        private void restart() {
+            while (position + 1 < end && !(data[position] == (byte) 0xFF && (data[position + 1] & 0xF8) == 0xD0)) {
+                position++;
+            }
+            reset(position + 2);
+        }
+
+        /**
+         * 解码一个MCU
+         *
+         * @param mcu MCU下标
+         * @return 是否成功
+         */
+        private boolean decodeMCU(int mcu) {
+            int mcuX = mcu % mcusPerRow;
+            int mcuY = mcu / mcusPerRow;
+            for (int c = 0; c < components; c++) {
+                int h = horizontalSampling[c];
+                int v = verticalSampling[c];
+                for (int by = 0; by < v; by++) {
+                    for (int bx = 0; bx < h; bx++) {
+                        if (!decodeBlock(c)) {
+                            return false;
+                        }
+                        store(c, (mcuX * h + bx) * 8, (mcuY * v + by) * 8);
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 解码一个8x8块的系数并反量化
+         *
+         * @param component 分量
+         * @return 是否成功
+         */
+        private boolean decodeBlock(int component) {
+            Arrays.fill(block, 0);
+            int[] table = quantization[quantizationIndex[component]];
+            int t = decodeHuffman(dcTables[dcIndex[component]]);
+            if (t < 0) {
+                return false;
+            }
+            predictions[component] += receiveExtend(t);
+            block[0] = predictions[component] * table[0];
+            Huffman ac = acTables[acIndex[component]];
+            for (int k = 1; k < 64; ) {
+                int rs = decodeHuffman(ac);
+                if (rs < 0) {
+                    return false;
+                }
+                int r = rs >> 4;
+                int s = rs & 0x0F;
+                if (s == 0) {
+                    if (r != 15) {
+                        break;
+                    }
+                    k += 16;
+                } else {
+                    k += r;
+                    if (k > 63) {
+                        return false;
+                    }
+                    block[ZIGZAG[k]] = receiveExtend(s) * table[k];
+                    k++;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 填充位缓冲，遇到标记或数据结束后补0
+         */
+        private void fill() {
+            while (count <= 56) {
+                int b = 0;
+                if (!marker && position < end) {
+                    b = data[position] & 0xFF;
+                    if (b == 0xFF) {
+                        int next = position + 1 < end ? data[position + 1] & 0xFF : 0xD9;
+                        if (next == 0) {
+                            position += 2;
+                        } else {
+                            marker = true;
+                            b = 0;
+                        }
+                    } else {
+                        position++;
+                    }
+                } else if (!marker) {
+                    padded += 8;
+                }
+                bits |= (long) b << (56 - count);
+                count += 8;
+            }
+        }
+
+        /**
+         * 霍夫曼解码一个符号
+         *
+         * @param table 霍夫曼表
+         * @return 符号，-1表示无效编码
+         */
+        private int decodeHuffman(Huffman table) {
+            if (count < 16) {
+                fill();
+            }
+            int entry = table.lookup[(int) (bits >>> (64 - LOOKUP_BITS))];
+            if (entry != 0) {
+                int length = entry >> 8;
+                bits <<= length;
+                count -= length;
+                return entry & 0xFF;
+            }
+            for (int length = LOOKUP_BITS + 1; length <= 16; length++) {
+                int code = (int) (bits >>> (64 - length));
+                if (code <= table.maxCode[length]) {
+                    bits <<= length;
+                    count -= length;
+                    return table.values[(code + table.valueOffset[length]) & 0xFF];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 读取s位并扩展符号
+         *
+         * @param s 位数
+         * @return
+         */
+        private int receiveExtend(int s) {
+            if (s == 0) {
+                return 0;
+            }
+            if (count < s) {
+                fill();
+            }
+            int value = (int) (bits >>> (64 - s));
+            bits <<= s;
+            count -= s;
+            if (value < (1 << (s - 1))) {
+                value += (-1 << s) + 1;
+            }
+            return value;
+        }
+
+        /**
+         * IDCT并写入分量输出
+         *
+         * @param component 分量
+         * @param x         块左上角x
+         * @param y         块左上角y
+         */
+        private void store(int component, int x, int y) {
+            int columns = Math.min(8, targetWidths[component] - x);
+            int rows = Math.min(8, targetHeights[component] - y);
+            if (columns <= 0 || rows <= 0) {
+                return;
+            }
+            int pixelStride = targetPixelStrides[component];
+            int rowStride = targetRowStrides[component];
+            int offset = targetOffsets[component] + y * rowStride + x * pixelStride;
+            if (targets[component] != null) {
+                idct(targets[component], offset, rowStride, pixelStride, columns, rows);
+                return;
+            }
+            idct(pixels, 0, 8, 1, columns, rows);
+            ByteBuffer view = view(component);
+            for (int i = 0; i < rows; i++) {
+                int o = offset + i * rowStride;
+                if (pixelStride == 1) {
+                    view.position(o);
+                    view.put(pixels, i * 8, columns);
+                } else {
+                    for (int j = 0; j < columns; j++) {
+                        view.put(o + j * pixelStride, pixels[i * 8 + j]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 分量输出缓冲区的副本，输出缓冲区改变时重新创建
+         *
+         * @param component 分量
+         * @return
+         */
+        private ByteBuffer view(int component) {
+            ByteBuffer buffer = targetBuffers[component];
+            if (sources[component] != buffer) {
+                sources[component] = buffer;
+                views[component] = buffer.duplicate();
+                views[component].clear();
+            }
+            return views[component];
+        }
+
+        /**
+         * 整数IDCT（与libjpeg islow精度相当）
+         *
+         * @param out         输出
+         * @param offset      输出偏移
+         * @param rowStride   行跨度
+         * @param pixelStride 像素跨度
+         * @param columns     写入列数
+         * @param rows        写入行数
+         */
+        private void idct(byte[] out, int offset, int rowStride, int pixelStride, int columns, int rows) {
+            int[] d = block;
+            int[] w = workspace;
+            //列
+            for (int i = 0; i < 8; i++) {
+                if (d[8 + i] == 0 && d[16 + i] == 0 && d[24 + i] == 0 && d[32 + i] == 0
+                        && d[40 + i] == 0 && d[48 + i] == 0 && d[56 + i] == 0) {
+                    int dc = d[i] << 2;
+                    w[i] = w[8 + i] = w[16 + i] = w[24 + i] = w[32 + i] = w[40 + i] = w[48 + i] = w[56 + i] = dc;
+                    continue;
+                }
+                int s0 = d[i], s1 = d[8 + i], s2 = d[16 + i], s3 = d[24 + i];
+                int s4 = d[32 + i], s5 = d[40 + i], s6 = d[48 + i], s7 = d[56 + i];
+                int p1 = (s2 + s6) * F0_541;
+                int t2 = p1 + s6 * F1_847;
+                int t3 = p1 + s2 * F0_765;
+                int t0 = (s0 + s4) << 12;
+                int t1 = (s0 - s4) << 12;
+                int x0 = t0 + t3 + 512;
+                int x3 = t0 - t3 + 512;
+                int x1 = t1 + t2 + 512;
+                int x2 = t1 - t2 + 512;
+                t0 = s7;
+                t1 = s5;
+                t2 = s3;
+                t3 = s1;
+                int p3 = t0 + t2;
+                int p4 = t1 + t3;
+                p1 = t0 + t3;
+                int p2 = t1 + t2;
+                int p5 = (p3 + p4) * F1_175;
+                t0 = t0 * F0_298;
+                t1 = t1 * F2_053;
+                t2 = t2 * F3_072;
+                t3 = t3 * F1_501;
+                p1 = p5 + p1 * F0_899;
+                p2 = p5 + p2 * F2_562;
+                p3 = p3 * F1_961;
+                p4 = p4 * F0_390;
+                t3 += p1 + p4;
+                t2 += p2 + p3;
+                t1 += p2 + p4;
+                t0 += p1 + p3;
+                w[i] = (x0 + t3) >> 10;
+                w[56 + i] = (x0 - t3) >> 10;
+                w[8 + i] = (x1 + t2) >> 10;
+                w[48 + i] = (x1 - t2) >> 10;
+                w[16 + i] = (x2 + t1) >> 10;
+                w[40 + i] = (x2 - t1) >> 10;
+                w[24 + i] = (x3 + t0) >> 10;
+                w[32 + i] = (x3 - t0) >> 10;
+            }
+            //行
+            for (int i = 0; i < rows; i++) {
+                int v = i * 8;
+                int s0 = w[v], s1 = w[v + 1], s2 = w[v + 2], s3 = w[v + 3];
+                int s4 = w[v + 4], s5 = w[v + 5], s6 = w[v + 6], s7 = w[v + 7];
+                int p1 = (s2 + s6) * F0_541;
+                int t2 = p1 + s6 * F1_847;
+                int t3 = p1 + s2 * F0_765;
+                int t0 = (s0 + s4) << 12;
+                int t1 = (s0 - s4) << 12;
+                //舍入并加上128的电平偏移
+                int bias = 65536 + (128 << 17);
+                int x0 = t0 + t3 + bias;
+                int x3 = t0 - t3 + bias;
+                int x1 = t1 + t2 + bias;
+                int x2 = t1 - t2 + bias;
+                t0 = s7;
+                t1 = s5;
+                t2 = s3;
+                t3 = s1;
+                int p3 = t0 + t2;
+                int p4 = t1 + t3;
+                p1 = t0 + t3;
+                int p2 = t1 + t2;
+                int p5 = (p3 + p4) * F1_175;
+                t0 = t0 * F0_298;
+                t1 = t1 * F2_053;
+                t2 = t2 * F3_072;
+                t3 = t3 * F1_501;
+                p1 = p5 + p1 * F0_899;
+                p2 = p5 + p2 * F2_562;
+                p3 = p3 * F1_961;
+                p4 = p4 * F0_390;
+                t3 += p1 + p4;
+                t2 += p2 + p3;
+                t1 += p2 + p4;
+                t0 += p1 + p3;
+                int o = offset + i * rowStride;
+                if (columns == 8 && pixelStride == 1) {
+                    out[o] = clamp((x0 + t3) >> 17);
+                    out[o + 7] = clamp((x0 - t3) >> 17);
+                    out[o + 1] = clamp((x1 + t2) >> 17);
+                    out[o + 6] = clamp((x1 - t2) >> 17);
+                    out[o + 2] = clamp((x2 + t1) >> 17);
+                    out[o + 5] = clamp((x2 - t1) >> 17);
+                    out[o + 3] = clamp((x3 + t0) >> 17);
+                    out[o + 4] = clamp((x3 - t0) >> 17);
+                } else {
+                    int[] row = w;
+                    //行结果暂存在已处理的工作区行中
+                    row[v] = (x0 + t3) >> 17;
+                    row[v + 7] = (x0 - t3) >> 17;
+                    row[v + 1] = (x1 + t2) >> 17;
+                    row[v + 6] = (x1 - t2) >> 17;
+                    row[v + 2] = (x2 + t1) >> 17;
+                    row[v + 5] = (x2 - t1) >> 17;
+                    row[v + 3] = (x3 + t0) >> 17;
+                    row[v + 4] = (x3 - t0) >> 17;
+                    for (int j = 0; j < columns; j++) {
+                        out[o + j * pixelStride] = clamp(row[v + j]);
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 截断到0~255
+     *
+     * @param value
+     * @return
+     */
+    private static byte clamp(int value) {
+        if ((value & ~0xFF) != 0) {
+            value = value < 0 ? 0 : 255;
+        }
+        return (byte) value;
+    }
+
+}
@@ -0,0 +1,347 @@
+package androidx.mjpeg;
+
+/**
+ * JPEG信息<br/>
+ * 只遍历标记段（SOI/SOF/DRI/SOS/EOI），不解码像素，微秒级获取宽高、采样格式、
+ * 重置间隔以及帧是否完整，对象可重复使用。
+ */
+public class JPEGInfo {
+
+    /**
+     * 未知采样格式
+     */
+    public final static int SUBSAMPLING_UNKNOWN = 0;
+    /**
+     * 灰度
+     */
+    public final static int SUBSAMPLING_GRAY = 1;
+    /**
+     * 4:4:4
+     */
+    public final static int SUBSAMPLING_444 = 2;
+    /**
+     * 4:2:2
+     */
+    public final static int SUBSAMPLING_422 = 3;
+    /**
+     * 4:2:0
+     */
+    public final static int SUBSAMPLING_420 = 4;
+    /**
+     * 4:4:0
+     */
+    public final static int SUBSAMPLING_440 = 5;
+    /**
+     * 4:1:1
+     */
+    public final static int SUBSAMPLING_411 = 6;
+
+    /**
+     * 最大分量数
+     */
+    public final static int MAX_COMPONENTS = 4;
+
+    /**
+     * 宽度
+     */
+    private int width;
+    /**
+     * 高度
+     */
+    private int height;
+    /**
+     * 采样精度
+     */
+    private int precision;
+    /**
+     * 分量数
+     */
+    private int components;
+    /**
+     * 分量水平采样因子
+     */
+    private final int[] horizontalSampling = new int[MAX_COMPONENTS];
+    /**
+     * 分量垂直采样因子
+     */
+    private final int[] verticalSampling = new int[MAX_COMPONENTS];
+    /**
+     * 采样格式
+     */
+    private int subsampling;
+    /**
+     * 重置间隔（MCU数），0表示无
+     */
+    private int restartInterval;
+    /**
+     * 是否渐进式
+     */
+    private boolean progressive;
+    /**
+     * 是否基线（SOF0/SOF1）
+     */
+    private boolean baseline;
+    /**
+     * 是否完整（包含SOF、SOS并以EOI结束）
+     */
+    private boolean complete;
+    /**
+     * 第一个扫描数据开始位置（相对于数据偏移）
+     */
+    private int scanOffset;
+
+    /**
+     * 重置
+     */
+    public void reset() {
+        width = 0;
+        height = 0;
+        precision = 0;
+        components = 0;
+        subsampling = SUBSAMPLING_UNKNOWN;
+        restartInterval = 0;
+        progressive = false;
+        baseline = false;
+        complete = false;
+        scanOffset = -1;
+    }
+
+    /**
+     * 解析JPEG标记
+     *
+     * @param data   数据
+     * @param offset 偏移
+     * @param length 长度
+     * @return 是否为有效JPEG（包含SOI、SOF且宽高大于0），是否完整见{@link #isComplete()}
+     */
+    public boolean parse(byte[] data, int offset, int length) {
+        reset();
+        int end = offset + length;
+        if (length < 4 || data[offset] != (byte) 0xFF || data[offset + 1] != (byte) 0xD8) {
+            return false;
+        }
+        int position = offset + 2;
+        boolean frame = false;
+        while (position < end) {
+            if (data[position] != (byte) 0xFF) {
+                return false;
+            }
+            //跳过填充字节
+            while (position < end && data[position] == (byte) 0xFF) {
+                position++;
+            }
+            if (position >= end) {
+                return false;
+            }
+            int marker = data[position++] & 0xFF;
+            if (marker == 0xD9) {
+                //没有扫描数据的EOI
+                return false;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            if (position + 2 > end) {
+                return false;
+            }
+            int segment = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+            if (segment < 2 || position + segment > end) {
+                return false;
+            }
+            if (isStartOfFrame(marker)) {
+                if (!parseFrame(data, position + 2, segment - 2, marker)) {
+                    return false;
+                }
+                frame = true;
+            } else if (marker == 0xDD && segment >= 4) {
+                restartInterval = ((data[position + 2] & 0xFF) << 8) | (data[position + 3] & 0xFF);
+            } else if (marker == 0xDA) {
+                scanOffset = position + segment - offset;
+                complete = frame && endsWithEOI(data, position + segment, end);
+                return frame;
+            }
+            position += segment;
+        }
+        return false;
+    }
+
+    /**
+     * 是否帧开始标记（SOF0-SOF15，排除DHT、JPG、DAC）
+     *
+     * @param marker 标记
+     * @return
+     */
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * 解析帧开始段
+     *
+     * @param data   数据
+     * @param start  段内容开始
+     * @param length 段内容长度
+     * @param marker 标记
+     * @return
+     */
+    private boolean parseFrame(byte[] data, int start, int length, int marker) {
+        if (length < 6) {
+            return false;
+        }
+        precision = data[start] & 0xFF;
+        height = ((data[start + 1] & 0xFF) << 8) | (data[start + 2] & 0xFF);
+        width = ((data[start + 3] & 0xFF) << 8) | (data[start + 4] & 0xFF);
+        components = data[start + 5] & 0xFF;
+        if (width == 0 || height == 0 || components == 0 || components > MAX_COMPONENTS || length < 6 + components * 3) {
+            return false;
+        }
+        for (int i = 0; i < components; i++) {
+            int sampling = data[start + 6 + i * 3 + 1] & 0xFF;
+            horizontalSampling[i] = sampling >> 4;
+            verticalSampling[i] = sampling & 0x0F;
+        }
+        progressive = marker == 0xC2 || marker == 0xC6 || marker == 0xCA || marker == 0xCE;
+        baseline = marker == 0xC0 || marker == 0xC1;
+        subsampling = subsampling();
+        return true;
+    }
+
+    /**
+     * 根据采样因子判断采样格式
+     *
+     * @return
+     */
+    private int subsampling() {
+        if (components == 1) {
+            return SUBSAMPLING_GRAY;
+        }
+        if (components != 3 || horizontalSampling[1] != horizontalSampling[2] || verticalSampling[1] != verticalSampling[2]
+                || horizontalSampling[1] == 0 || verticalSampling[1] == 0) {
+            return SUBSAMPLING_UNKNOWN;
+        }
+        int h = horizontalSampling[0] / horizontalSampling[1];
+        int v = verticalSampling[0] / verticalSampling[1];
+        if (h * horizontalSampling[1] != horizontalSampling[0] || v * verticalSampling[1] != verticalSampling[0]) {
+            return SUBSAMPLING_UNKNOWN;
+        }
+        if (h == 1 && v == 1) {
+            return SUBSAMPLING_444;
+        }
+        if (h == 2 && v == 1) {
+            return SUBSAMPLING_422;
+        }
+        if (h == 2 && v == 2) {
+            return SUBSAMPLING_420;
+        }
+        if (h == 1 && v == 2) {
+            return SUBSAMPLING_440;
+        }
+        if (h == 4 && v == 1) {
+            return SUBSAMPLING_411;
+        }
+        return SUBSAMPLING_UNKNOWN;
+    }
+
+    /**
+     * 是否以EOI结束（允许少量尾部填充）
+     *
+     * @param data  数据
+     * @param start 扫描数据开始
+     * @param end   数据结束
+     * @return
+     */
+    private static boolean endsWithEOI(byte[] data, int start, int end) {
+        int stop = Math.max(start, end - 16);
+        for (int i = end - 2; i >= stop; i--) {
+            if (data[i] == (byte) 0xFF && data[i + 1] == (byte) 0xD9) {
+                return true;
+            }
+            byte b = data[i + 1];
+            if (b != 0 && b != '\r' && b != '\n' && b != (byte) 0xFF) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public int getComponents() {
+        return components;
+    }
+
+    /**
+     * 分量水平采样因子
+     *
+     * @param component 分量下标
+     * @return
+     */
+    public int getHorizontalSampling(int component) {
+        return horizontalSampling[component];
+    }
+
+    /**
+     * 分量垂直采样因子
+     *
+     * @param component 分量下标
+     * @return
+     */
+    public int getVerticalSampling(int component) {
+        return verticalSampling[component];
+    }
+
+    /**
+     * 采样格式
+     *
+     * @return {@link #SUBSAMPLING_420}等
+     */
+    public int getSubsampling() {
+        return subsampling;
+    }
+
+    /**
+     * 重置间隔（MCU数）
+     *
+     * @return 0表示无
+     */
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    public boolean isBaseline() {
+        return baseline;
+    }
+
+    /**
+     * 是否完整（包含SOF、SOS并以EOI结束）
+     *
+     * @return
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * 第一个扫描数据开始位置（相对于数据偏移）
+     *
+     * @return -1表示未找到
+     */
+    public int getScanOffset() {
+        return scanOffset;
+    }
+
+}
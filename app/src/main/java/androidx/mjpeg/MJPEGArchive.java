@@ -0,0 +1,425 @@
+package androidx.mjpeg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MJPEG录像文件<br/>
+ * 打开时建立帧索引：AVI文件（{@link AVIRecorder}录制）读取idx1索引，
+ * 其他文件（原始JPEG连续保存的.mjpeg）从SOI开始按长度跳过标记段，只在熵编码数据中查找EOI
+ * （APP1中EXIF缩略图的EOI不会截断帧）；帧数据通过{@link FileChannel#map}按窗口映射读取，
+ * 不经过read复制。帧间隔固定，按时间定位帧为O(1)，与文件大小无关。
+ */
+public class MJPEGArchive implements Closeable {
+
+    /**
+     * 映射窗口大小
+     */
+    private final static long WINDOW = 64L * 1024 * 1024;
+    /**
+     * 扫描状态：查找SOI
+     */
+    private final static int SCAN_SOI = 0;
+    /**
+     * 扫描状态：查找标记
+     */
+    private final static int SCAN_MARKER = 1;
+    /**
+     * 扫描状态：段长度高字节
+     */
+    private final static int SCAN_LENGTH_HIGH = 2;
+    /**
+     * 扫描状态：段长度低字节
+     */
+    private final static int SCAN_LENGTH_LOW = 3;
+    /**
+     * 扫描状态：跳过段内容
+     */
+    private final static int SCAN_SEGMENT = 4;
+    /**
+     * 扫描状态：熵编码数据
+     */
+    private final static int SCAN_ENTROPY = 5;
+    /**
+     * SOS标记
+     */
+    private final static int SOS = 0xDA;
+
+    /**
+     * 文件
+     */
+    private final RandomAccessFile file;
+    /**
+     * 文件通道
+     */
+    private final FileChannel channel;
+    /**
+     * 文件长度
+     */
+    private final long size;
+    /**
+     * 帧位置
+     */
+    private long[] offsets = new long[1024];
+    /**
+     * 帧长度
+     */
+    private int[] lengths = new int[1024];
+    /**
+     * 帧数
+     */
+    private int frames;
+    /**
+     * 帧间隔（微秒）
+     */
+    private long frameDuration;
+    /**
+     * 当前映射窗口
+     */
+    private MappedByteBuffer window;
+    /**
+     * 映射窗口开始位置
+     */
+    private long windowStart;
+    /**
+     * 映射窗口长度
+     */
+    private long windowLength;
+
+    /**
+     * 打开录像文件
+     *
+     * @param path      文件路径
+     * @param frameRate 帧率，文件中没有帧率信息时使用
+     * @throws IOException
+     */
+    public MJPEGArchive(String path, int frameRate) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        size = channel.size();
+        frameDuration = 1000000L / Math.max(1, frameRate);
+        try {
+            if (!loadAVIIndex()) {
+                frames = 0;
+                scanIndex();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取AVI文件的idx1索引
+     *
+     * @return 是否为带索引的AVI文件
+     * @throws IOException
+     */
+    private boolean loadAVIIndex() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        if (!read(buffer, 0, 12) || buffer.getInt(0) != fourcc("RIFF") || buffer.getInt(8) != fourcc("AVI ")) {
+            return false;
+        }
+        long position = 12;
+        long movi = -1;
+        long index = -1;
+        int indexSize = 0;
+        while (position + 8 <= size) {
+            if (!read(buffer, position, 12)) {
+                break;
+            }
+            int id = buffer.getInt(0);
+            long chunk = buffer.getInt(4) & 0xFFFFFFFFL;
+            if (id == fourcc("LIST") && buffer.getInt(8) == fourcc("hdrl")) {
+                //avih紧跟在hdrl之后
+                if (read(buffer, position + 12, 12) && buffer.getInt(0) == fourcc("avih")) {
+                    long perFrame = buffer.getInt(8) & 0xFFFFFFFFL;
+                    if (perFrame > 0) {
+                        frameDuration = perFrame;
+                    }
+                }
+            } else if (id == fourcc("LIST") && buffer.getInt(8) == fourcc("movi")) {
+                movi = position + 8;
+            } else if (id == fourcc("idx1")) {
+                index = position + 8;
+                indexSize = (int) Math.min(chunk, size - index);
+            }
+            position += 8 + chunk + (chunk & 1);
+        }
+        if (movi < 0 || index < 0) {
+            return false;
+        }
+        MappedByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, index, indexSize);
+        entries.order(ByteOrder.LITTLE_ENDIAN);
+        long base = -1;
+        for (int i = 0; i + 16 <= indexSize; i += 16) {
+            int id = entries.getInt(i);
+            //只索引视频流（xxdc/xxdb）
+            int type = id >>> 16;
+            if (type != ('d' | 'c' << 8) && type != ('d' | 'b' << 8)) {
+                continue;
+            }
+            long offset = entries.getInt(i + 8) & 0xFFFFFFFFL;
+            int length = entries.getInt(i + 12);
+            if (base < 0) {
+                //偏移可能相对movi，也可能是文件绝对位置
+                base = read(buffer, movi + offset, 4) && buffer.getInt(0) == id ? movi : 0;
+            }
+            long start = base + offset + 8;
+            if (length <= 0 || start + length > size) {
+                continue;
+            }
+            add(start, length);
+        }
+        return frames > 0;
+    }
+
+    /**
+     * 扫描标记建立索引：SOI（FFD8）之后按长度字段跳过各标记段直到SOS，只在熵编码数据中查找EOI（FFD9），
+     * 标记段（例如带缩略图的EXIF）中的FFD9不作为帧结束；熵编码数据中的其他标记（渐进式JPEG的后续扫描）继续按段解析。
+     * 帧结构损坏（不完整的帧）时从该帧SOI之后重新查找SOI
+     *
+     * @throws IOException
+     */
+    private void scanIndex() throws IOException {
+        int state = SCAN_SOI;
+        long start = -1;
+        int previous = 0;
+        int marker = 0;
+        int segment = 0;
+        long skip = 0;
+        long position = 0;
+        while (position < size) {
+            long windowStart = position;
+            long windowEnd = Math.min(size, windowStart + WINDOW);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+            while (position >= windowStart && position < windowEnd) {
+                if (state == SCAN_SEGMENT) {
+                    //段内容可能跨映射窗口
+                    long count = Math.min(skip, windowEnd - position);
+                    position += count;
+                    skip -= count;
+                    if (skip == 0) {
+                        state = marker == SOS ? SCAN_ENTROPY : SCAN_MARKER;
+                        previous = 0;
+                    }
+                    continue;
+                }
+                int current = buffer.get((int) (position - windowStart)) & 0xFF;
+                long offset = position++;
+                boolean corrupted = false;
+                switch (state) {
+                    case SCAN_SOI:
+                        if (previous == 0xFF && current == 0xD8) {
+                            start = offset - 1;
+                            state = SCAN_MARKER;
+                            current = 0;
+                        }
+                        break;
+                    case SCAN_MARKER:
+                    case SCAN_ENTROPY:
+                        if (previous != 0xFF) {
+                            //标记段之间不应有数据
+                            corrupted = state == SCAN_MARKER && current != 0xFF;
+                            break;
+                        }
+                        if (current == 0xFF || current == 0x00 || current == 0x01 || (current >= 0xD0 && current <= 0xD7)) {
+                            //填充字节、熵编码数据中的0xFF转义、没有长度的TEM和RSTn
+                            break;
+                        }
+                        if (current == 0xD8) {
+                            //上一帧不完整，从新的SOI开始
+                            start = offset - 1;
+                            state = SCAN_MARKER;
+                            current = 0;
+                        } else if (current == 0xD9) {
+                            long end = offset + 1;
+                            if (end - start <= Integer.MAX_VALUE) {
+                                add(start, (int) (end - start));
+                            }
+                            state = SCAN_SOI;
+                            start = -1;
+                            current = 0;
+                        } else {
+                            marker = current;
+                            state = SCAN_LENGTH_HIGH;
+                        }
+                        break;
+                    case SCAN_LENGTH_HIGH:
+                        segment = current << 8;
+                        state = SCAN_LENGTH_LOW;
+                        break;
+                    case SCAN_LENGTH_LOW:
+                        segment |= current;
+                        if (segment < 2) {
+                            corrupted = true;
+                        } else if (segment == 2) {
+                            state = marker == SOS ? SCAN_ENTROPY : SCAN_MARKER;
+                        } else {
+                            skip = segment - 2;
+                            state = SCAN_SEGMENT;
+                        }
+                        current = 0;
+                        break;
+                }
+                if (corrupted) {
+                    //按长度跳过的数据可能包含下一帧，回到该帧SOI之后重新查找
+                    position = start + 2;
+                    state = SCAN_SOI;
+                    start = -1;
+                    current = 0;
+                }
+                previous = current;
+            }
+        }
+    }
+
+    /**
+     * 添加索引
+     *
+     * @param offset 帧位置
+     * @param length 帧长度
+     */
+    private void add(long offset, int length) {
+        if (frames == offsets.length) {
+            long[] grow = new long[frames * 2];
+            System.arraycopy(offsets, 0, grow, 0, frames);
+            offsets = grow;
+            int[] lengthGrow = new int[frames * 2];
+            System.arraycopy(lengths, 0, lengthGrow, 0, frames);
+            lengths = lengthGrow;
+        }
+        offsets[frames] = offset;
+        lengths[frames] = length;
+        frames++;
+    }
+
+    /**
+     * 读取文件内容
+     *
+     * @param buffer   缓冲区
+     * @param position 文件位置
+     * @param length   长度
+     * @return 是否读取完整
+     * @throws IOException
+     */
+    private boolean read(ByteBuffer buffer, long position, int length) throws IOException {
+        if (position < 0 || position + length > size) {
+            return false;
+        }
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * 四字符码（小端）
+     *
+     * @param code
+     * @return
+     */
+    private static int fourcc(String code) {
+        return code.charAt(0) | code.charAt(1) << 8 | code.charAt(2) << 16 | code.charAt(3) << 24;
+    }
+
+    /**
+     * 帧数
+     *
+     * @return
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * 帧间隔（微秒）
+     *
+     * @return
+     */
+    public long getFrameDuration() {
+        return frameDuration;
+    }
+
+    /**
+     * 总时长（微秒）
+     *
+     * @return
+     */
+    public long getDuration() {
+        return frames * frameDuration;
+    }
+
+    /**
+     * 帧时间戳（微秒，相对文件开始）
+     *
+     * @param index 帧下标
+     * @return
+     */
+    public long timestamp(int index) {
+        return index * frameDuration;
+    }
+
+    /**
+     * 时间戳所在的帧
+     *
+     * @param timestamp 时间戳（微秒，相对文件开始）
+     * @return 帧下标，超出范围时取首尾帧
+     */
+    public int indexOf(long timestamp) {
+        if (frames == 0) {
+            return -1;
+        }
+        long index = timestamp / frameDuration;
+        return (int) Math.max(0, Math.min(frames - 1, index));
+    }
+
+    /**
+     * 帧长度
+     *
+     * @param index 帧下标
+     * @return
+     */
+    public int length(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * 帧数据（映射窗口的视图，不复制），下一次调用后失效
+     *
+     * @param index 帧下标
+     * @return
+     * @throws IOException
+     */
+    public ByteBuffer frame(int index) throws IOException {
+        long offset = offsets[index];
+        int length = lengths[index];
+        if (window == null || offset < windowStart || offset + length > windowStart + windowLength) {
+            windowStart = offset;
+            windowLength = Math.min(size - offset, Math.max(WINDOW, length));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
+        }
+        ByteBuffer frame = window.duplicate();
+        frame.position((int) (offset - windowStart));
+        frame.limit((int) (offset - windowStart) + length);
+        return frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+        file.close();
+    }
+
+}
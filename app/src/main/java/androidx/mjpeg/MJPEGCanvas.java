@@ -2,15 +2,22 @@ package androidx.mjpeg;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
-import android.graphics.Picture;
-import android.util.Log;
+import android.graphics.Paint;
+import android.os.Build;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
- * MJPEG画布
+ * MJPEG画布<br/>
+ * 在共享的渲染线程（{@link RenderThread}）中按垂直同步（{@link Choreographer}）绘制，每次只绘制最新一帧，
+ * 两次同步之间到达的帧直接跳过；图像一次缩放绘制到显示层，支持时使用硬件画布。
  */
 public class MJPEGCanvas {
 
@@ -22,10 +29,6 @@ public class MJPEGCanvas {
      * 容器
      */
     private SurfaceHolder holder;
-    /**
-     * 画布
-     */
-    private Canvas canvas;
     /**
      * 矩阵
      */
@@ -35,13 +38,49 @@ public class MJPEGCanvas {
      */
     private ScaleType scaleType;
     /**
-     * 缓冲位图
+     * 矩阵对应的图像宽度
+     */
+    private int matrixWidth;
+    /**
+     * 矩阵对应的图像高度
+     */
+    private int matrixHeight;
+    /**
+     * 绘制画笔
+     */
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /**
+     * 使用硬件画布
      */
-    private Bitmap bufferBitmap;
+    private boolean hardware = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
     /**
-     * 缓冲画布
+     * 待绘制的最新位图
      */
-    private Canvas bufferCanvas;
+    private final AtomicReference<Bitmap> pending = new AtomicReference<>();
+    /**
+     * 位图显示者，设置后在渲染线程从交换器获取最新的完整帧
+     */
+    private volatile BitmapExchanger.Reader reader;
+    /**
+     * 性能统计，记录每次绘制的耗时
+     */
+    private volatile StreamMetrics metrics;
+    /**
+     * 已加入渲染线程的待绘制队列
+     */
+    private final AtomicBoolean frameRequested = new AtomicBoolean();
+    /**
+     * 显示层可用（修改时持有显示层锁）
+     */
+    private volatile boolean surfaceReady;
+    /**
+     * 显示层锁
+     */
+    private final Object surfaceLock = new Object();
+    /**
+     * 待绘制的缩放类型
+     */
+    private volatile ScaleType pendingScaleType;
 
     /**
      * 构造
@@ -60,14 +99,57 @@ public class MJPEGCanvas {
         return scaleType;
     }
 
+    /**
+     * 设置是否使用硬件画布（Android 8.0及以上有效）
+     *
+     * @param hardware
+     */
+    public void setHardware(boolean hardware) {
+        this.hardware = hardware && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
+    }
+
+    /**
+     * 设置位图显示者，之后{@link #post(Bitmap, ScaleType)}只作为绘制通知，
+     * 实际绘制的位图在渲染线程从交换器获取，解码线程不会写入正在显示的位图
+     *
+     * @param reader 显示者，null表示直接绘制传入的位图
+     */
+    public void setReader(BitmapExchanger.Reader reader) {
+        BitmapExchanger.Reader previous = this.reader;
+        this.reader = reader;
+        if (previous != null && previous != reader) {
+            release(previous);
+        }
+    }
+
+    /**
+     * 设置性能统计
+     *
+     * @param metrics 数据流的统计，null表示不记录
+     */
+    public void setMetrics(StreamMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 释放显示者持有的位图，显示者只在渲染线程访问
+     *
+     * @param reader 显示者
+     */
+    private void release(BitmapExchanger.Reader reader) {
+        RenderThread.getInstance().post(reader::release);
+    }
+
     /**
      * 显示层创建
      *
      * @param view
      */
     public void surfaceCreated(SurfaceView view) {
-        bufferBitmap = Bitmap.createBitmap(view.getWidth(), view.getHeight(), Bitmap.Config.ARGB_8888);
-        bufferCanvas = new Canvas(bufferBitmap);
+        synchronized (surfaceLock) {
+            surfaceReady = true;
+            matrix = null;
+        }
     }
 
     /**
@@ -77,30 +159,29 @@ public class MJPEGCanvas {
      * @param height 高度
      */
     public void surfaceChanged(int width, int height) {
-        bufferBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        bufferCanvas = new Canvas(bufferBitmap);
+        synchronized (surfaceLock) {
+            matrix = null;
+        }
     }
 
     /**
      * 显示层销毁
      */
     public void surfaceDestroyed() {
-        if (bufferBitmap != null) {
-            bufferBitmap.recycle();
-            bufferBitmap = null;
+        synchronized (surfaceLock) {
+            surfaceReady = false;
         }
-        if (bufferCanvas != null) {
-            bufferCanvas.setBitmap(null);
-            bufferCanvas = null;
-        }
-        if (canvas != null) {
-            canvas.setBitmap(null);
-            canvas = null;
+        //已加入待绘制队列时由渲染线程清除请求标志
+        pending.set(null);
+        //释放显示者持有的位图，重新创建显示层后继续使用
+        BitmapExchanger.Reader reader = this.reader;
+        if (reader != null) {
+            release(reader);
         }
     }
 
     /**
-     * 绘制图像
+     * 绘制图像，只保存最新一帧，在下一次垂直同步时绘制
      *
      * @param bitmap    图像
      * @param scaleType 缩放类型
@@ -109,25 +190,69 @@ public class MJPEGCanvas {
         if (bitmap == null) {
             return;
         }
-        if (getScaleType() != scaleType) {
-            matrix = null;
-        }
-        this.scaleType = scaleType;
-        if (matrix == null) {
-            matrix = createMatrix(surfaceView, bitmap, scaleType);
+        pendingScaleType = scaleType;
+        pending.set(bitmap);
+        if (surfaceReady && frameRequested.compareAndSet(false, true)) {
+            RenderThread.getInstance().requestRender(this);
         }
-        if (bufferCanvas == null || bufferBitmap == null) {
+    }
+
+    /**
+     * 垂直同步回调中绘制最新帧（渲染线程）
+     */
+    void render() {
+        frameRequested.set(false);
+        Bitmap bitmap = pending.getAndSet(null);
+        if (bitmap == null) {
             return;
         }
-        //绘制在缓存画布上
-        bufferCanvas.drawBitmap(bitmap, matrix, null);
-        //用缓存位图绘制显示图层
-        canvas = holder.lockCanvas();
-        if (canvas != null) {
-            canvas.drawBitmap(bufferBitmap, 0, 0, null);
-            holder.unlockCanvasAndPost(canvas);
-        } else {
-            bitmap.recycle();
+        BitmapExchanger.Reader reader = this.reader;
+        if (reader != null) {
+            //持有最新的完整帧直到下一次绘制
+            bitmap = reader.acquire();
+            if (bitmap == null) {
+                return;
+            }
+        }
+        draw(bitmap, pendingScaleType);
+    }
+
+    /**
+     * 一次缩放绘制到显示层
+     *
+     * @param bitmap    图像
+     * @param scaleType 缩放类型
+     */
+    private void draw(Bitmap bitmap, ScaleType scaleType) {
+        synchronized (surfaceLock) {
+            if (!surfaceReady || bitmap.isRecycled()) {
+                return;
+            }
+            if (getScaleType() != scaleType || bitmap.getWidth() != matrixWidth || bitmap.getHeight() != matrixHeight) {
+                //缩放类型或图像尺寸（降采样）变化时重新计算矩阵
+                matrix = null;
+            }
+            this.scaleType = scaleType;
+            if (matrix == null) {
+                matrix = createMatrix(surfaceView, bitmap, scaleType);
+                matrixWidth = bitmap.getWidth();
+                matrixHeight = bitmap.getHeight();
+            }
+            long begin = System.nanoTime();
+            Canvas canvas = hardware && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? holder.lockHardwareCanvas() : holder.lockCanvas();
+            if (canvas == null) {
+                return;
+            }
+            try {
+                canvas.drawColor(Color.BLACK);
+                canvas.drawBitmap(bitmap, matrix, paint);
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+            StreamMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.recordRendered(System.nanoTime() - begin);
+            }
         }
     }
 
@@ -10,6 +10,8 @@ import android.util.Log;
 import androidx.appcompat.widget.AppCompatImageView;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * MJPEG-Image播放器
@@ -38,12 +40,18 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
 
     //请求
     private Request request;
+    //AVI录像（原样保存JPEG数据，不重新编码，在IO线程中写入）
+    private final AtomicReference<AVIWriter> aviWriter = new AtomicReference<>();
     //视频编码
     private MP4Encoder mp4Encoder;
     //绘制通道
     private Channel channel;
+    //显示帧的Drawable，每帧只替换位图
+    private final FrameDrawable frameDrawable = new FrameDrawable();
     //调试模式
     private boolean debug = false;
+    //暂停显示
+    private volatile boolean paused;
 
     public MJPEGImage(Context context) {
         super(context);
@@ -77,12 +85,38 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
     private void initialize() {
         print("initialize");
         channel = new Channel();
-        request = new Request();
+    }
+
+    /**
+     * 获取共享请求，相同路径的播放器共享同一个连接
+     *
+     * @param path 视频地址
+     */
+    private void attach(String path) {
+        request = StreamRegistry.acquire(path);
         request.debug(debug);
-        request.width(encodeWidth).height(encodeHeight);
-        request.frameRate(frameRate);
-        request.reconnectTime(reconnectTime);
+        //共享请求的参数与其他使用者合并，不覆盖先加入的播放器
+        StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
+        if (paused) {
+            StreamRegistry.pause(request);
+        }
+        channel.setReader(request.getExchanger().reader());
+        channel.setMetrics(request.getMetrics());
         request.addRequestListener(this);
+        request.viewport(this, getWidth(), getHeight(), viewportScaleType());
+    }
+
+    /**
+     * 释放共享请求
+     */
+    private void detach() {
+        if (request != null) {
+            request.removeRequestListener(this);
+            channel.setReader(null);
+            channel.setMetrics(null);
+            StreamRegistry.release(request, paused);
+            request = null;
+        }
     }
 
     /**
@@ -103,8 +137,11 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
      * @param path 视频地址
      */
     public void setDataSource(String path) {
+        detach();
         this.path = path;
-        request.path(path);
+        if (!TextUtils.isEmpty(path)) {
+            attach(path);
+        }
     }
 
     /**
@@ -116,14 +153,71 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
             new RuntimeException("data source path is null").printStackTrace();
             return;
         }
-        if (request != null) {
+        if (request == null) {
+            attach(path);
+        }
+        resume();
+        if (!request.isStarted()) {
             request.start();
         }
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (request != null) {
+            request.viewport(this, w, h, viewportScaleType());
+        }
+    }
+
+    @Override
+    public void setScaleType(ScaleType scaleType) {
+        super.setScaleType(scaleType);
+        //父类构造函数中调用时请求还未创建
+        if (request != null) {
+            request.viewport(this, getWidth(), getHeight(), viewportScaleType());
+        }
+    }
+
+    /**
+     * 显示缩放类型对应的解码缩放类型，降采样后的图像不小于显示需要的尺寸
+     *
+     * @return
+     */
+    private androidx.mjpeg.ScaleType viewportScaleType() {
+        ScaleType scaleType = getScaleType();
+        if (scaleType == ScaleType.CENTER || scaleType == ScaleType.MATRIX) {
+            //原始尺寸显示（矩阵可能放大），不降采样
+            return androidx.mjpeg.ScaleType.CENTER_RAW;
+        }
+        if (scaleType == ScaleType.CENTER_CROP || scaleType == ScaleType.FIT_XY) {
+            //填满显示区域，按较大的一边计算
+            return androidx.mjpeg.ScaleType.CENTER_CROP;
+        }
+        return androidx.mjpeg.ScaleType.CENTER_FIT;
+    }
+
     @Override
     public void onBitmap(Bitmap bitmap) {
-        channel.post(this, bitmap);
+        if (!paused) {
+            channel.post(this, bitmap);
+        }
+    }
+
+    /**
+     * 显示位图（UI线程）
+     *
+     * @param bitmap 位图
+     */
+    void display(Bitmap bitmap) {
+        boolean resized = frameDrawable.setBitmap(bitmap);
+        if (getDrawable() != frameDrawable) {
+            setImageDrawable(frameDrawable);
+        } else if (resized) {
+            //尺寸变化（降采样）时重新设置，按新的尺寸计算缩放
+            setImageDrawable(null);
+            setImageDrawable(frameDrawable);
+        }
     }
 
     @Override
@@ -131,6 +225,22 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
         encodeMP4(data);
     }
 
+    @Override
+    public void onFrame(Frame frame) {
+        AVIWriter writer = aviWriter.get();
+        if (writer != null) {
+            //帧由录像持有引用，写入失败时只结束该录像
+            writer.write(frame);
+        }
+        if (isEncodeMP4()) {
+            MP4Encoder encoder = prepareMP4Encoder();
+            if (encoder != null) {
+                //帧由编码器持有引用，时间戳使用帧的接收时间
+                encoder.encode(frame);
+            }
+        }
+    }
+
     /**
      * 设置是否可编码MP4
      * @param encodeMP4
@@ -155,19 +265,32 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
      */
     protected void encodeMP4(byte[] data) {
         if (isEncodeMP4()) {
-            if (mp4Encoder == null) {
-                if (TextUtils.isEmpty(encodePath)) {
-                    new RuntimeException("encode path is empty").printStackTrace();
-                    return;
-                }
-                mp4Encoder = new MP4Encoder(encodePath, encodeWidth, encodeHeight);
-                mp4Encoder.setMP4EncodeListener(this);
+            MP4Encoder encoder = prepareMP4Encoder();
+            if (encoder != null) {
+                encoder.encode(data);
             }
-            if (mp4Encoder != null && request != null) {
-                mp4Encoder.setDebug(debug);
-                mp4Encoder.encode(data);
+        }
+    }
+
+    /**
+     * 获取视频编码器，没有时创建
+     *
+     * @return 编码路径为空或未播放时返回null
+     */
+    private MP4Encoder prepareMP4Encoder() {
+        if (mp4Encoder == null) {
+            if (TextUtils.isEmpty(encodePath)) {
+                new RuntimeException("encode path is empty").printStackTrace();
+                return null;
             }
+            mp4Encoder = new MP4Encoder(encodePath, encodeWidth, encodeHeight);
+            mp4Encoder.setMP4EncodeListener(this);
+        }
+        if (request == null) {
+            return null;
         }
+        mp4Encoder.setDebug(debug);
+        return mp4Encoder;
     }
 
     @Override
@@ -193,6 +316,60 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
         mp4Encoder = null;
     }
 
+    /**
+     * 开始AVI录像，收到的JPEG数据原样写入文件，不经过解码和重新编码
+     *
+     * @param path 文件路径，例如：../video/video.avi
+     * @return 是否开始
+     */
+    public boolean startRecordAVI(String path) {
+        endRecordAVI();
+        try {
+            AVIRecorder recorder = new AVIRecorder(path).frameRate(frameRate);
+            aviWriter.set(new AVIWriter(recorder, (writer, e) -> {
+                //已结束或已开始新的录像时不处理
+                if (aviWriter.compareAndSet(writer, null)) {
+                    endRecordAVI(writer);
+                }
+            }));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "start record avi exception:" + e);
+            return false;
+        }
+    }
+
+    /**
+     * 结束AVI录像，写入索引
+     */
+    public void endRecordAVI() {
+        endRecordAVI(aviWriter.getAndSet(null));
+    }
+
+    /**
+     * 结束AVI录像，写完队列中的帧后写入索引
+     *
+     * @param writer 录像
+     */
+    private void endRecordAVI(AVIWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "end record avi exception:" + e);
+            }
+        }
+    }
+
+    /**
+     * 是否正在AVI录像
+     *
+     * @return
+     */
+    public boolean isRecordAVI() {
+        return aviWriter.get() != null;
+    }
+
     /**
      * 设置解码视频路径
      *
@@ -259,7 +436,7 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
     public void setEncodeWidth(int encodeWidth) {
         this.encodeWidth = encodeWidth;
         if (request != null) {
-            request.width(encodeWidth);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -271,7 +448,7 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
     public void setEncodeHeight(int encodeHeight) {
         this.encodeHeight = encodeHeight;
         if (request != null) {
-            request.width(encodeHeight);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -283,7 +460,7 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
     public void setFrameRate(int frameRate) {
         this.frameRate = frameRate;
         if (request != null) {
-            request.frameRate(frameRate);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -324,14 +501,14 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
     }
 
     /**
-     * 设置重连间隔，单位毫秒
+     * 设置首次重连间隔，单位毫秒，连续失败时按{@link ReconnectPolicy}指数退避
      *
      * @param reconnectTime
      */
     public void setReconnectTime(int reconnectTime) {
         this.reconnectTime = reconnectTime;
         if (request != null) {
-            request.reconnectTime(reconnectTime);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -339,17 +516,25 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
      * 暂停
      */
     public void pause() {
-        if (request != null) {
-            request.pause();
+        //共享数据流在所有使用者都暂停时才暂停上游
+        if (!paused && request != null) {
+            StreamRegistry.pause(request);
         }
+        paused = true;
     }
 
     /**
      * 恢复
      */
     public void resume() {
+        boolean wasPaused = paused;
+        paused = false;
         if (request != null) {
-            request.resume();
+            if (wasPaused) {
+                StreamRegistry.resume(request);
+            } else {
+                request.resume();
+            }
         }
     }
 
@@ -358,13 +543,12 @@ public class MJPEGImage extends AppCompatImageView implements OnRequestListener,
      */
     public void release() {
         print("release");
+        endRecordAVI();
         if (mp4Encoder != null) {
             mp4Encoder.end();
             mp4Encoder = null;
         }
-        if (request != null) {
-            request.cancel();
-        }
+        detach();
         if (channel != null) {
             channel.release();
         }
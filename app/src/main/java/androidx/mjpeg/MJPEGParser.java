@@ -0,0 +1,594 @@
+package androidx.mjpeg;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * multipart/x-mixed-replace 分段解析器<br/>
+ * 数据流形式：--boundary 分段头 \r\n\r\n JPEG数据 \r\n--boundary ...<br/>
+ * 通过复用的缓冲区读取数据流，分段头包含Content-Length时直接定位帧结束位置，
+ * 否则使用Horspool多字节查找分隔符，每一帧以(数组, 偏移, 长度)的视图形式返回，不做额外复制。
+ * Content-Length超过最大帧大小时不信任该值，回退到查找分隔符；超过最大帧大小仍未找到帧结束时丢弃该帧，缓冲区不会无限增长。<br/>
+ * 视图仅在下一次调用{@link #read()}/{@link #next()}/{@link #write(byte[], int, int)}之前有效。
+ */
+public class MJPEGParser {
+
+    /**
+     * 默认缓冲区大小
+     */
+    public final static int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    /**
+     * 默认最大帧大小
+     */
+    public final static int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    /**
+     * 帧头
+     */
+    private final static byte SOI_0 = (byte) 0xFF;
+    private final static byte SOI_1 = (byte) 0xD8;
+    /**
+     * 帧尾
+     */
+    private final static byte EOI_1 = (byte) 0xD9;
+    /**
+     * 输入流
+     */
+    private InputStream is;
+    /**
+     * 缓冲区
+     */
+    private byte[] buffer;
+    /**
+     * 缓冲区包装，用于通道读取
+     */
+    private ByteBuffer wrapper;
+    /**
+     * 当前分段开始位置（之前的数据已消费）
+     */
+    private int position;
+    /**
+     * 有效数据结束位置
+     */
+    private int limit;
+    /**
+     * 帧数据开始位置，-1表示未找到分段头
+     */
+    private int bodyStart = -1;
+    /**
+     * 帧结束查找位置，避免重复扫描
+     */
+    private int scan;
+    /**
+     * 分段头声明的帧结束位置，-1表示需要查找分隔符
+     */
+    private int bodyEnd = -1;
+    /**
+     * 分段头
+     */
+    private final PartHeader header = new PartHeader();
+    /**
+     * 分隔符（--boundary）
+     */
+    private byte[] delimiter;
+    /**
+     * Horspool跳转表
+     */
+    private int[] shift;
+    /**
+     * 未设置分隔符时是否已检测数据流格式
+     */
+    private boolean detected;
+    /**
+     * 帧视图偏移
+     */
+    private int frameOffset;
+    /**
+     * 帧视图长度
+     */
+    private int frameLength;
+    /**
+     * 最大帧大小
+     */
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    /**
+     * 构造推送模式解析器，数据通过{@link #write(byte[], int, int)}写入
+     *
+     * @param boundary 分隔符，为空时从数据流中检测
+     */
+    public MJPEGParser(String boundary) {
+        this(null, boundary, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 构造解析器
+     *
+     * @param is       输入流
+     * @param boundary 分隔符，为空时从数据流中检测
+     */
+    public MJPEGParser(InputStream is, String boundary) {
+        this(is, boundary, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * 构造解析器
+     *
+     * @param is       输入流
+     * @param boundary 分隔符，为空时从数据流中检测
+     * @param size     初始缓冲区大小，不足时自动扩容
+     */
+    public MJPEGParser(InputStream is, String boundary, int size) {
+        this.is = is;
+        this.buffer = new byte[Math.max(size, 1024)];
+        if (boundary != null && boundary.length() > 0) {
+            delimiter(boundary.startsWith("--") ? boundary : "--" + boundary);
+            detected = true;
+        }
+    }
+
+    /**
+     * 设置最大帧大小，Content-Length超过该值时回退到查找分隔符，超过该值仍未找到帧结束时丢弃该帧
+     *
+     * @param maxFrameSize 最大帧大小（字节）
+     * @return
+     */
+    public MJPEGParser maxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = Math.max(1024, maxFrameSize);
+        return this;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * 从Content-Type中获取分隔符，例如：multipart/x-mixed-replace; boundary=myboundary
+     *
+     * @param contentType 内容类型
+     * @return 分隔符，不存在返回null
+     */
+    public static String parseBoundary(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int index = contentType.toLowerCase().indexOf("boundary=");
+        if (index < 0) {
+            return null;
+        }
+        String boundary = contentType.substring(index + 9).trim();
+        int end = boundary.indexOf(';');
+        if (end >= 0) {
+            boundary = boundary.substring(0, end).trim();
+        }
+        if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary.length() == 0 ? null : boundary;
+    }
+
+    /**
+     * 设置分隔符
+     *
+     * @param value 分隔符（包含--）
+     */
+    private void delimiter(String value) {
+        delimiter = value.getBytes(Charset.forName("ISO-8859-1"));
+        shift = new int[256];
+        int length = delimiter.length;
+        for (int i = 0; i < 256; i++) {
+            shift[i] = length;
+        }
+        for (int i = 0; i < length - 1; i++) {
+            shift[delimiter[i] & 0xFF] = length - 1 - i;
+        }
+    }
+
+    /**
+     * 读取下一帧（拉取模式）
+     *
+     * @return 是否读取到帧，数据流结束返回false
+     * @throws IOException
+     */
+    public boolean read() throws IOException {
+        if (is == null) {
+            throw new IllegalStateException("input stream is null, use write() in push mode");
+        }
+        while (!next()) {
+            if (fill() < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取下一帧，数据流结束抛出异常
+     *
+     * @throws IOException
+     */
+    public void readFully() throws IOException {
+        if (!read()) {
+            throw new EOFException("end of mjpeg stream");
+        }
+    }
+
+    /**
+     * 写入数据（推送模式），写入后调用{@link #next()}获取帧
+     *
+     * @param data   数据
+     * @param offset 偏移
+     * @param length 长度
+     */
+    public void write(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, buffer, limit, length);
+        limit += length;
+    }
+
+    /**
+     * 从通道读取数据到缓冲区（推送模式），读取后调用{@link #next()}获取帧
+     *
+     * @param channel 通道
+     * @return 读取字节数，-1表示数据流结束
+     * @throws IOException
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        ensureCapacity(1);
+        if (wrapper == null || wrapper.array() != buffer) {
+            wrapper = ByteBuffer.wrap(buffer);
+        }
+        wrapper.limit(buffer.length);
+        wrapper.position(limit);
+        int n = channel.read(wrapper);
+        if (n > 0) {
+            limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * 从输入流填充缓冲区
+     *
+     * @return 读取字节数，-1表示数据流结束
+     * @throws IOException
+     */
+    private int fill() throws IOException {
+        ensureCapacity(1);
+        int n = is.read(buffer, limit, buffer.length - limit);
+        if (n > 0) {
+            limit += n;
+        }
+        return n;
+    }
+
+    /**
+     * 确保缓冲区尾部有足够空间，先压缩已消费数据，不足时扩容
+     *
+     * @param length 需要的长度
+     */
+    private void ensureCapacity(int length) {
+        if (position > 0) {
+            int remaining = limit - position;
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            if (bodyStart >= 0) {
+                bodyStart -= position;
+            }
+            if (bodyEnd >= 0) {
+                bodyEnd -= position;
+            }
+            scan = Math.max(0, scan - position);
+            limit = remaining;
+            position = 0;
+        }
+        if (buffer.length - limit < length) {
+            int size = buffer.length;
+            while (size - limit < length) {
+                size *= 2;
+            }
+            byte[] grow = new byte[size];
+            System.arraycopy(buffer, 0, grow, 0, limit);
+            buffer = grow;
+        }
+    }
+
+    /**
+     * 解析缓冲区中的下一帧
+     *
+     * @return 是否找到完整帧
+     */
+    public boolean next() {
+        if (!detected && !detect()) {
+            return false;
+        }
+        if (delimiter == null) {
+            return nextImage();
+        }
+        return nextPart();
+    }
+
+    /**
+     * 检测数据流格式，以--开头的第一行作为分隔符，否则按帧头帧尾查找
+     *
+     * @return 是否检测完成
+     */
+    private boolean detect() {
+        int i = position;
+        while (i < limit && (buffer[i] == '\r' || buffer[i] == '\n' || buffer[i] == ' ')) {
+            i++;
+        }
+        if (limit - i < 2) {
+            return false;
+        }
+        if (buffer[i] == '-' && buffer[i + 1] == '-') {
+            int end = indexOfLineEnd(i, limit);
+            if (end < 0) {
+                return false;
+            }
+            int stop = end;
+            while (stop > i && (buffer[stop - 1] == ' ' || buffer[stop - 1] == '\t')) {
+                stop--;
+            }
+            delimiter(new String(buffer, i, stop - i, Charset.forName("ISO-8859-1")));
+        }
+        position = i;
+        scan = i;
+        detected = true;
+        return true;
+    }
+
+    /**
+     * 按分隔符解析分段
+     *
+     * @return 是否找到完整帧
+     */
+    private boolean nextPart() {
+        if (bodyStart < 0) {
+            int start = indexOfDelimiter(position, limit);
+            if (start < 0) {
+                //保留可能不完整的分隔符
+                position = Math.max(position, limit - delimiter.length + 1);
+                return false;
+            }
+            position = start;
+            int headerStart = start + delimiter.length;
+            int headerEnd = indexOfHeaderEnd(headerStart, limit);
+            if (headerEnd < 0) {
+                return false;
+            }
+            bodyStart = headerEnd;
+            scan = headerEnd;
+            bodyEnd = header.parse(buffer, headerStart, headerEnd) ? bodyEnd(headerEnd, header.getContentLength()) : -1;
+        }
+        if (bodyEnd >= 0) {
+            if (limit < bodyEnd) {
+                return false;
+            }
+            //帧尾校验通过则信任Content-Length，否则回退到查找分隔符
+            if (bodyEnd - bodyStart >= 2 && buffer[bodyEnd - 2] == SOI_0 && buffer[bodyEnd - 1] == EOI_1) {
+                frameOffset = bodyStart;
+                frameLength = bodyEnd - bodyStart;
+                position = bodyEnd;
+                scan = bodyEnd;
+                bodyStart = -1;
+                bodyEnd = -1;
+                return true;
+            }
+            bodyEnd = -1;
+        }
+        int end = indexOfDelimiter(scan, limit);
+        if (end < 0) {
+            scan = Math.max(bodyStart, limit - delimiter.length + 1);
+            if (scan - bodyStart > maxFrameSize) {
+                //帧过大，丢弃已接收的数据，继续查找下一个分隔符
+                position = scan;
+                bodyStart = -1;
+            }
+            return false;
+        }
+        int stop = end;
+        if (stop > bodyStart && buffer[stop - 1] == '\n') {
+            stop--;
+        }
+        if (stop > bodyStart && buffer[stop - 1] == '\r') {
+            stop--;
+        }
+        frameOffset = bodyStart;
+        frameLength = stop - bodyStart;
+        position = end;
+        bodyStart = -1;
+        scan = end;
+        return true;
+    }
+
+    /**
+     * 计算Content-Length声明的帧结束位置
+     *
+     * @param headerEnd     分段头结束位置
+     * @param contentLength 内容长度
+     * @return 帧结束位置，超过最大帧大小返回-1（查找分隔符）
+     */
+    private int bodyEnd(int headerEnd, int contentLength) {
+        long end = (long) headerEnd + contentLength;
+        if (contentLength > maxFrameSize || end > Integer.MAX_VALUE) {
+            return -1;
+        }
+        return (int) end;
+    }
+
+    /**
+     * 无分隔符时按帧头(0xFF 0xD8)、帧尾(0xFF 0xD9)解析
+     *
+     * @return 是否找到完整帧
+     */
+    private boolean nextImage() {
+        if (bodyStart < 0) {
+            int start = indexOfMarker(position, limit, SOI_1);
+            if (start < 0) {
+                position = Math.max(position, limit - 1);
+                return false;
+            }
+            position = start;
+            bodyStart = start;
+            scan = start + 2;
+        }
+        int end = indexOfMarker(scan, limit, EOI_1);
+        if (end < 0) {
+            scan = Math.max(bodyStart + 2, limit - 1);
+            if (scan - bodyStart > maxFrameSize) {
+                //帧过大，丢弃已接收的数据，继续查找下一个帧头
+                position = scan;
+                bodyStart = -1;
+            }
+            return false;
+        }
+        frameOffset = bodyStart;
+        frameLength = end + 2 - bodyStart;
+        position = end + 2;
+        bodyStart = -1;
+        scan = position;
+        return true;
+    }
+
+    /**
+     * Horspool查找分隔符
+     *
+     * @param from 开始位置
+     * @param to   结束位置
+     * @return 分隔符位置，未找到返回-1
+     */
+    private int indexOfDelimiter(int from, int to) {
+        final byte[] pattern = delimiter;
+        final byte[] data = buffer;
+        final int last = pattern.length - 1;
+        final byte lastByte = pattern[last];
+        int i = from;
+        while (i + last < to) {
+            byte b = data[i + last];
+            if (b == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && data[i + j] == pattern[j]) {
+                    j--;
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shift[b & 0xFF];
+        }
+        return -1;
+    }
+
+    /**
+     * 查找标记（0xFF 后跟指定字节）
+     *
+     * @param from   开始位置
+     * @param to     结束位置
+     * @param marker 标记第二字节
+     * @return 标记位置，未找到返回-1
+     */
+    private int indexOfMarker(int from, int to, byte marker) {
+        final byte[] data = buffer;
+        for (int i = from + 1; i < to; i++) {
+            byte b = data[i];
+            if (b == marker) {
+                if (data[i - 1] == SOI_0) {
+                    return i - 1;
+                }
+            } else if (b != SOI_0) {
+                //下一字节不可能构成标记，跳过
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查找分段头结束位置（\r\n\r\n 或 \n\n 之后）
+     *
+     * @param from 开始位置
+     * @param to   结束位置
+     * @return 帧数据开始位置，未找到返回-1
+     */
+    private int indexOfHeaderEnd(int from, int to) {
+        final byte[] data = buffer;
+        for (int i = from; i < to; i++) {
+            if (data[i] == '\n') {
+                if (i + 1 < to && data[i + 1] == '\n') {
+                    return i + 2;
+                }
+                if (i + 2 < to && data[i + 1] == '\r' && data[i + 2] == '\n') {
+                    return i + 3;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查找行结束位置
+     *
+     * @param from 开始位置
+     * @param to   结束位置
+     * @return 行结束位置（不含\r\n），未找到返回-1
+     */
+    private int indexOfLineEnd(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == '\n') {
+                return i > from && buffer[i - 1] == '\r' ? i - 1 : i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 当前帧的分段头，无分隔符的数据流中各字段为默认值
+     *
+     * @return
+     */
+    public PartHeader header() {
+        return header;
+    }
+
+    /**
+     * 帧视图数组
+     *
+     * @return
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * 帧视图偏移
+     *
+     * @return
+     */
+    public int offset() {
+        return frameOffset;
+    }
+
+    /**
+     * 帧视图长度
+     *
+     * @return
+     */
+    public int length() {
+        return frameLength;
+    }
+
+    /**
+     * 复制当前帧
+     *
+     * @return 帧数据
+     */
+    public byte[] toByteArray() {
+        byte[] data = new byte[frameLength];
+        System.arraycopy(buffer, frameOffset, data, 0, frameLength);
+        return data;
+    }
+
+}
@@ -12,6 +12,8 @@ import android.view.SurfaceView;
 import androidx.annotation.NonNull;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -42,6 +44,8 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     private int iFrameInterval = 60;
     //请求
     private Request request;
+    //AVI录像（原样保存JPEG数据，不重新编码，在IO线程中写入）
+    private final AtomicReference<AVIWriter> aviWriter = new AtomicReference<>();
     //画布
     private MJPEGCanvas canvas;
     //缩放类型
@@ -50,6 +54,8 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     private boolean debug = false;
     //渲染层已创建
     private boolean surfaceCreated;
+    //暂停显示
+    private volatile boolean paused;
 
     public MJPEGSurface(Context context) {
         super(context);
@@ -70,12 +76,38 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
         print("initialize");
         getHolder().addCallback(this);
         canvas = new MJPEGCanvas(this);
-        request = new Request();
+    }
+
+    /**
+     * 获取共享请求，相同路径的播放器共享同一个连接
+     *
+     * @param path 视频地址
+     */
+    private void attach(String path) {
+        request = StreamRegistry.acquire(path);
         request.debug(debug);
-        request.width(encodeWidth).height(encodeHeight);
-        request.frameRate(frameRate);
-        request.reconnectTime(reconnectTime);
+        //共享请求的参数与其他使用者合并，不覆盖先加入的播放器
+        StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
+        if (paused) {
+            StreamRegistry.pause(request);
+        }
+        canvas.setReader(request.getExchanger().reader());
+        canvas.setMetrics(request.getMetrics());
         request.addRequestListener(this);
+        request.viewport(this, getWidth(), getHeight(), scaleType);
+    }
+
+    /**
+     * 释放共享请求
+     */
+    private void detach() {
+        if (request != null) {
+            request.removeRequestListener(this);
+            canvas.setReader(null);
+            canvas.setMetrics(null);
+            StreamRegistry.release(request, paused);
+            request = null;
+        }
     }
 
     /**
@@ -97,6 +129,9 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
      */
     public void setScaleType(ScaleType scaleType) {
         this.scaleType = scaleType;
+        if (request != null) {
+            request.viewport(this, getWidth(), getHeight(), scaleType);
+        }
     }
 
     @Override
@@ -109,6 +144,9 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     @Override
     public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
         canvas.surfaceChanged(width, height);
+        if (request != null) {
+            request.viewport(this, width, height, scaleType);
+        }
     }
 
     @Override
@@ -136,9 +174,10 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
      * @param path 视频地址
      */
     public void setDataSource(String path) {
+        detach();
         this.path = path;
-        if (request != null) {
-            request.path(path);
+        if (!TextUtils.isEmpty(path)) {
+            attach(path);
         }
     }
 
@@ -150,7 +189,13 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
             new RuntimeException("data source path is null").printStackTrace();
             return;
         }
-        request.start(surfaceCreated ? 0 : 200);
+        if (request == null) {
+            attach(path);
+        }
+        resume();
+        if (!request.isStarted()) {
+            request.start(surfaceCreated ? 0 : 200);
+        }
     }
 
     @Override
@@ -158,9 +203,27 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
         encodeMP4(data);
     }
 
+    @Override
+    public void onFrame(Frame frame) {
+        AVIWriter writer = aviWriter.get();
+        if (writer != null) {
+            //帧由录像持有引用，写入失败时只结束该录像
+            writer.write(frame);
+        }
+        if (isEncodeMP4()) {
+            MP4Encoder encoder = prepareMP4Encoder();
+            if (encoder != null) {
+                //帧由编码器持有引用，时间戳使用帧的接收时间
+                encoder.encode(frame);
+            }
+        }
+    }
+
     @Override
     public void onBitmap(Bitmap bitmap) {
-        canvas.post(bitmap, scaleType);
+        if (!paused) {
+            canvas.post(bitmap, scaleType);
+        }
     }
 
     /**
@@ -181,19 +244,32 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
      */
     protected void encodeMP4(byte[] data) {
         if (encodeMP4) {
-            if (mp4Encoder == null) {
-                if (TextUtils.isEmpty(encodePath)) {
-                    new RuntimeException("encode path is empty").printStackTrace();
-                    return;
-                }
-                mp4Encoder = new MP4Encoder(encodePath, encodeWidth, encodeHeight, frameRate, bitRate, iFrameInterval);
-                mp4Encoder.setMP4EncodeListener(this);
+            MP4Encoder encoder = prepareMP4Encoder();
+            if (encoder != null) {
+                encoder.encode(data);
             }
-            if (mp4Encoder != null && request != null) {
-                mp4Encoder.setDebug(debug);
-                mp4Encoder.encode(data);
+        }
+    }
+
+    /**
+     * 获取视频编码器，没有时创建
+     *
+     * @return 编码路径为空或未播放时返回null
+     */
+    private MP4Encoder prepareMP4Encoder() {
+        if (mp4Encoder == null) {
+            if (TextUtils.isEmpty(encodePath)) {
+                new RuntimeException("encode path is empty").printStackTrace();
+                return null;
             }
+            mp4Encoder = new MP4Encoder(encodePath, encodeWidth, encodeHeight, frameRate, bitRate, iFrameInterval);
+            mp4Encoder.setMP4EncodeListener(this);
+        }
+        if (request == null) {
+            return null;
         }
+        mp4Encoder.setDebug(debug);
+        return mp4Encoder;
     }
 
     @Override
@@ -220,6 +296,60 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     }
 
 
+    /**
+     * 开始AVI录像，收到的JPEG数据原样写入文件，不经过解码和重新编码
+     *
+     * @param path 文件路径，例如：../video/video.avi
+     * @return 是否开始
+     */
+    public boolean startRecordAVI(String path) {
+        endRecordAVI();
+        try {
+            AVIRecorder recorder = new AVIRecorder(path).frameRate(frameRate);
+            aviWriter.set(new AVIWriter(recorder, (writer, e) -> {
+                //已结束或已开始新的录像时不处理
+                if (aviWriter.compareAndSet(writer, null)) {
+                    endRecordAVI(writer);
+                }
+            }));
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "start record avi exception:" + e);
+            return false;
+        }
+    }
+
+    /**
+     * 结束AVI录像，写入索引
+     */
+    public void endRecordAVI() {
+        endRecordAVI(aviWriter.getAndSet(null));
+    }
+
+    /**
+     * 结束AVI录像，写完队列中的帧后写入索引
+     *
+     * @param writer 录像
+     */
+    private void endRecordAVI(AVIWriter writer) {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "end record avi exception:" + e);
+            }
+        }
+    }
+
+    /**
+     * 是否正在AVI录像
+     *
+     * @return
+     */
+    public boolean isRecordAVI() {
+        return aviWriter.get() != null;
+    }
+
     /**
      * 设置解码视频路径
      *
@@ -298,7 +428,7 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     public void setFrameRate(int frameRate) {
         this.frameRate = frameRate;
         if (request != null) {
-            request.frameRate(frameRate);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -328,7 +458,7 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     public void setEncodeWidth(int encodeWidth) {
         this.encodeWidth = encodeWidth;
         if (request != null) {
-            request.width(encodeWidth);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -340,7 +470,7 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     public void setEncodeHeight(int encodeHeight) {
         this.encodeHeight = encodeHeight;
         if (request != null) {
-            request.height(encodeHeight);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -381,14 +511,14 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
     }
 
     /**
-     * 设置重连间隔，单位毫秒
+     * 设置首次重连间隔，单位毫秒，连续失败时按{@link ReconnectPolicy}指数退避
      *
      * @param reconnectTime
      */
     public void setReconnectTime(int reconnectTime) {
         this.reconnectTime = reconnectTime;
         if (request != null) {
-            request.reconnectTime(reconnectTime);
+            StreamRegistry.configure(request, encodeWidth, encodeHeight, frameRate, reconnectTime);
         }
     }
 
@@ -396,17 +526,25 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
      * 暂停
      */
     public void pause() {
-        if (request != null) {
-            request.pause();
+        //共享数据流在所有使用者都暂停时才暂停上游
+        if (!paused && request != null) {
+            StreamRegistry.pause(request);
         }
+        paused = true;
     }
 
     /**
      * 恢复
      */
     public void resume() {
+        boolean wasPaused = paused;
+        paused = false;
         if (request != null) {
-            request.resume();
+            if (wasPaused) {
+                StreamRegistry.resume(request);
+            } else {
+                request.resume();
+            }
         }
     }
 
@@ -415,9 +553,8 @@ public class MJPEGSurface extends SurfaceView implements SurfaceHolder.Callback,
      */
     public void release() {
         print("release");
-        if (request != null) {
-            request.cancel();
-        }
+        endRecordAVI();
+        detach();
         if (mp4Encoder != null) {
             mp4Encoder.end();
             mp4Encoder = null;
@@ -2,6 +2,7 @@ package androidx.mjpeg;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.media.Image;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
@@ -10,12 +11,17 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * MJPEG编解码器
+ * MJPEG编解码器<br/>
+ * 一个输入线程从有界队列取出帧，解码并转换为YUV后送入编码器，一个输出线程取出编码数据写入复用器；
+ * 队列已满时按{@link Policy}丢弃最旧的帧或阻塞调用线程，显示时间戳取自帧的接收时间。
  */
 public class MP4Encoder {
 
@@ -26,6 +32,10 @@ public class MP4Encoder {
     private final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
     //编码颜色格式
     private final int CODE_CAPABILITIES = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible;
+    //默认队列容量
+    public final static int DEFAULT_CAPACITY = 8;
+    //结束标记
+    private final static Input END = new Input(null, null, 0);
     private int colorFormat;
     //媒体编解码器
     private MediaCodec mediaCodec;
@@ -47,25 +57,105 @@ public class MP4Encoder {
     //视频质量和文件大小之间取得良好的平衡,10 到 30 之间
     //主要目标是减小文件大小,比如 60 或更高
     private int iFrameInterval = 60;
-    //编码开始时间
-    private long startTime;
+    //第一帧接收时间（纳秒）
+    private long startTime = -1;
+    //上一帧显示时间戳（微秒）
+    private long lastPresentationTimeUs = -1;
     //trackIndex
     private int trackIndex;
-    //线程池
+    //复用器已启动
+    private boolean muxerStarted;
+    //线程池（共享IO线程）
     private ExecutorService service;
-    //线程操作
-    private Future future;
+    //输入线程
+    private Future inputFuture;
+    //输出线程
+    private Future outputFuture;
+    //输入线程已退出
+    private final CountDownLatch inputExited = new CountDownLatch(1);
+    //输入线程不再取出帧，之后写入队列的帧由写入线程释放
+    private volatile boolean inputClosed = false;
+    //输入队列
+    private final ArrayBlockingQueue<Input> queue;
+    //队列写入锁，丢弃最旧的帧和写入结束标记互斥
+    private final Object queueLock = new Object();
+    //队列已满时的策略
+    private volatile Policy policy = Policy.DROP_OLDEST;
     //编码结束标志
-    private boolean endFlag = false;
+    private volatile boolean endFlag = false;
     //编码停止标志
-    private boolean stopFlag = false;
+    private volatile boolean stopFlag = false;
     //调试模式
     private boolean debug = false;
     //MP4编码监听
     private OnMP4EncodeListener onMP4EncodeListener;
-    private int frameIndex = -1;
+    //编码帧数
+    private long frameCount;
+    //丢弃帧数
+    private final AtomicLong droppedFrames = new AtomicLong();
+    //复用解码位图
+    private Bitmap bitmap;
+    //复用像素缓冲区
+    private int[] argb;
+    //复用YUV缓冲区
+    private byte[] yuv;
+    //已取出未送入的输入缓冲区（损坏的帧留给下一帧使用）
+    private int pendingInputBuffer = -1;
+    //JPEG解码器（输入线程）
+    private final JPEGDecoder jpeg = new JPEGDecoder();
+    //解码参数
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
     private int frameRate;
 
+    /**
+     * 队列已满时的策略
+     */
+    public enum Policy {
+        /**
+         * 丢弃最旧的帧，不阻塞调用线程
+         */
+        DROP_OLDEST,
+        /**
+         * 阻塞调用线程直到队列有空位
+         */
+        BLOCK
+    }
+
+    /**
+     * 输入帧
+     */
+    private static class Input {
+
+        /**
+         * 字节数据
+         */
+        private final byte[] data;
+        /**
+         * 帧数据
+         */
+        private final Frame frame;
+        /**
+         * 接收时间（{@link System#nanoTime()}）
+         */
+        private final long arrivalTime;
+
+        private Input(byte[] data, Frame frame, long arrivalTime) {
+            this.data = data;
+            this.frame = frame;
+            this.arrivalTime = arrivalTime;
+        }
+
+        /**
+         * 释放帧
+         */
+        private void release() {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+
+    }
+
     /**
      * 设置调试模式
      *
@@ -103,10 +193,30 @@ public class MP4Encoder {
      *                       主要目标是减小文件大小,比如 60 或更高
      */
     public MP4Encoder(String path, int width, int height, int frameRate, int bitRate, int iFrameInterval) {
+        this(path, width, height, frameRate, bitRate, iFrameInterval, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 初始化
+     *
+     * @param path           视频编码保存路径
+     * @param width          视频编码宽度
+     * @param height         视频编码高度
+     * @param frameRate      帧率
+     * @param bitRate        比特率
+     * @param iFrameInterval 关键帧间隔
+     * @param capacity       输入队列容量
+     */
+    public MP4Encoder(String path, int width, int height, int frameRate, int bitRate, int iFrameInterval, int capacity) {
         this.width = width;
         this.height = height;
         this.frameRate = frameRate;
-        service = Executors.newCachedThreadPool();
+        queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        //带重置间隔的高分辨率帧按段并行解码
+        jpeg.setParallel(true);
+        service = StreamScheduler.getInstance().io();
         try {
             mediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
             mediaMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
@@ -127,103 +237,383 @@ public class MP4Encoder {
         mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval);
         mediaCodec.configure(mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mediaCodec.start();
+        inputFuture = service.submit(this::input);
+        outputFuture = service.submit(this::output);
+    }
+
+    /**
+     * 设置队列已满时的策略
+     *
+     * @param policy 策略，默认{@link Policy#DROP_OLDEST}
+     */
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
     }
 
     /**
-     * 编码
+     * 丢弃的帧数（队列已满时被丢弃）
+     *
+     * @return
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * 编码，时间戳为调用时间
      *
      * @param data 编码字节
      */
     public void encode(byte[] data) {
-        future = service.submit(() -> {
+        offer(new Input(data, null, System.nanoTime()));
+    }
+
+    /**
+     * 编码，时间戳为帧的接收时间，帧在编码完成前保持引用
+     *
+     * @param frame 帧
+     */
+    public void encode(Frame frame) {
+        long arrivalTime = frame.arrivalTime() > 0 ? frame.arrivalTime() : System.nanoTime();
+        offer(new Input(null, frame.retain(), arrivalTime));
+    }
+
+    /**
+     * 写入输入队列
+     *
+     * @param input 输入帧
+     */
+    private void offer(Input input) {
+        if (policy == Policy.BLOCK) {
+            if (endFlag) {
+                input.release();
+                return;
+            }
+            try {
+                //阻塞期间可能已写入结束标记，之后的帧在输入线程退出时释放
+                queue.put(input);
+            } catch (InterruptedException e) {
+                input.release();
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } else {
+            synchronized (queueLock) {
+                if (endFlag) {
+                    input.release();
+                    return;
+                }
+                while (!queue.offer(input)) {
+                    Input oldest = queue.poll();
+                    if (oldest == END) {
+                        //结束标记不能被丢弃
+                        queue.offer(END);
+                        input.release();
+                        return;
+                    }
+                    if (oldest != null) {
+                        oldest.release();
+                        droppedFrames.incrementAndGet();
+                    }
+                }
+            }
+        }
+        if (inputClosed) {
+            //输入线程已退出，释放之后写入的帧
+            clearQueue();
+        }
+    }
+
+    /**
+     * 输入线程：取出帧，转换后送入编码器
+     */
+    private void input() {
+        try {
             while (!stopFlag) {
-                //队列取出
-                int ibIndex = mediaCodec.dequeueInputBuffer(DEFAULT_TIMEOUT_US);
-                startTime = System.currentTimeMillis();
-                if (ibIndex >= 0) {
-                    frameIndex++;
+                Input input = queue.take();
+                if (input == END) {
+                    queueEndOfStream();
+                    break;
+                }
+                try {
+                    queueFrame(input);
+                } finally {
+                    input.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "input interrupted");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "input exception:" + e);
+            stopFlag = true;
+        } finally {
+            //先标记再清空，之后写入的帧由写入线程清空
+            inputClosed = true;
+            clearQueue();
+            inputExited.countDown();
+        }
+    }
+
+    /**
+     * 解码帧并送入编码器
+     *
+     * @param input 输入帧
+     * @throws InterruptedException
+     */
+    private void queueFrame(Input input) throws InterruptedException {
+        byte[] data = input.frame != null ? input.frame.array() : input.data;
+        int length = input.frame != null ? input.frame.length() : input.data.length;
+        int size = YUVCodec.getYUV420Size(width, height);
+        if (jpeg.parse(data, 0, length) && jpeg.getWidth() == width && jpeg.getHeight() == height) {
+            //JPEG本身是YCbCr，直接解码为YUV平面，不经过Bitmap和RGB转换
+            int ibIndex = dequeueInputBuffer();
+            if (ibIndex < 0) {
+                return;
+            }
+            Image image = mediaCodec.getInputImage(ibIndex);
+            boolean decoded;
+            if (image != null) {
+                //按编码器实际的平面布局直接解码写入，不经过中间数组
+                Image.Plane[] planes = image.getPlanes();
+                decoded = jpeg.decode(planes[0].getBuffer(), planes[0].getRowStride(), planes[1].getBuffer(), planes[2].getBuffer(),
+                        planes[1].getRowStride(), planes[1].getPixelStride());
+            } else {
+                if (yuv == null) {
+                    yuv = new byte[size];
+                }
+                decoded = isSemiPlanar() ? jpeg.decodeYUV420SP(data, 0, length, yuv) : jpeg.decodeYUV420P(data, 0, length, yuv);
+                if (decoded) {
                     ByteBuffer inputBuffer = mediaCodec.getInputBuffer(ibIndex);
                     inputBuffer.clear();
-                    BitmapFactory.Options options = new BitmapFactory.Options();
-                    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
-                    Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length,options);
-                    byte[] buffer = YUVCodec.getNV12(colorFormat, width, height, bitmap);
-                    inputBuffer.put(buffer);
-                    long presentationTimeUs = (long) (frameIndex * 1000000L / frameRate);
-                    int flags = endFlag ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0;
-                    //放回ByteBuffer队列
-                    mediaCodec.queueInputBuffer(ibIndex, 0, buffer.length, presentationTimeUs, flags);
-                    //媒体复用器写入数据
-                    addTrackWrite();
+                    inputBuffer.put(yuv, 0, size);
                 }
             }
-            if (stopFlag) {
-                release();
+            if (decoded) {
+                mediaCodec.queueInputBuffer(ibIndex, 0, size, presentationTimeUs(input.arrivalTime), 0);
+                frameCount++;
+                return;
             }
-        });
+            //损坏的帧丢弃，输入缓冲区保留给下一帧，不送入空帧
+            pendingInputBuffer = ibIndex;
+            return;
+        }
+        Bitmap decoded = decode(data, length);
+        if (decoded == null) {
+            return;
+        }
+        if (argb == null) {
+            argb = new int[width * height];
+        }
+        decoded.getPixels(argb, 0, width, 0, 0, width, height);
+        int ibIndex = dequeueInputBuffer();
+        if (ibIndex < 0) {
+            return;
+        }
+        Image image = mediaCodec.getInputImage(ibIndex);
+        if (image != null) {
+            //按编码器实际的平面布局直接写入
+            YUVCodec.convert(argb, width, height, image);
+        } else {
+            if (yuv == null) {
+                yuv = new byte[size];
+            }
+            if (isSemiPlanar()) {
+                YUVCodec.toYUV420SP(argb, width, height, yuv);
+            } else {
+                YUVCodec.toYUV420P(argb, width, height, yuv);
+            }
+            ByteBuffer inputBuffer = mediaCodec.getInputBuffer(ibIndex);
+            inputBuffer.clear();
+            inputBuffer.put(yuv, 0, size);
+        }
+        mediaCodec.queueInputBuffer(ibIndex, 0, size, presentationTimeUs(input.arrivalTime), 0);
+        frameCount++;
     }
 
     /**
-     * 媒体复用器写入数据
+     * 编码器颜色格式是否为半平面（NV12）
+     *
+     * @return
      */
-    private void addTrackWrite() {
-        if (endFlag) {
-            mediaCodec.signalEndOfInputStream();
-            Log.d(TAG, "signal end of input stream");
+    private boolean isSemiPlanar() {
+        return colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+    }
+
+    /**
+     * 解码JPEG为位图（不支持的JPEG格式），复用上一次的位图
+     *
+     * @param data   JPEG数据
+     * @param length 长度
+     * @return 位图，损坏的帧返回null
+     */
+    private Bitmap decode(byte[] data, int length) {
+        options.inBitmap = bitmap;
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(data, 0, length, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(data, 0, length, options);
         }
-        while (true) {
-            int obIndex = mediaCodec.dequeueOutputBuffer(bufferInfo, DEFAULT_TIMEOUT_US);
-            if (obIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                MediaFormat mediaFormat = mediaCodec.getOutputFormat();
-                trackIndex = mediaMuxer.addTrack(mediaFormat);
-                mediaMuxer.start();
-                if (debug) {
-                    Log.d(TAG, "media muxer start");
-                }
+        if (decoded != null) {
+            bitmap = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * 显示时间戳，以第一帧的接收时间为0，保证单调递增
+     *
+     * @param arrivalTime 接收时间（纳秒）
+     * @return 微秒
+     */
+    private long presentationTimeUs(long arrivalTime) {
+        if (startTime < 0) {
+            startTime = arrivalTime;
+        }
+        long presentationTimeUs = (arrivalTime - startTime) / 1000L;
+        if (presentationTimeUs <= lastPresentationTimeUs) {
+            presentationTimeUs = lastPresentationTimeUs + 1;
+        }
+        lastPresentationTimeUs = presentationTimeUs;
+        return presentationTimeUs;
+    }
+
+    /**
+     * 获取编码器输入缓冲区，优先使用损坏的帧留下的缓冲区，等待期间编码停止时返回-1
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    private int dequeueInputBuffer() throws InterruptedException {
+        if (pendingInputBuffer >= 0) {
+            int ibIndex = pendingInputBuffer;
+            pendingInputBuffer = -1;
+            return ibIndex;
+        }
+        while (!stopFlag) {
+            int ibIndex = mediaCodec.dequeueInputBuffer(DEFAULT_TIMEOUT_US);
+            if (ibIndex >= 0) {
+                return ibIndex;
             }
-            //无输出可用，旋转等待EOS
-            if (obIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
             }
-            if (obIndex >= 0) {
-                ByteBuffer outputBuffer = mediaCodec.getOutputBuffer(obIndex);
-                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    //忽略BUFFER_FLAG_CODEC_CONFIG
-                    bufferInfo.size = 0;
-                }
-                if (bufferInfo.size != 0) {
-                    //调整字节缓冲区值以匹配缓冲区信息
-                    outputBuffer.position(bufferInfo.offset);
-                    outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
-                    mediaMuxer.writeSampleData(trackIndex, outputBuffer, bufferInfo);
+        }
+        return -1;
+    }
+
+    /**
+     * 送入结束标志
+     *
+     * @throws InterruptedException
+     */
+    private void queueEndOfStream() throws InterruptedException {
+        int ibIndex = dequeueInputBuffer();
+        if (ibIndex >= 0) {
+            long presentationTimeUs = Math.max(0, lastPresentationTimeUs + 1);
+            mediaCodec.queueInputBuffer(ibIndex, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            Log.d(TAG, "queue end of stream, frames:" + frameCount + ",dropped:" + droppedFrames.get());
+        }
+    }
+
+    /**
+     * 释放队列中未编码的帧
+     */
+    private void clearQueue() {
+        Input input;
+        while ((input = queue.poll()) != null) {
+            input.release();
+        }
+    }
+
+    /**
+     * 输出线程：取出编码数据写入复用器，直到结束标志
+     */
+    private void output() {
+        try {
+            while (!stopFlag) {
+                int obIndex = mediaCodec.dequeueOutputBuffer(bufferInfo, DEFAULT_TIMEOUT_US);
+                if (obIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat mediaFormat = mediaCodec.getOutputFormat();
+                    trackIndex = mediaMuxer.addTrack(mediaFormat);
+                    mediaMuxer.start();
+                    muxerStarted = true;
                     if (debug) {
-                        Log.d(TAG, "media muxer write sample data");
+                        Log.d(TAG, "media muxer start");
                     }
                 }
-                //释放写入缓冲区
-                mediaCodec.releaseOutputBuffer(obIndex, false);
-                //结束文件流标识
-                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    if (endFlag) {
+                if (obIndex >= 0) {
+                    ByteBuffer outputBuffer = mediaCodec.getOutputBuffer(obIndex);
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                        //忽略BUFFER_FLAG_CODEC_CONFIG
+                        bufferInfo.size = 0;
+                    }
+                    if (bufferInfo.size != 0 && muxerStarted) {
+                        //调整字节缓冲区值以匹配缓冲区信息
+                        outputBuffer.position(bufferInfo.offset);
+                        outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+                        mediaMuxer.writeSampleData(trackIndex, outputBuffer, bufferInfo);
                         if (debug) {
-                            Log.i(TAG, "buffer flag end of stream");
+                            Log.d(TAG, "media muxer write sample data");
                         }
-                        stopFlag = true;
-                        if (onMP4EncodeListener != null) {
-                            onMP4EncodeListener.onMP4EncodeEnd();
+                    }
+                    //释放写入缓冲区
+                    mediaCodec.releaseOutputBuffer(obIndex, false);
+                    //结束文件流标识
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        if (debug) {
+                            Log.i(TAG, "buffer flag end of stream");
                         }
                         break;
                     }
                 }
             }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "output exception:" + e);
+        } finally {
+            stopFlag = true;
+            if (inputFuture != null) {
+                inputFuture.cancel(true);
+            }
+            //等待输入线程退出后再释放编码器
+            try {
+                inputExited.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release();
+            if (onMP4EncodeListener != null) {
+                onMP4EncodeListener.onMP4EncodeEnd();
+            }
         }
     }
 
     /**
-     * 结束编码
+     * 结束编码，队列中已有的帧编码完成后写入文件
      */
     public void end() {
         Log.i(TAG, "end");
-        endFlag = true;
+        if (endFlag) {
+            return;
+        }
+        synchronized (queueLock) {
+            if (endFlag) {
+                return;
+            }
+            endFlag = true;
+            while (!queue.offer(END)) {
+                //结束标志不能被丢弃，队列已满时丢弃最旧的帧
+                Input oldest = queue.poll();
+                if (oldest != null) {
+                    oldest.release();
+                    droppedFrames.incrementAndGet();
+                }
+            }
+        }
+        if (inputClosed) {
+            clearQueue();
+        }
     }
 
     public void setMP4EncodeListener(OnMP4EncodeListener onMP4EncodeListener) {
@@ -231,20 +621,23 @@ public class MP4Encoder {
     }
 
     /**
-     * 释放编码
+     * 释放编码（输出线程）
      */
     private void release() {
         Log.i(TAG, "release");
-        if (future != null) {
-            future.cancel(true);
-        }
         if (mediaCodec != null) {
-            mediaCodec.stop();
+            try {
+                mediaCodec.stop();
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+            }
             mediaCodec.release();
         }
         if (mediaMuxer != null) {
             try {
-                mediaMuxer.stop();
+                if (muxerStarted) {
+                    mediaMuxer.stop();
+                }
                 mediaMuxer.release();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -252,5 +645,4 @@ public class MP4Encoder {
         }
     }
 
-
 }
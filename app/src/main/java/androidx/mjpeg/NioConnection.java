@@ -0,0 +1,387 @@
+package androidx.mjpeg;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 非阻塞HTTP连接<br/>
+ * 发送最简HTTP/1.1 GET请求，解析响应头后将数据直接读入{@link MJPEGParser}，
+ * 所有回调在{@link SelectorTransport}的IO线程中执行，回调中不应执行耗时操作。
+ * 连接超时和读取超时由IO线程定期检查，超时后以{@link SocketTimeoutException}关闭连接。
+ */
+public class NioConnection {
+
+    /**
+     * 响应头最大长度
+     */
+    private final static int HEADER_MAX_LENGTH = 16 * 1024;
+    /**
+     * 状态：连接中
+     */
+    private final static int STATE_CONNECT = 0;
+    /**
+     * 状态：发送请求
+     */
+    private final static int STATE_REQUEST = 1;
+    /**
+     * 状态：读取响应头
+     */
+    private final static int STATE_HEADER = 2;
+    /**
+     * 状态：读取数据
+     */
+    private final static int STATE_BODY = 3;
+
+    /**
+     * 连接回调
+     */
+    public interface Callback {
+
+        /**
+         * 连接成功（响应码200）
+         *
+         * @param connection 连接
+         */
+        void onConnected(NioConnection connection);
+
+        /**
+         * 解析到完整帧，帧视图仅在回调期间有效
+         *
+         * @param parser 分段解析器
+         */
+        void onFrame(MJPEGParser parser);
+
+        /**
+         * 连接关闭
+         *
+         * @param e 异常，主动关闭时为null
+         */
+        void onClosed(IOException e);
+
+    }
+
+    /**
+     * 地址
+     */
+    private final InetSocketAddress address;
+    /**
+     * 请求数据
+     */
+    private final ByteBuffer request;
+    /**
+     * 响应头
+     */
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_MAX_LENGTH);
+    /**
+     * 初始缓冲区大小
+     */
+    private final int bufferSize;
+    /**
+     * 回调
+     */
+    private final Callback callback;
+    /**
+     * 通道
+     */
+    private SocketChannel channel;
+    /**
+     * 选择键
+     */
+    private SelectionKey key;
+    /**
+     * 分段解析器
+     */
+    private MJPEGParser parser;
+    /**
+     * 状态
+     */
+    private int state = STATE_CONNECT;
+    /**
+     * 响应码
+     */
+    private int responseCode;
+    /**
+     * 已关闭
+     */
+    private volatile boolean closed;
+    /**
+     * 连接超时（毫秒），0表示不超时
+     */
+    private int connectTimeout;
+    /**
+     * 读取超时（毫秒），0表示不超时
+     */
+    private int readTimeout;
+    /**
+     * 最近一次连接进展或读取到数据的时间（{@link System#nanoTime()}）
+     */
+    private long lastActive;
+    /**
+     * 最大帧大小
+     */
+    private int maxFrameSize = MJPEGParser.DEFAULT_MAX_FRAME_SIZE;
+
+    /**
+     * 构造连接，会解析域名（阻塞），请在IO线程之外调用
+     *
+     * @param url        地址，仅支持http
+     * @param bufferSize 解析器初始缓冲区大小
+     * @param callback   回调
+     */
+    public NioConnection(URL url, int bufferSize, Callback callback) {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        this.address = new InetSocketAddress(url.getHost(), port);
+        this.bufferSize = bufferSize;
+        this.callback = callback;
+        String file = url.getFile().length() == 0 ? "/" : url.getFile();
+        String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + port;
+        String text = "GET " + file + " HTTP/1.1\r\n" +
+                "Host: " + host + "\r\n" +
+                "Accept: multipart/x-mixed-replace, image/jpeg\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        request = ByteBuffer.wrap(text.getBytes(Charset.forName("ISO-8859-1")));
+    }
+
+    /**
+     * 设置超时，需要在{@link SelectorTransport#open(NioConnection)}之前调用
+     *
+     * @param connectTimeout 连接超时（毫秒），0表示不超时
+     * @param readTimeout    读取超时（毫秒），超过该时间没有收到数据时关闭连接，0表示不超时
+     * @return
+     */
+    public NioConnection timeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * 设置最大帧大小，需要在{@link SelectorTransport#open(NioConnection)}之前调用
+     *
+     * @param maxFrameSize 最大帧大小（字节）
+     * @return
+     * @see MJPEGParser#maxFrameSize(int)
+     */
+    public NioConnection maxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    /**
+     * 检查超时（IO线程）
+     *
+     * @param now 当前时间（{@link System#nanoTime()}）
+     * @throws SocketTimeoutException 超时
+     */
+    void checkTimeout(long now) throws SocketTimeoutException {
+        long elapsed = (now - lastActive) / 1000000L;
+        if (state == STATE_CONNECT) {
+            if (connectTimeout > 0 && elapsed >= connectTimeout) {
+                throw new SocketTimeoutException("connect timed out");
+            }
+        } else if (readTimeout > 0 && elapsed >= readTimeout) {
+            throw new SocketTimeoutException("read timed out");
+        }
+    }
+
+    /**
+     * 注册到选择器（IO线程）
+     *
+     * @param selector 选择器
+     * @throws IOException
+     */
+    void register(Selector selector) throws IOException {
+        if (closed) {
+            return;
+        }
+        if (address.isUnresolved()) {
+            throw new IOException("unresolved address:" + address);
+        }
+        lastActive = System.nanoTime();
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        if (channel.connect(address)) {
+            state = STATE_REQUEST;
+            key = channel.register(selector, SelectionKey.OP_WRITE, this);
+        } else {
+            key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+        }
+    }
+
+    /**
+     * 可连接（IO线程）
+     *
+     * @throws IOException
+     */
+    void onConnectable() throws IOException {
+        if (channel.finishConnect()) {
+            lastActive = System.nanoTime();
+            state = STATE_REQUEST;
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * 可写入（IO线程）
+     *
+     * @throws IOException
+     */
+    void onWritable() throws IOException {
+        channel.write(request);
+        if (!request.hasRemaining()) {
+            state = STATE_HEADER;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 可读取（IO线程）
+     *
+     * @throws IOException
+     */
+    void onReadable() throws IOException {
+        lastActive = System.nanoTime();
+        if (state == STATE_HEADER) {
+            readHeader();
+            return;
+        }
+        int n = parser.read(channel);
+        if (n < 0) {
+            throw new EOFException("end of mjpeg stream");
+        }
+        while (!closed && parser.next()) {
+            callback.onFrame(parser);
+        }
+    }
+
+    /**
+     * 读取响应头
+     *
+     * @throws IOException
+     */
+    private void readHeader() throws IOException {
+        int n = channel.read(header);
+        if (n < 0) {
+            throw new EOFException("connection closed before response header");
+        }
+        byte[] data = header.array();
+        int length = header.position();
+        int end = -1;
+        for (int i = 3; i < length; i++) {
+            if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (!header.hasRemaining()) {
+                throw new IOException("response header too large");
+            }
+            return;
+        }
+        String text = new String(data, 0, end, Charset.forName("ISO-8859-1"));
+        String[] lines = text.split("\r\n");
+        String[] status = lines[0].split(" ");
+        responseCode = status.length > 1 ? parseInt(status[1]) : -1;
+        if (responseCode != 200) {
+            throw new IOException("response code:" + responseCode);
+        }
+        String contentType = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Type")) {
+                contentType = value;
+            } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+                throw new IOException("chunked transfer encoding not supported");
+            }
+        }
+        parser = new MJPEGParser(null, MJPEGParser.parseBoundary(contentType), bufferSize).maxFrameSize(maxFrameSize);
+        parser.write(data, end, length - end);
+        header.clear();
+        state = STATE_BODY;
+        callback.onConnected(this);
+        while (!closed && parser.next()) {
+            callback.onFrame(parser);
+        }
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 响应码
+     *
+     * @return
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * 是否已关闭
+     *
+     * @return
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 关闭连接
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            SelectorTransport.getInstance().close(this);
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * 关闭连接（IO线程）
+     *
+     * @param e 异常，主动关闭时为null
+     */
+    void close(IOException e) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        if (e != null) {
+            callback.onClosed(e);
+        }
+    }
+
+}
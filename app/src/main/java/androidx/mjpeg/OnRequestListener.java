@@ -21,4 +21,14 @@ public interface OnRequestListener {
      */
     void onBytes(byte[] data);
 
+    /**
+     * MJPEG帧数据，帧仅在回调期间有效，异步使用需先{@link Frame#retain()}，
+     * 使用完成后{@link Frame#release()}；默认复制为字节数组回调{@link #onBytes(byte[])}
+     *
+     * @param frame 帧
+     */
+    default void onFrame(Frame frame) {
+        onBytes(frame.toByteArray());
+    }
+
 }
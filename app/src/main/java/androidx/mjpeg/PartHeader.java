@@ -0,0 +1,271 @@
+package androidx.mjpeg;
+
+/**
+ * 分段头信息<br/>
+ * 直接在缓冲区中扫描分段头，解析Content-Length、Content-Type、X-Timestamp为基本类型，
+ * 不创建字符串和临时对象，对象可重复使用，行长度不受限制。
+ * 也用于解析HTTP响应头（Connection、Transfer-Encoding）。
+ */
+public class PartHeader {
+
+    /**
+     * 未知类型
+     */
+    public final static int TYPE_UNKNOWN = 0;
+    /**
+     * image/jpeg
+     */
+    public final static int TYPE_JPEG = 1;
+
+    private final static byte[] CONTENT_LENGTH = {'c', 'o', 'n', 't', 'e', 'n', 't', '-', 'l', 'e', 'n', 'g', 't', 'h'};
+    private final static byte[] CONTENT_TYPE = {'c', 'o', 'n', 't', 'e', 'n', 't', '-', 't', 'y', 'p', 'e'};
+    private final static byte[] TIMESTAMP = {'x', '-', 't', 'i', 'm', 'e', 's', 't', 'a', 'm', 'p'};
+    private final static byte[] TIMESTAMP_USEC = {'x', '-', 't', 'i', 'm', 'e', 's', 't', 'a', 'm', 'p', '-', 'u', 's', 'e', 'c'};
+    private final static byte[] IMAGE_JPEG = {'i', 'm', 'a', 'g', 'e', '/', 'j', 'p', 'e', 'g'};
+    private final static byte[] CONNECTION = {'c', 'o', 'n', 'n', 'e', 'c', 't', 'i', 'o', 'n'};
+    private final static byte[] TRANSFER_ENCODING = {'t', 'r', 'a', 'n', 's', 'f', 'e', 'r', '-', 'e', 'n', 'c', 'o', 'd', 'i', 'n', 'g'};
+    private final static byte[] CLOSE = {'c', 'l', 'o', 's', 'e'};
+    private final static byte[] KEEP_ALIVE = {'k', 'e', 'e', 'p', '-', 'a', 'l', 'i', 'v', 'e'};
+    private final static byte[] CHUNKED = {'c', 'h', 'u', 'n', 'k', 'e', 'd'};
+
+    /**
+     * 帧长度，-1表示未提供
+     */
+    private int contentLength = -1;
+    /**
+     * 内容类型
+     */
+    private int contentType = TYPE_UNKNOWN;
+    /**
+     * 时间戳（微秒），-1表示未提供
+     */
+    private long timestamp = -1;
+    /**
+     * Connection: close
+     */
+    private boolean close;
+    /**
+     * Connection: keep-alive
+     */
+    private boolean keepAlive;
+    /**
+     * Transfer-Encoding: chunked
+     */
+    private boolean chunked;
+
+    /**
+     * 重置
+     */
+    public void reset() {
+        contentLength = -1;
+        contentType = TYPE_UNKNOWN;
+        timestamp = -1;
+        close = false;
+        keepAlive = false;
+        chunked = false;
+    }
+
+    /**
+     * 解析分段头
+     *
+     * @param data 缓冲区
+     * @param from 开始位置
+     * @param to   结束位置（不含）
+     * @return 是否包含Content-Length
+     */
+    public boolean parse(byte[] data, int from, int to) {
+        reset();
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int end = lineEnd;
+            if (end > lineStart && data[end - 1] == '\r') {
+                end--;
+            }
+            parseLine(data, lineStart, end);
+            lineStart = lineEnd + 1;
+        }
+        return contentLength >= 0;
+    }
+
+    /**
+     * 解析头信息行
+     *
+     * @param data  缓冲区
+     * @param start 行开始
+     * @param end   行结束
+     */
+    private void parseLine(byte[] data, int start, int end) {
+        int colon = start;
+        while (colon < end && data[colon] != ':') {
+            colon++;
+        }
+        if (colon == end) {
+            return;
+        }
+        int nameEnd = colon;
+        while (nameEnd > start && data[nameEnd - 1] == ' ') {
+            nameEnd--;
+        }
+        int value = colon + 1;
+        while (value < end && (data[value] == ' ' || data[value] == '\t')) {
+            value++;
+        }
+        if (equalsIgnoreCase(data, start, nameEnd, CONTENT_LENGTH)) {
+            long length = parseLong(data, value, end);
+            contentLength = length >= 0 && length <= Integer.MAX_VALUE ? (int) length : -1;
+        } else if (equalsIgnoreCase(data, start, nameEnd, CONTENT_TYPE)) {
+            contentType = startsWithIgnoreCase(data, value, end, IMAGE_JPEG) ? TYPE_JPEG : TYPE_UNKNOWN;
+        } else if (equalsIgnoreCase(data, start, nameEnd, TIMESTAMP)) {
+            timestamp = parseSeconds(data, value, end);
+        } else if (equalsIgnoreCase(data, start, nameEnd, TIMESTAMP_USEC)) {
+            timestamp = parseLong(data, value, end);
+        } else if (equalsIgnoreCase(data, start, nameEnd, CONNECTION)) {
+            close = startsWithIgnoreCase(data, value, end, CLOSE);
+            keepAlive = startsWithIgnoreCase(data, value, end, KEEP_ALIVE);
+        } else if (equalsIgnoreCase(data, start, nameEnd, TRANSFER_ENCODING)) {
+            chunked = startsWithIgnoreCase(data, value, end, CHUNKED);
+        }
+    }
+
+    /**
+     * 忽略大小写比较（name为小写）
+     */
+    private static boolean equalsIgnoreCase(byte[] data, int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        return startsWithIgnoreCase(data, start, end, name);
+    }
+
+    /**
+     * 忽略大小写前缀比较（prefix为小写）
+     */
+    private static boolean startsWithIgnoreCase(byte[] data, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            int c = data[start + i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析整数
+     *
+     * @return 数值，格式错误或溢出返回-1
+     */
+    private static long parseLong(byte[] data, int start, int end) {
+        long value = 0;
+        int i = start;
+        for (; i < end; i++) {
+            int c = data[i];
+            if (c < '0' || c > '9') {
+                break;
+            }
+            if (value > (Long.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return i == start ? -1 : value;
+    }
+
+    /**
+     * 解析秒数（如 1697550000.123456）为微秒
+     *
+     * @return 微秒，格式错误或溢出返回-1
+     */
+    private static long parseSeconds(byte[] data, int start, int end) {
+        long seconds = 0;
+        int i = start;
+        for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+            if (seconds > (Long.MAX_VALUE / 1000000L - 10) / 10) {
+                return -1;
+            }
+            seconds = seconds * 10 + (data[i] - '0');
+        }
+        if (i == start) {
+            return -1;
+        }
+        long micros = 0;
+        int digits = 0;
+        if (i < end && data[i] == '.') {
+            for (i++; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+                if (digits < 6) {
+                    micros = micros * 10 + (data[i] - '0');
+                    digits++;
+                }
+            }
+        }
+        for (; digits < 6; digits++) {
+            micros *= 10;
+        }
+        return seconds * 1000000L + micros;
+    }
+
+    /**
+     * 帧长度
+     *
+     * @return -1表示未提供
+     */
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * 内容类型
+     *
+     * @return {@link #TYPE_JPEG}、{@link #TYPE_UNKNOWN}
+     */
+    public int getContentType() {
+        return contentType;
+    }
+
+    /**
+     * 时间戳
+     *
+     * @return 微秒，-1表示未提供
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 是否为Connection: close
+     *
+     * @return
+     */
+    public boolean isClose() {
+        return close;
+    }
+
+    /**
+     * 是否为Connection: keep-alive
+     *
+     * @return
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * 是否为Transfer-Encoding: chunked
+     *
+     * @return
+     */
+    public boolean isChunked() {
+        return chunked;
+    }
+
+}
@@ -0,0 +1,331 @@
+package androidx.mjpeg;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 预录缓冲<br/>
+ * 每个数据流一个，循环保存最近N秒收到的原始JPEG帧：帧数据顺序追加到内存映射文件中，
+ * 写满后从头覆盖最旧的帧，索引（时间戳、位置、长度）保存在固定大小的数组中，写入过程不分配内存。
+ * 报警时调用{@link #export(String, long, long)}把指定时间段导出为AVI文件（{@link AVIRecorder}），
+ * 导出时只在锁内复制索引，写文件期间不再写入新帧（数据不会被覆盖），接收线程不会等待文件写入。<br/>
+ * 作为监听添加到{@link Request}：{@code request.addRequestListener(buffer)}。
+ */
+public class PreEventBuffer implements OnRequestListener {
+
+    /**
+     * 映射文件
+     */
+    private final RandomAccessFile file;
+    /**
+     * 文件通道
+     */
+    private final FileChannel channel;
+    /**
+     * 映射缓冲区
+     */
+    private MappedByteBuffer mapped;
+    /**
+     * 写入视图
+     */
+    private ByteBuffer writer;
+    /**
+     * 数据区容量
+     */
+    private final int capacity;
+    /**
+     * 保留时长（微秒）
+     */
+    private final long retention;
+    /**
+     * 帧时间戳（微秒）
+     */
+    private final long[] timestamps;
+    /**
+     * 帧位置
+     */
+    private final int[] offsets;
+    /**
+     * 帧长度
+     */
+    private final int[] lengths;
+    /**
+     * 最旧的索引
+     */
+    private int first;
+    /**
+     * 索引数量
+     */
+    private int count;
+    /**
+     * 写入位置
+     */
+    private int head;
+    /**
+     * 冻结，冻结期间不写入新帧
+     */
+    private boolean frozen;
+    /**
+     * 正在进行的导出数量，导出期间不写入新帧
+     */
+    private int exporting;
+    /**
+     * 已关闭
+     */
+    private boolean closed;
+
+    /**
+     * 创建预录缓冲
+     *
+     * @param path     映射文件路径
+     * @param seconds  保留秒数
+     * @param capacity 数据区容量（字节），例如：30秒 x 25帧 x 100KB
+     * @throws IOException
+     */
+    public PreEventBuffer(String path, int seconds, int capacity) throws IOException {
+        this(path, seconds, capacity, Math.max(256, capacity / 2048));
+    }
+
+    /**
+     * 创建预录缓冲
+     *
+     * @param path      映射文件路径
+     * @param seconds   保留秒数
+     * @param capacity  数据区容量（字节）
+     * @param maxFrames 最大索引帧数
+     * @throws IOException
+     */
+    public PreEventBuffer(String path, int seconds, int capacity, int maxFrames) throws IOException {
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        this.capacity = capacity;
+        this.retention = seconds * 1000000L;
+        timestamps = new long[maxFrames];
+        offsets = new int[maxFrames];
+        lengths = new int[maxFrames];
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(capacity);
+        channel = file.getChannel();
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        writer = mapped.duplicate();
+    }
+
+    @Override
+    public void onBitmap(Bitmap bitmap) {
+
+    }
+
+    @Override
+    public void onBytes(byte[] data) {
+        append(data, 0, data.length, System.currentTimeMillis() * 1000L);
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        append(frame.array(), 0, frame.length(), frame.timestamp());
+    }
+
+    /**
+     * 追加帧，覆盖最旧的帧
+     *
+     * @param data      数据
+     * @param offset    偏移
+     * @param length    长度
+     * @param timestamp 时间戳（微秒）
+     * @return 是否写入，冻结、关闭或帧超过容量时返回false
+     */
+    public synchronized boolean append(byte[] data, int offset, int length, long timestamp) {
+        if (closed || frozen || exporting > 0 || length <= 0 || length > capacity) {
+            return false;
+        }
+        int position = head;
+        if (position + length > capacity) {
+            //尾部空间不足，从头写入，尾部的帧都是最旧的
+            while (count > 0 && offsets[first] >= position) {
+                evict();
+            }
+            position = 0;
+        }
+        //覆盖区域内的旧帧
+        int end = position + length;
+        while (count > 0 && offsets[first] < end && offsets[first] + lengths[first] > position) {
+            evict();
+        }
+        //超过保留时长的帧
+        while (count > 0 && timestamp - timestamps[first] > retention) {
+            evict();
+        }
+        if (count == timestamps.length) {
+            evict();
+        }
+        writer.position(position);
+        writer.put(data, offset, length);
+        int index = (first + count) % timestamps.length;
+        timestamps[index] = timestamp;
+        offsets[index] = position;
+        lengths[index] = length;
+        count++;
+        head = end;
+        return true;
+    }
+
+    /**
+     * 移除最旧的帧
+     */
+    private void evict() {
+        first = (first + 1) % timestamps.length;
+        count--;
+    }
+
+    /**
+     * 冻结，之后到达的帧不写入，保证导出的时间段不被覆盖
+     */
+    public synchronized void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * 解除冻结
+     */
+    public synchronized void unfreeze() {
+        frozen = false;
+    }
+
+    /**
+     * 缓冲的帧数
+     *
+     * @return
+     */
+    public synchronized int getFrames() {
+        return count;
+    }
+
+    /**
+     * 最旧帧的时间戳（微秒）
+     *
+     * @return 没有帧时返回-1
+     */
+    public synchronized long getFirstTimestamp() {
+        return count == 0 ? -1 : timestamps[first];
+    }
+
+    /**
+     * 最新帧的时间戳（微秒）
+     *
+     * @return 没有帧时返回-1
+     */
+    public synchronized long getLastTimestamp() {
+        return count == 0 ? -1 : timestamps[(first + count - 1) % timestamps.length];
+    }
+
+    /**
+     * 导出最近的帧为AVI文件
+     *
+     * @param path    文件路径
+     * @param seconds 最近秒数
+     * @return 导出的帧数
+     * @throws IOException
+     */
+    public int export(String path, int seconds) throws IOException {
+        long last = getLastTimestamp();
+        return export(path, last - seconds * 1000000L, last);
+    }
+
+    /**
+     * 导出时间段内的帧为AVI文件，导出期间暂停写入（新到达的帧被丢弃）
+     *
+     * @param path 文件路径
+     * @param from 开始时间戳（微秒，包含）
+     * @param to   结束时间戳（微秒，包含）
+     * @return 导出的帧数
+     * @throws IOException 缓冲已关闭或写入失败
+     */
+    public int export(String path, long from, long to) throws IOException {
+        long[] times;
+        int[] positions;
+        int[] sizes;
+        int total = 0;
+        ByteBuffer reader;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("buffer closed");
+            }
+            //复制时间段内的索引，文件写入在锁外进行
+            times = new long[count];
+            positions = new int[count];
+            sizes = new int[count];
+            for (int i = 0; i < count; i++) {
+                int index = (first + i) % timestamps.length;
+                long timestamp = timestamps[index];
+                if (timestamp >= from && timestamp <= to) {
+                    times[total] = timestamp;
+                    positions[total] = offsets[index];
+                    sizes[total] = lengths[index];
+                    total++;
+                }
+            }
+            reader = mapped.duplicate();
+            exporting++;
+        }
+        int frames = 0;
+        try {
+            AVIRecorder recorder = new AVIRecorder(path);
+            try {
+                byte[] scratch = new byte[0];
+                for (int i = 0; i < total; i++) {
+                    int length = sizes[i];
+                    if (scratch.length < length) {
+                        scratch = new byte[length];
+                    }
+                    reader.position(positions[i]);
+                    reader.get(scratch, 0, length);
+                    if (recorder.write(scratch, 0, length, times[i])) {
+                        frames++;
+                    }
+                }
+            } finally {
+                recorder.close();
+            }
+        } finally {
+            synchronized (this) {
+                exporting--;
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 清空缓冲
+     */
+    public synchronized void clear() {
+        first = 0;
+        count = 0;
+        head = 0;
+    }
+
+    /**
+     * 关闭映射文件
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        count = 0;
+        mapped = null;
+        writer = null;
+        channel.close();
+        file.close();
+    }
+
+}
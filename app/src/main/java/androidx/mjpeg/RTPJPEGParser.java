@@ -0,0 +1,693 @@
+package androidx.mjpeg;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RTP/JPEG（RFC 2435）解析器<br/>
+ * 逐个传入UDP收到的RTP包，按RTP时间戳把分片放入少量重组槽（抖动窗口），分片按偏移写入，到达顺序不影响结果；
+ * 一帧的分片全部到达后，根据类型、Q值（或带内量化表）重建JPEG头（DQT、SOF0、DHT、DRI、SOS），
+ * 以(数组, 偏移, 长度)的视图形式返回完整JPEG。比已输出帧更旧的未完成帧直接丢弃，不会倒序输出。<br/>
+ * 视图仅在下一次调用{@link #push(ByteBuffer)}之前有效。只支持类型0（4:2:2）和1（4:2:0）及其带重同步标记的64、65。
+ */
+public class RTPJPEGParser {
+
+    /**
+     * RTP/JPEG静态负载类型
+     */
+    public final static int PAYLOAD_TYPE = 26;
+    /**
+     * 默认重组槽数量
+     */
+    public final static int DEFAULT_WINDOW = 4;
+    /**
+     * RTP时间戳时钟频率
+     */
+    private final static int CLOCK_RATE = 90000;
+    /**
+     * 重建JPEG头的最大长度
+     */
+    private final static int HEADER_MAX_LENGTH = 1024;
+    /**
+     * 亮度量化表（ITU T.81 K.1，自然顺序）
+     */
+    private final static int[] LUMA_QUANTIZER = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+    /**
+     * 色度量化表（ITU T.81 K.2，自然顺序）
+     */
+    private final static int[] CHROMA_QUANTIZER = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    /**
+     * 重组槽
+     */
+    private final Assembly[] assemblies;
+    /**
+     * 带内量化表缓存（Q值128~254），后续帧可以省略量化表
+     */
+    private final byte[][] cachedTables = new byte[127][];
+    /**
+     * 带内量化表缓存的精度
+     */
+    private final int[] cachedPrecision = new int[127];
+    /**
+     * 按Q值计算的量化表（Z字形顺序，亮度+色度）
+     */
+    private final byte[] tables = new byte[128];
+    /**
+     * 量化表对应的Q值
+     */
+    private int tablesQuality = -1;
+    /**
+     * 输出缓冲区
+     */
+    private byte[] buffer = new byte[HEADER_MAX_LENGTH];
+    /**
+     * 输出长度
+     */
+    private int length;
+    /**
+     * 输出帧时间戳（微秒）
+     */
+    private long timestamp;
+    /**
+     * 同步源
+     */
+    private int source;
+    /**
+     * 已收到数据包
+     */
+    private boolean started;
+    /**
+     * 下一个期望的序号
+     */
+    private int expectedSequence;
+    /**
+     * 已输出帧
+     */
+    private boolean emitted;
+    /**
+     * 最后输出帧的RTP时间戳
+     */
+    private int lastTimestamp;
+    /**
+     * 最后输出帧的扩展RTP时间戳
+     */
+    private long extendedTimestamp;
+    /**
+     * 第一帧的时间（微秒）
+     */
+    private long baseTime;
+    /**
+     * 完整帧数
+     */
+    private long frames;
+    /**
+     * 丢弃的不完整帧数
+     */
+    private long droppedFrames;
+    /**
+     * 丢失的数据包数（序号间隔）
+     */
+    private long lostPackets;
+
+    public RTPJPEGParser() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * 创建解析器
+     *
+     * @param window 重组槽数量，即同时等待的帧数
+     */
+    public RTPJPEGParser(int window) {
+        assemblies = new Assembly[Math.max(1, window)];
+        for (int i = 0; i < assemblies.length; i++) {
+            assemblies[i] = new Assembly();
+        }
+    }
+
+    /**
+     * 传入一个RTP包（position到limit），不改变缓冲区的位置
+     *
+     * @param packet 数据包
+     * @return 是否得到完整帧，为true时通过{@link #array()}/{@link #offset()}/{@link #length()}读取
+     */
+    public boolean push(ByteBuffer packet) {
+        int position = packet.position();
+        int limit = packet.limit();
+        if (limit - position < 12) {
+            return false;
+        }
+        int flags = u8(packet, position);
+        if (flags >> 6 != 2) {
+            return false;
+        }
+        boolean marker = (u8(packet, position + 1) & 0x80) != 0;
+        int sequence = u16(packet, position + 2);
+        int rtpTimestamp = packet.get(position + 4) << 24 | u8(packet, position + 5) << 16 | u8(packet, position + 6) << 8 | u8(packet, position + 7);
+        int ssrc = packet.get(position + 8) << 24 | u8(packet, position + 9) << 16 | u8(packet, position + 10) << 8 | u8(packet, position + 11);
+        int offset = position + 12 + (flags & 0x0F) * 4;
+        if ((flags & 0x10) != 0) {
+            if (offset + 4 > limit) {
+                return false;
+            }
+            offset += 4 + u16(packet, offset + 2) * 4;
+        }
+        if ((flags & 0x20) != 0) {
+            limit -= u8(packet, limit - 1);
+        }
+        if (offset + 8 > limit) {
+            return false;
+        }
+        if (!started || ssrc != source) {
+            //新的同步源（发送端重启）重新开始
+            reset();
+            started = true;
+            source = ssrc;
+            expectedSequence = (sequence + 1) & 0xFFFF;
+        } else {
+            int gap = (sequence - expectedSequence) & 0xFFFF;
+            if (gap < 0x8000) {
+                lostPackets += gap;
+                expectedSequence = (sequence + 1) & 0xFFFF;
+            } else if (lostPackets > 0) {
+                //乱序到达的包之前已计为丢失
+                lostPackets--;
+            }
+        }
+        //JPEG头
+        int fragmentOffset = u8(packet, offset + 1) << 16 | u16(packet, offset + 2);
+        int type = u8(packet, offset + 4);
+        int quality = u8(packet, offset + 5);
+        int width = u8(packet, offset + 6) * 8;
+        int height = u8(packet, offset + 7) * 8;
+        offset += 8;
+        int restartInterval = 0;
+        if (type >= 64 && type < 128) {
+            if (offset + 4 > limit) {
+                return false;
+            }
+            restartInterval = u16(packet, offset);
+            offset += 4;
+            type -= 64;
+        }
+        if (type > 1) {
+            return false;
+        }
+        int tablesOffset = 0;
+        int tablesLength = 0;
+        int precision = 0;
+        if (fragmentOffset == 0 && quality >= 128) {
+            if (offset + 4 > limit) {
+                return false;
+            }
+            precision = u8(packet, offset + 1);
+            tablesLength = u16(packet, offset + 2);
+            tablesOffset = offset + 4;
+            offset = tablesOffset + tablesLength;
+            if (offset > limit) {
+                return false;
+            }
+        }
+        if (emitted && rtpTimestamp - lastTimestamp <= 0) {
+            //已输出或已丢弃的帧的迟到包
+            return false;
+        }
+        Assembly assembly = assembly(rtpTimestamp);
+        if (assembly == null) {
+            return false;
+        }
+        assembly.type = type;
+        assembly.quality = quality;
+        assembly.width = width;
+        assembly.height = height;
+        assembly.restartInterval = restartInterval;
+        if (tablesLength > 0) {
+            assembly.tables = copy(packet, tablesOffset, tablesLength, assembly.tables);
+            assembly.tablesLength = tablesLength;
+            assembly.precision = precision;
+            if (quality < 255) {
+                cachedTables[quality - 128] = copy(packet, tablesOffset, tablesLength, cachedTables[quality - 128]);
+                cachedPrecision[quality - 128] = precision;
+            }
+        }
+        int payload = limit - offset;
+        if (!assembly.add(fragmentOffset, payload)) {
+            return false;
+        }
+        ByteBuffer view = packet.duplicate();
+        view.limit(limit);
+        view.position(offset);
+        view.get(assembly.data, fragmentOffset, payload);
+        if (marker) {
+            assembly.total = fragmentOffset + payload;
+        }
+        if (assembly.total < 0 || assembly.received < assembly.total) {
+            return false;
+        }
+        return complete(assembly);
+    }
+
+    /**
+     * 获取时间戳对应的重组槽，窗口已满时淘汰最旧的帧
+     *
+     * @param rtpTimestamp RTP时间戳
+     * @return 比窗口内所有帧都旧时返回null
+     */
+    private Assembly assembly(int rtpTimestamp) {
+        Assembly free = null;
+        Assembly oldest = null;
+        for (Assembly assembly : assemblies) {
+            if (!assembly.active) {
+                free = assembly;
+            } else if (assembly.timestamp == rtpTimestamp) {
+                return assembly;
+            } else if (oldest == null || assembly.timestamp - oldest.timestamp < 0) {
+                oldest = assembly;
+            }
+        }
+        if (free == null) {
+            if (rtpTimestamp - oldest.timestamp < 0) {
+                return null;
+            }
+            droppedFrames++;
+            free = oldest;
+        }
+        free.reset(rtpTimestamp);
+        return free;
+    }
+
+    /**
+     * 重建完整JPEG
+     *
+     * @param assembly 重组槽
+     * @return 是否成功，缺少量化表时丢弃
+     */
+    private boolean complete(Assembly assembly) {
+        byte[] source;
+        int sourceLength;
+        int precision;
+        int quality = assembly.quality;
+        if (quality >= 128) {
+            if (assembly.tablesLength > 0) {
+                source = assembly.tables;
+                sourceLength = assembly.tablesLength;
+                precision = assembly.precision;
+            } else if (quality < 255 && cachedTables[quality - 128] != null) {
+                source = cachedTables[quality - 128];
+                sourceLength = source.length;
+                precision = cachedPrecision[quality - 128];
+            } else {
+                assembly.active = false;
+                droppedFrames++;
+                return false;
+            }
+        } else {
+            makeTables(quality);
+            source = tables;
+            sourceLength = tables.length;
+            precision = 0;
+        }
+        int size = HEADER_MAX_LENGTH + assembly.total + 2;
+        if (buffer.length < size) {
+            buffer = new byte[size];
+        }
+        int position = header(assembly, source, sourceLength, precision);
+        System.arraycopy(assembly.data, 0, buffer, position, assembly.total);
+        position += assembly.total;
+        if (assembly.total < 2 || (assembly.data[assembly.total - 2] & 0xFF) != 0xFF || (assembly.data[assembly.total - 1] & 0xFF) != 0xD9) {
+            buffer[position++] = (byte) 0xFF;
+            buffer[position++] = (byte) 0xD9;
+        }
+        length = position;
+        //扩展RTP时间戳，换算为微秒
+        if (!emitted) {
+            baseTime = System.currentTimeMillis() * 1000L;
+            extendedTimestamp = 0;
+        } else {
+            extendedTimestamp += assembly.timestamp - lastTimestamp;
+        }
+        timestamp = baseTime + extendedTimestamp * 1000000L / CLOCK_RATE;
+        emitted = true;
+        lastTimestamp = assembly.timestamp;
+        assembly.active = false;
+        //更旧的未完成帧不再输出
+        for (Assembly other : assemblies) {
+            if (other.active && other.timestamp - lastTimestamp < 0) {
+                other.active = false;
+                droppedFrames++;
+            }
+        }
+        frames++;
+        return true;
+    }
+
+    /**
+     * 按Q值计算量化表（RFC 2435 附录A）
+     *
+     * @param quality Q值（1~99）
+     */
+    private void makeTables(int quality) {
+        if (quality == tablesQuality) {
+            return;
+        }
+        int factor = Math.max(1, Math.min(99, quality));
+        int scale = factor < 50 ? 5000 / factor : 200 - factor * 2;
+        for (int i = 0; i < 64; i++) {
+            int luma = (LUMA_QUANTIZER[JPEGDecoder.ZIGZAG[i]] * scale + 50) / 100;
+            int chroma = (CHROMA_QUANTIZER[JPEGDecoder.ZIGZAG[i]] * scale + 50) / 100;
+            tables[i] = (byte) Math.max(1, Math.min(255, luma));
+            tables[64 + i] = (byte) Math.max(1, Math.min(255, chroma));
+        }
+        tablesQuality = quality;
+    }
+
+    /**
+     * 写入JPEG头
+     *
+     * @param assembly     重组槽
+     * @param source       量化表（Z字形顺序）
+     * @param sourceLength 量化表长度
+     * @param precision    量化表精度，第i位为1表示第i个表为16位
+     * @return JPEG头长度
+     */
+    private int header(Assembly assembly, byte[] source, int sourceLength, int precision) {
+        byte[] out = buffer;
+        int p = 0;
+        out[p++] = (byte) 0xFF;
+        out[p++] = (byte) 0xD8;
+        //DQT
+        int count = 0;
+        for (int offset = 0; count < 4; count++) {
+            int size = (precision >> count & 1) != 0 ? 128 : 64;
+            if (offset + size > sourceLength) {
+                break;
+            }
+            p = marker(out, p, 0xDB, 1 + size);
+            out[p++] = (byte) ((size == 128 ? 0x10 : 0) | count);
+            System.arraycopy(source, offset, out, p, size);
+            p += size;
+            offset += size;
+        }
+        //DRI
+        if (assembly.restartInterval > 0) {
+            p = marker(out, p, 0xDD, 2);
+            out[p++] = (byte) (assembly.restartInterval >> 8);
+            out[p++] = (byte) assembly.restartInterval;
+        }
+        //SOF0
+        int chromaTable = count > 1 ? 1 : 0;
+        p = marker(out, p, 0xC0, 15);
+        out[p++] = 8;
+        out[p++] = (byte) (assembly.height >> 8);
+        out[p++] = (byte) assembly.height;
+        out[p++] = (byte) (assembly.width >> 8);
+        out[p++] = (byte) assembly.width;
+        out[p++] = 3;
+        out[p++] = 1;
+        out[p++] = (byte) (assembly.type == 0 ? 0x21 : 0x22);
+        out[p++] = 0;
+        out[p++] = 2;
+        out[p++] = 0x11;
+        out[p++] = (byte) chromaTable;
+        out[p++] = 3;
+        out[p++] = 0x11;
+        out[p++] = (byte) chromaTable;
+        //DHT
+        p = huffman(out, p, 0x00, JPEGDecoder.STANDARD_DC_LUMINANCE);
+        p = huffman(out, p, 0x10, JPEGDecoder.STANDARD_AC_LUMINANCE);
+        p = huffman(out, p, 0x01, JPEGDecoder.STANDARD_DC_CHROMINANCE);
+        p = huffman(out, p, 0x11, JPEGDecoder.STANDARD_AC_CHROMINANCE);
+        //SOS
+        p = marker(out, p, 0xDA, 10);
+        out[p++] = 3;
+        out[p++] = 1;
+        out[p++] = 0x00;
+        out[p++] = 2;
+        out[p++] = 0x11;
+        out[p++] = 3;
+        out[p++] = 0x11;
+        out[p++] = 0;
+        out[p++] = 63;
+        out[p++] = 0;
+        return p;
+    }
+
+    /**
+     * 写入标记和段长度
+     *
+     * @param out    输出
+     * @param p      位置
+     * @param marker 标记
+     * @param length 段内容长度（不含长度字段）
+     * @return 新位置
+     */
+    private static int marker(byte[] out, int p, int marker, int length) {
+        out[p++] = (byte) 0xFF;
+        out[p++] = (byte) marker;
+        out[p++] = (byte) ((length + 2) >> 8);
+        out[p++] = (byte) (length + 2);
+        return p;
+    }
+
+    /**
+     * 写入霍夫曼表
+     *
+     * @param out   输出
+     * @param p     位置
+     * @param id    类别和编号
+     * @param table 码长数量+符号
+     * @return 新位置
+     */
+    private static int huffman(byte[] out, int p, int id, byte[] table) {
+        p = marker(out, p, 0xC4, 1 + table.length);
+        out[p++] = (byte) id;
+        System.arraycopy(table, 0, out, p, table.length);
+        return p + table.length;
+    }
+
+    /**
+     * 复制数据包内容，复用目标数组
+     *
+     * @param packet 数据包
+     * @param offset 位置
+     * @param length 长度
+     * @param target 目标数组
+     * @return
+     */
+    private static byte[] copy(ByteBuffer packet, int offset, int length, byte[] target) {
+        if (target == null || target.length != length) {
+            target = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            target[i] = packet.get(offset + i);
+        }
+        return target;
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) << 8 | (buffer.get(index + 1) & 0xFF);
+    }
+
+    /**
+     * 清空重组状态
+     */
+    public void reset() {
+        for (Assembly assembly : assemblies) {
+            assembly.active = false;
+        }
+        started = false;
+        emitted = false;
+        length = 0;
+    }
+
+    /**
+     * 帧数组
+     *
+     * @return
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * 帧偏移
+     *
+     * @return
+     */
+    public int offset() {
+        return 0;
+    }
+
+    /**
+     * 帧长度
+     *
+     * @return
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 帧时间戳（微秒），由RTP时间戳换算，第一帧为接收时间
+     *
+     * @return
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * 完整帧数
+     *
+     * @return
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * 丢弃的不完整帧数
+     *
+     * @return
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * 丢失的数据包数
+     *
+     * @return
+     */
+    public long getLostPackets() {
+        return lostPackets;
+    }
+
+    /**
+     * 重组槽
+     */
+    private static class Assembly {
+
+        /**
+         * 使用中
+         */
+        private boolean active;
+        /**
+         * RTP时间戳
+         */
+        private int timestamp;
+        /**
+         * 扫描数据
+         */
+        private byte[] data = new byte[64 * 1024];
+        /**
+         * 已收到的分片偏移
+         */
+        private int[] fragments = new int[64];
+        /**
+         * 分片数
+         */
+        private int fragmentCount;
+        /**
+         * 已收到字节数
+         */
+        private int received;
+        /**
+         * 总字节数，收到最后一个分片（marker）前为-1
+         */
+        private int total;
+        /**
+         * 类型
+         */
+        private int type;
+        /**
+         * Q值
+         */
+        private int quality;
+        /**
+         * 宽度
+         */
+        private int width;
+        /**
+         * 高度
+         */
+        private int height;
+        /**
+         * 重同步间隔
+         */
+        private int restartInterval;
+        /**
+         * 带内量化表
+         */
+        private byte[] tables;
+        /**
+         * 带内量化表长度
+         */
+        private int tablesLength;
+        /**
+         * 带内量化表精度
+         */
+        private int precision;
+
+        private void reset(int timestamp) {
+            this.active = true;
+            this.timestamp = timestamp;
+            this.fragmentCount = 0;
+            this.received = 0;
+            this.total = -1;
+            this.tablesLength = 0;
+        }
+
+        /**
+         * 记录分片
+         *
+         * @param offset 分片偏移
+         * @param length 分片长度
+         * @return 重复的分片返回false
+         */
+        private boolean add(int offset, int length) {
+            for (int i = 0; i < fragmentCount; i++) {
+                if (fragments[i] == offset) {
+                    return false;
+                }
+            }
+            if (fragmentCount == fragments.length) {
+                int[] grow = new int[fragmentCount * 2];
+                System.arraycopy(fragments, 0, grow, 0, fragmentCount);
+                fragments = grow;
+            }
+            fragments[fragmentCount++] = offset;
+            if (data.length < offset + length) {
+                byte[] grow = new byte[Math.max(data.length * 2, offset + length)];
+                System.arraycopy(data, 0, grow, 0, data.length);
+                data = grow;
+            }
+            received += length;
+            return true;
+        }
+
+    }
+
+}
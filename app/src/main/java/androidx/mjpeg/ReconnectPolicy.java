@@ -0,0 +1,161 @@
+package androidx.mjpeg;
+
+import java.util.Random;
+
+/**
+ * 重连策略<br/>
+ * 指数退避加随机抖动：第n次连续失败后等待 min(maxDelay, initialDelay * multiplier^n)，再随机减少最多jitter比例，
+ * 避免大量数据流在网络恢复后同时重连。收到第一帧后失败次数清零。
+ * 连接超时和读取超时用于发现连接不上和连接仍打开但数据停止到达（卡死）的情况，超时后按失败处理。
+ * 策略只保存配置，可以被多个{@link Request}共享。
+ */
+public class ReconnectPolicy {
+
+    /**
+     * 首次重连等待时间（毫秒）
+     */
+    private long initialDelay = 1000;
+    /**
+     * 最大重连等待时间（毫秒）
+     */
+    private long maxDelay = 30000;
+    /**
+     * 每次失败后等待时间的倍数
+     */
+    private double multiplier = 2;
+    /**
+     * 随机抖动比例（0~1），实际等待时间在[delay * (1 - jitter), delay]之间
+     */
+    private double jitter = 0.5;
+    /**
+     * 连接超时（毫秒），0表示不超时
+     */
+    private int connectTimeout = 5000;
+    /**
+     * 读取超时（毫秒），超过该时间没有收到数据视为连接卡死，0表示不超时
+     */
+    private int readTimeout = 10000;
+
+    /**
+     * 固定间隔重连（不退避、不抖动）
+     *
+     * @param delay 间隔（毫秒）
+     * @return
+     */
+    public static ReconnectPolicy fixed(long delay) {
+        return new ReconnectPolicy().initialDelay(delay).maxDelay(delay).jitter(0);
+    }
+
+    /**
+     * 设置首次重连等待时间
+     *
+     * @param initialDelay 等待时间（毫秒）
+     * @return
+     */
+    public ReconnectPolicy initialDelay(long initialDelay) {
+        this.initialDelay = Math.max(0, initialDelay);
+        return this;
+    }
+
+    /**
+     * 设置最大重连等待时间，退避不超过该值
+     *
+     * @param maxDelay 等待时间（毫秒）
+     * @return
+     */
+    public ReconnectPolicy maxDelay(long maxDelay) {
+        this.maxDelay = Math.max(0, maxDelay);
+        return this;
+    }
+
+    /**
+     * 设置每次失败后等待时间的倍数，1表示不退避
+     *
+     * @param multiplier 倍数（不小于1）
+     * @return
+     */
+    public ReconnectPolicy multiplier(double multiplier) {
+        this.multiplier = Math.max(1, multiplier);
+        return this;
+    }
+
+    /**
+     * 设置随机抖动比例，0表示不抖动
+     *
+     * @param jitter 比例（0~1）
+     * @return
+     */
+    public ReconnectPolicy jitter(double jitter) {
+        this.jitter = Math.max(0, Math.min(1, jitter));
+        return this;
+    }
+
+    /**
+     * 设置连接超时
+     *
+     * @param connectTimeout 超时（毫秒），0表示不超时
+     * @return
+     */
+    public ReconnectPolicy connectTimeout(int connectTimeout) {
+        this.connectTimeout = Math.max(0, connectTimeout);
+        return this;
+    }
+
+    /**
+     * 设置读取超时，超过该时间没有收到数据视为连接卡死
+     *
+     * @param readTimeout 超时（毫秒），0表示不超时
+     * @return
+     */
+    public ReconnectPolicy readTimeout(int readTimeout) {
+        this.readTimeout = Math.max(0, readTimeout);
+        return this;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * 计算重连等待时间
+     *
+     * @param failures 连续失败次数（从0开始）
+     * @param random   随机数
+     * @return 等待时间（毫秒）
+     */
+    public long delay(int failures, Random random) {
+        return delay(initialDelay, failures, random);
+    }
+
+    /**
+     * 使用指定的首次等待时间计算重连等待时间，用于请求单独设置首次重连时间
+     *
+     * @param initialDelay 首次等待时间（毫秒）
+     * @param failures     连续失败次数（从0开始）
+     * @param random       随机数
+     * @return 等待时间（毫秒）
+     */
+    public long delay(long initialDelay, int failures, Random random) {
+        double delay = Math.max(0, initialDelay);
+        //首次等待时间大于最大等待时间时不退避
+        double limit = Math.max(delay, maxDelay);
+        for (int i = 0; i < failures && delay < limit; i++) {
+            delay *= multiplier;
+        }
+        delay = Math.min(delay, limit);
+        return (long) (delay * (1 - jitter * random.nextDouble()));
+    }
+
+}
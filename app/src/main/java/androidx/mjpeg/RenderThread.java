@@ -0,0 +1,107 @@
+package androidx.mjpeg;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 共享渲染线程<br/>
+ * 所有{@link MJPEGCanvas}共享一个渲染线程和一个垂直同步（{@link Choreographer}）回调：
+ * 有新帧的画布加入待绘制队列，每次垂直同步依次绘制队列中的画布，多路显示不再各自占用一个线程和一个回调。
+ * 渲染线程不会因为单个画布的异常退出。
+ */
+class RenderThread implements Choreographer.FrameCallback {
+
+    private final String TAG = RenderThread.class.getSimpleName();
+    /**
+     * 共享渲染线程
+     */
+    private static volatile RenderThread renderThread;
+    /**
+     * 渲染线程Handler
+     */
+    private final Handler handler;
+    /**
+     * 渲染线程垂直同步（渲染线程访问）
+     */
+    private Choreographer choreographer;
+    /**
+     * 待绘制的画布
+     */
+    private final ConcurrentLinkedQueue<MJPEGCanvas> canvases = new ConcurrentLinkedQueue<>();
+    /**
+     * 已请求垂直同步回调
+     */
+    private final AtomicBoolean frameRequested = new AtomicBoolean();
+    /**
+     * 请求垂直同步（渲染线程）
+     */
+    private final Runnable requestFrame = () -> choreographer.postFrameCallback(this);
+
+    private RenderThread() {
+        HandlerThread thread = new HandlerThread("MJPEG-Render");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        //在请求垂直同步之前执行
+        handler.post(() -> choreographer = Choreographer.getInstance());
+    }
+
+    /**
+     * 共享渲染线程，第一次使用时启动
+     *
+     * @return
+     */
+    static RenderThread getInstance() {
+        if (renderThread == null) {
+            synchronized (RenderThread.class) {
+                if (renderThread == null) {
+                    renderThread = new RenderThread();
+                }
+            }
+        }
+        return renderThread;
+    }
+
+    /**
+     * 画布有新帧，在下一次垂直同步时绘制
+     *
+     * @param canvas 画布，调用者保证未绘制前不重复加入
+     */
+    void requestRender(MJPEGCanvas canvas) {
+        canvases.offer(canvas);
+        if (frameRequested.compareAndSet(false, true)) {
+            handler.post(requestFrame);
+        }
+    }
+
+    /**
+     * 在渲染线程中执行
+     *
+     * @param runnable 任务
+     */
+    void post(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameRequested.set(false);
+        //只绘制本次同步之前加入的画布，绘制期间加入的画布在下一次同步绘制
+        for (int count = canvases.size(); count > 0; count--) {
+            MJPEGCanvas canvas = canvases.poll();
+            if (canvas == null) {
+                break;
+            }
+            try {
+                canvas.render();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "render exception:" + e);
+            }
+        }
+    }
+
+}
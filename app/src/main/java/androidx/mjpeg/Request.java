@@ -5,22 +5,27 @@ import android.graphics.BitmapFactory;
 import android.text.TextUtils;
 import android.util.Log;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 请求
  */
 public class Request {
     private String TAG = Request.class.getSimpleName();
+    /**
+     * RTP接收缓冲区大小，避免突发的分片在读取前被丢弃
+     */
+    private final static int RTP_RECEIVE_BUFFER = 1024 * 1024;
     /**
      * 路径
      */
@@ -28,15 +33,35 @@ public class Request {
     /**
      * 开始
      */
-    private boolean start = true;
+    private volatile boolean start = true;
     /**
      * 恢复
      */
-    private boolean resume = true;
+    private volatile boolean resume = true;
+    /**
+     * 重连策略
+     */
+    private ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    /**
+     * 首次重连时间（毫秒），-1表示使用重连策略的设置
+     */
+    private volatile long reconnectTime = -1;
+    /**
+     * 连续失败次数，收到帧后清零
+     */
+    private volatile int failures;
+    /**
+     * 重连抖动随机数
+     */
+    private final Random random = new Random();
+    /**
+     * 当前连接尝试占用的许可，取消时释放
+     */
+    private volatile AtomicBoolean permit;
     /**
-     * 重连时间
+     * 连接代数，每次取消加1，已取消的连接失败时不再重连
      */
-    private long reconnectTime = 3000;
+    private volatile int generation;
     /**
      * 帧率
      */
@@ -54,13 +79,9 @@ public class Request {
      */
     private int headerLength = 100;
     /**
-     * 时间
+     * 最大帧大小
      */
-    private long decodeTime = 0;
-    /**
-     * 帧下标
-     */
-    private int index = 0;
+    private int maxFrameSize = MJPEGParser.DEFAULT_MAX_FRAME_SIZE;
     /**
      * 调试
      */
@@ -68,43 +89,130 @@ public class Request {
     /**
      * 位图
      */
-    private Bitmap bitmap;
+    private volatile Bitmap bitmap;
+    /**
+     * MJPEG分段解析器
+     */
+    private MJPEGParser parser;
     /**
-     * MJPEG数据流
+     * 输入流
      */
-    private MJPEGInputStream mis;
+    private InputStream is;
     /**
-     * 缓存文件流
+     * 帧缓冲池
      */
-    private BufferedInputStream bis;
+    private FrameBufferPool pool = FrameBufferPool.shared();
     /**
      * 连接对象
      */
     private HttpURLConnection connection;
     /**
-     * 连接池
+     * 非阻塞传输
      */
-    private ScheduledExecutorService service;
+    private boolean nio;
     /**
-     * 连接对象
+     * 非阻塞连接
+     */
+    private NioConnection nioConnection;
+    /**
+     * RTP/JPEG接收通道
+     */
+    private DatagramChannel datagramChannel;
+    /**
+     * 是否为快照轮询（单张JPEG地址）
+     */
+    private boolean snapshot;
+    /**
+     * 快照轮询的流水线深度
+     */
+    private int pipeline = 2;
+    /**
+     * 快照轮询连接
+     */
+    private volatile SnapshotPoller snapshotPoller;
+    /**
+     * 调度器
+     */
+    private StreamScheduler scheduler = StreamScheduler.getInstance();
+    /**
+     * 连接任务
+     */
+    private volatile StreamScheduler.Task future;
+    /**
+     * 最新帧槽位
+     */
+    private final FrameSlot slot = new FrameSlot();
+    /**
+     * 解码任务已提交
+     */
+    private final AtomicBoolean decoding = new AtomicBoolean();
+    /**
+     * 解码任务
+     */
+    private final Runnable decodeTask = this::decodeNext;
+    /**
+     * 解码锁，释放位图时等待正在进行的解码
+     */
+    private final Object decodeLock = new Object();
+    /**
+     * 解码参数
+     */
+    private final BitmapFactory.Options options = new BitmapFactory.Options();
+    /**
+     * 显示区域
+     */
+    private final Map<OnRequestListener, Viewport> viewports = new HashMap<>();
+    /**
+     * 位图交换器
+     */
+    private final BitmapExchanger exchanger = new BitmapExchanger();
+    /**
+     * JPEG信息
+     */
+    private final JPEGInfo info = new JPEGInfo();
+    /**
+     * 数据流图像宽度
      */
-    private Future future;
+    private volatile int frameWidth;
+    /**
+     * 数据流图像高度
+     */
+    private volatile int frameHeight;
+    /**
+     * 性能统计
+     */
+    private final StreamMetrics metrics = new StreamMetrics();
+    /**
+     * 解码采样率
+     */
+    private int sampleSize = 1;
+    /**
+     * 录像文件播放倍速
+     */
+    private volatile int speed = 1;
+    /**
+     * 录像文件定位时间戳（微秒），-1表示没有定位请求
+     */
+    private volatile long seekTimestamp = -1;
+    /**
+     * 录像文件播放位置（微秒）
+     */
+    private volatile long position;
+    /**
+     * 录像文件总时长（微秒）
+     */
+    private volatile long duration;
     /**
      * 请求监听
      */
-    private OnRequestListener onRequestListener;
+    private volatile OnRequestListener[] listeners = new OnRequestListener[0];
 
     public Request() {
-        initialize();
     }
 
     public Request(String path) {
         this.path = path;
-        initialize();
-    }
-
-    protected void initialize() {
-        service = Executors.newSingleThreadScheduledExecutor();
+        metrics.path(path);
     }
 
     /**
@@ -124,6 +232,7 @@ public class Request {
      */
     public void path(String path) {
         this.path = path;
+        metrics.path(path);
     }
 
     /**
@@ -182,9 +291,78 @@ public class Request {
     }
 
     /**
-     * 设置重连时间
+     * 设置最大帧大小，Content-Length超过该值时不信任该值，超过该值仍未找到帧结束时丢弃该帧；
+     * 快照轮询的响应超过该值时重新连接
+     *
+     * @param maxFrameSize 最大帧大小（字节）
+     * @return
+     */
+    public Request maxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    /**
+     * 设置是否使用非阻塞传输，开启后http数据流共享{@link SelectorTransport}的IO线程，
+     * 不占用独立的读取线程（不支持https和chunked编码的数据流）
      *
-     * @param reconnectTime
+     * @param nio
+     * @return
+     */
+    public Request nio(boolean nio) {
+        this.nio = nio;
+        return this;
+    }
+
+    /**
+     * 设置是否为快照轮询：地址返回单张JPEG（如snapshot.jpg），按帧率在一个持久连接上重复请求，
+     * 地址以.jpg或.jpeg结尾时自动使用
+     *
+     * @param snapshot
+     * @return
+     */
+    public Request snapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+        return this;
+    }
+
+    /**
+     * 设置快照轮询的流水线深度（同时未响应的请求数），往返延迟大于帧间隔时增大，1表示不使用流水线
+     *
+     * @param pipeline
+     * @return
+     */
+    public Request pipeline(int pipeline) {
+        this.pipeline = pipeline;
+        return this;
+    }
+
+    /**
+     * 设置调度器，默认使用共享调度器
+     *
+     * @param scheduler
+     * @return
+     */
+    public Request scheduler(StreamScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * 设置帧缓冲池
+     *
+     * @param pool
+     * @return
+     */
+    public Request pool(FrameBufferPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * 设置首次重连时间，之后按重连策略指数退避。只对当前请求生效，不修改（可能共享的）重连策略
+     *
+     * @param reconnectTime 首次重连时间（毫秒），-1表示使用重连策略的设置
      * @return
      */
     public Request reconnectTime(long reconnectTime) {
@@ -192,17 +370,156 @@ public class Request {
         return this;
     }
 
+    /**
+     * 设置重连策略（退避、抖动、连接超时和读取超时），可以被多个请求共享
+     *
+     * @param reconnectPolicy
+     * @return
+     */
+    public Request reconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+        return this;
+    }
+
+    /**
+     * 获取重连策略，策略可能被多个请求共享，修改会影响所有使用它的请求
+     *
+     * @return
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * 设置录像文件播放倍速，通过索引跳帧实现，例如：1、4、16
+     *
+     * @param speed
+     * @return
+     */
+    public Request speed(int speed) {
+        this.speed = Math.max(1, speed);
+        return this;
+    }
+
+    /**
+     * 录像文件定位
+     *
+     * @param timestamp 时间戳（微秒，相对文件开始）
+     * @return
+     */
+    public Request seek(long timestamp) {
+        seekTimestamp = Math.max(0, timestamp);
+        return this;
+    }
+
     /**
      * 添加请求监听
      *
      * @param onRequestListener
      * @return
      */
-    public Request addRequestListener(OnRequestListener onRequestListener) {
-        this.onRequestListener = onRequestListener;
+    public synchronized Request addRequestListener(OnRequestListener onRequestListener) {
+        OnRequestListener[] current = listeners;
+        for (OnRequestListener listener : current) {
+            if (listener == onRequestListener) {
+                return this;
+            }
+        }
+        OnRequestListener[] update = new OnRequestListener[current.length + 1];
+        System.arraycopy(current, 0, update, 0, current.length);
+        update[current.length] = onRequestListener;
+        listeners = update;
         return this;
     }
 
+    /**
+     * 移除请求监听
+     *
+     * @param onRequestListener
+     * @return
+     */
+    public synchronized Request removeRequestListener(OnRequestListener onRequestListener) {
+        OnRequestListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == onRequestListener) {
+                OnRequestListener[] update = new OnRequestListener[current.length - 1];
+                System.arraycopy(current, 0, update, 0, i);
+                System.arraycopy(current, i + 1, update, i, current.length - i - 1);
+                listeners = update;
+                break;
+            }
+        }
+        viewports.remove(onRequestListener);
+        return this;
+    }
+
+    /**
+     * 设置监听的显示区域，解码时按所有显示区域中需要的最大尺寸降采样（inSampleSize）
+     *
+     * @param onRequestListener 监听
+     * @param width             显示宽度
+     * @param height            显示高度
+     * @param scaleType         缩放类型
+     * @return
+     */
+    public synchronized Request viewport(OnRequestListener onRequestListener, int width, int height, ScaleType scaleType) {
+        Viewport viewport = viewports.get(onRequestListener);
+        if (viewport == null) {
+            viewport = new Viewport();
+            viewports.put(onRequestListener, viewport);
+        }
+        viewport.width = width;
+        viewport.height = height;
+        viewport.scaleType = scaleType;
+        return this;
+    }
+
+    /**
+     * 计算解码采样率
+     *
+     * @param frameWidth  图像宽度
+     * @param frameHeight 图像高度
+     * @return
+     */
+    private synchronized int calculateSampleSize(int frameWidth, int frameHeight) {
+        if (viewports.isEmpty()) {
+            return 1;
+        }
+        int sample = Integer.MAX_VALUE;
+        for (Viewport viewport : viewports.values()) {
+            sample = Math.min(sample, calculateSampleSize(frameWidth, frameHeight, viewport.width, viewport.height, viewport.scaleType));
+        }
+        return sample;
+    }
+
+    /**
+     * 计算解码采样率，与{@link MJPEGCanvas#createMatrix}的缩放规则一致，
+     * 保证降采样后的图像不小于显示尺寸
+     *
+     * @param frameWidth  图像宽度
+     * @param frameHeight 图像高度
+     * @param viewWidth   显示宽度
+     * @param viewHeight  显示高度
+     * @param scaleType   缩放类型
+     * @return 2的幂
+     */
+    public static int calculateSampleSize(int frameWidth, int frameHeight, int viewWidth, int viewHeight, ScaleType scaleType) {
+        if (scaleType == null || scaleType == ScaleType.CENTER_RAW || frameWidth <= 0 || frameHeight <= 0 || viewWidth <= 0 || viewHeight <= 0) {
+            return 1;
+        }
+        float scale;
+        if (scaleType == ScaleType.CENTER_CROP && viewWidth > viewHeight) {
+            scale = (float) viewWidth / (float) frameWidth;
+        } else {
+            scale = (float) viewHeight / (float) frameHeight;
+        }
+        int sample = 1;
+        while (scale * sample * 2 <= 1) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
     /**
      * 暂停
      */
@@ -230,15 +547,11 @@ public class Request {
      */
     public Request start(long delay) {
         resume = true;
-        if (service == null) {
-            service = Executors.newSingleThreadScheduledExecutor();
-        }
         if (future != null) {
             future.cancel(true);
         }
-        future = service.schedule(() -> {
-            request();
-        }, delay, TimeUnit.MILLISECONDS);
+        metrics.register();
+        future = scheduler.schedule(this::request, delay);
         return this;
     }
 
@@ -249,19 +562,61 @@ public class Request {
      */
     public Request retry(long delay) {
         cancel();
-        if (service == null) {
-            service = Executors.newSingleThreadScheduledExecutor();
-        }
-        if (future != null) {
-            future.cancel(true);
-        }
-        future = service.schedule(() -> {
+        metrics.recordReconnect();
+        metrics.register();
+        future = scheduler.schedule(() -> {
             Log.i(TAG, "retry request...");
             request();
-        }, delay, TimeUnit.MILLISECONDS);
+        }, delay);
         return this;
     }
 
+    /**
+     * 连接失败或中断，按重连策略计算等待时间后重试
+     *
+     * @param generation 发起连接时的代数，请求已取消或已重连时忽略
+     */
+    private void reconnect(int generation) {
+        if (generation != this.generation) {
+            return;
+        }
+        long initialDelay = reconnectTime >= 0 ? reconnectTime : reconnectPolicy.getInitialDelay();
+        long delay = reconnectPolicy.delay(initialDelay, failures, random);
+        failures++;
+        Log.d(TAG, "reconnect after " + delay + "ms, failures:" + failures);
+        retry(delay);
+    }
+
+    /**
+     * 获取连接许可，同时进行的连接尝试数量受调度器限制。
+     * 每次连接尝试持有自己的许可，只释放一次，已取消的旧连接失败时不会释放新连接的许可
+     *
+     * @param generation 发起连接时的代数
+     * @return 许可，等待期间请求已取消时返回null
+     * @throws InterruptedException
+     */
+    private AtomicBoolean acquireConnection(int generation) throws InterruptedException {
+        scheduler.acquireConnection();
+        AtomicBoolean permit = new AtomicBoolean(true);
+        this.permit = permit;
+        if (generation != this.generation) {
+            releaseConnection(permit);
+            return null;
+        }
+        return permit;
+    }
+
+    /**
+     * 释放连接许可（连接成功、失败或取消），重复释放无效
+     *
+     * @param permit 许可
+     */
+    private void releaseConnection(AtomicBoolean permit) {
+        if (permit != null && permit.compareAndSet(true, false)) {
+            scheduler.releaseConnection();
+        }
+    }
+
     /**
      * 请求开始
      */
@@ -271,75 +626,533 @@ public class Request {
             return this;
         }
         Log.d(TAG, "path:" + path);
-        if (path.toUpperCase().startsWith("HTTP")) {
+        if (path.toUpperCase().startsWith("HTTP:") && (snapshot || isSnapshot(path))) {
+            poll();
+        } else if (nio && path.toUpperCase().startsWith("HTTP:")) {
+            select();
+        } else if (path.toUpperCase().startsWith("HTTP")) {
             http();
+        } else if (path.toUpperCase().startsWith("RTP:")) {
+            rtp();
+        } else {
+            play();
         }
         return this;
     }
 
+    /**
+     * RTP/JPEG（RFC 2435）UDP接收，路径形式：rtp://@:5004 或 rtp://192.168.1.2:5004（本机地址）
+     */
+    private void rtp() {
+        int generation = this.generation;
+        try {
+            int index = path.lastIndexOf(':');
+            String host = path.substring("rtp://".length(), index);
+            int port = Integer.parseInt(path.substring(index + 1));
+            InetSocketAddress address = host.isEmpty() || host.equals("@") ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+            DatagramChannel channel = DatagramChannel.open();
+            datagramChannel = channel;
+            channel.socket().setReceiveBufferSize(RTP_RECEIVE_BUFFER);
+            channel.socket().bind(address);
+            Log.i(TAG, "rtp listening:" + address);
+            start = true;
+            RTPJPEGParser parser = new RTPJPEGParser();
+            ByteBuffer packet = ByteBuffer.allocateDirect(64 * 1024);
+            while (start) {
+                packet.clear();
+                channel.receive(packet);
+                packet.flip();
+                if (parser.push(packet) && resume) {
+                    Frame frame = pool.obtain(parser.length());
+                    frame.arrivalTime(System.nanoTime());
+                    frame.put(parser.array(), parser.offset(), parser.length());
+                    frame.timestamp(parser.timestamp());
+                    receive(frame);
+                }
+            }
+        } catch (Exception e) {
+            Log.d(TAG, "exception:" + e);
+            if (start) {
+                reconnect(generation);
+            }
+        }
+    }
+
+    /**
+     * 播放录像文件（AVI或原始MJPEG），按帧间隔通过索引读取帧，送入与网络数据流相同的处理流程
+     */
+    private void play() {
+        String file = path.regionMatches(true, 0, "file://", 0, 7) ? path.substring(7) : path;
+        try (MJPEGArchive archive = new MJPEGArchive(file, frameRate)) {
+            Log.i(TAG, "open archive, frames:" + archive.getFrames());
+            start = true;
+            duration = archive.getDuration();
+            long frameDuration = archive.getFrameDuration() * 1000L;
+            long next = System.nanoTime();
+            int index = 0;
+            while (start && index < archive.getFrames()) {
+                long timestamp = seekTimestamp;
+                if (timestamp >= 0) {
+                    seekTimestamp = -1;
+                    index = archive.indexOf(timestamp);
+                }
+                if (resume) {
+                    ByteBuffer data = archive.frame(index);
+                    Frame frame = pool.obtain(data.remaining());
+                    frame.arrivalTime(System.nanoTime());
+                    frame.put(data);
+                    frame.timestamp(archive.timestamp(index));
+                    position = frame.timestamp();
+                    receive(frame);
+                    //倍速播放时跳过中间的帧，不读取也不解码
+                    index += speed;
+                }
+                next += frameDuration;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                } else if (wait < -frameDuration) {
+                    //处理落后时不追赶，避免连续突发
+                    next = System.nanoTime();
+                }
+            }
+            Log.i(TAG, "archive end");
+        } catch (InterruptedException e) {
+            Log.d(TAG, "archive interrupted");
+        } catch (IOException e) {
+            Log.d(TAG, "exception:" + e);
+        }
+    }
+
+    /**
+     * 地址是否为单张JPEG
+     *
+     * @param path 地址
+     * @return
+     */
+    private static boolean isSnapshot(String path) {
+        int end = path.indexOf('?');
+        String file = (end < 0 ? path : path.substring(0, end)).toLowerCase();
+        return file.endsWith(".jpg") || file.endsWith(".jpeg");
+    }
+
+    /**
+     * 快照轮询：在持久连接上请求单张JPEG，送入与数据流相同的处理流程。
+     * 请求按帧率定时提交到IO线程发送（流水线，写入可能阻塞，不占用定时线程和解码线程），
+     * 当前线程只负责读取响应，往返延迟不影响发送节奏
+     */
+    private void poll() {
+        int generation = this.generation;
+        AtomicBoolean permit;
+        try {
+            permit = acquireConnection(generation);
+        } catch (InterruptedException e) {
+            Log.d(TAG, "connect cancelled");
+            return;
+        }
+        if (permit == null) {
+            return;
+        }
+        try {
+            URL url = new URL(path);
+            SnapshotPoller poller = new SnapshotPoller(url, width * height + headerLength)
+                    .pipeline(pipeline)
+                    .timeouts(reconnectPolicy.getConnectTimeout(), reconnectPolicy.getReadTimeout())
+                    .maxFrameSize(maxFrameSize);
+            snapshotPoller = poller;
+            poller.connect();
+            long interval = 1000000000L / Math.max(1, frameRate);
+            scheduler.schedule(new Runnable() {
+                /**
+                 * 下次发送时间（{@link System#nanoTime()}）
+                 */
+                private long next = System.nanoTime();
+
+                @Override
+                public void run() {
+                    if (generation != Request.this.generation) {
+                        return;
+                    }
+                    try {
+                        //暂停时不再请求；达到流水线深度时跳过本次
+                        if (resume) {
+                            poller.send();
+                        }
+                    } catch (IOException e) {
+                        //连接错误由读取线程处理
+                        Log.d(TAG, "send exception:" + e);
+                    }
+                    next += interval;
+                    long now = System.nanoTime();
+                    if (next - now < -interval) {
+                        //落后时不追赶，避免连续突发
+                        next = now;
+                    }
+                    scheduler.schedule(this, Math.max(0, (next - now) / 1000000L));
+                }
+            }, 0);
+            boolean connected = false;
+            while (generation == this.generation) {
+                poller.read();
+                if (!connected) {
+                    Log.i(TAG, "connect successful");
+                    connected = true;
+                    releaseConnection(permit);
+                    start = true;
+                }
+                if (resume) {
+                    Frame frame = pool.obtain(poller.length());
+                    frame.arrivalTime(System.nanoTime());
+                    frame.put(poller.array(), poller.offset(), poller.length());
+                    long timestamp = poller.timestamp();
+                    frame.timestamp(timestamp >= 0 ? timestamp : System.currentTimeMillis() * 1000L);
+                    receive(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.d(TAG, "poll cancelled");
+        } catch (Exception e) {
+            Log.d(TAG, "exception:" + e);
+            releaseConnection(permit);
+            reconnect(generation);
+        }
+    }
+
+    /**
+     * 非阻塞Http请求
+     */
+    private void select() {
+        int generation = this.generation;
+        AtomicBoolean permit;
+        try {
+            permit = acquireConnection(generation);
+        } catch (InterruptedException e) {
+            Log.d(TAG, "connect cancelled");
+            return;
+        }
+        if (permit == null) {
+            return;
+        }
+        try {
+            NioConnection connection = new NioConnection(new URL(path), width * height + headerLength, new NioConnection.Callback() {
+                @Override
+                public void onConnected(NioConnection connection) {
+                    Log.i(TAG, "connect successful");
+                    releaseConnection(permit);
+                    start = true;
+                }
+
+                @Override
+                public void onFrame(MJPEGParser parser) {
+                    if (start) {
+                        receive(parser);
+                    }
+                }
+
+                @Override
+                public void onClosed(IOException e) {
+                    Log.d(TAG, "exception:" + e);
+                    releaseConnection(permit);
+                    //重连会取消请求（等待解码锁），不在共享的IO线程中执行
+                    scheduler.execute(() -> reconnect(generation));
+                }
+            });
+            connection.timeouts(reconnectPolicy.getConnectTimeout(), reconnectPolicy.getReadTimeout())
+                    .maxFrameSize(maxFrameSize);
+            nioConnection = connection;
+            SelectorTransport.getInstance().open(connection);
+        } catch (Exception e) {
+            Log.d(TAG, "exception:" + e);
+            releaseConnection(permit);
+            reconnect(generation);
+        }
+    }
+
 
     /**
      * Http请求
      */
     private void http() {
+        int generation = this.generation;
+        AtomicBoolean permit;
+        try {
+            permit = acquireConnection(generation);
+        } catch (InterruptedException e) {
+            Log.d(TAG, "connect cancelled");
+            return;
+        }
+        if (permit == null) {
+            return;
+        }
         try {
             URL url = new URL(path);
             connection = (HttpURLConnection) url.openConnection();
+            //读取超时同时用于发现连接打开但数据停止到达的情况
+            connection.setConnectTimeout(reconnectPolicy.getConnectTimeout());
+            connection.setReadTimeout(reconnectPolicy.getReadTimeout());
             int responseCode = connection.getResponseCode();
+            releaseConnection(permit);
             if (responseCode == HttpURLConnection.HTTP_OK) {
                 Log.i(TAG, "connect successful");
                 start = true;
-                bis = new BufferedInputStream(connection.getInputStream());
-                read(bis);
+                String boundary = MJPEGParser.parseBoundary(connection.getContentType());
+                is = connection.getInputStream();
+                parser = new MJPEGParser(is, boundary, width * height + headerLength).maxFrameSize(maxFrameSize);
+                read(parser);
             } else {
                 Log.d(TAG, "response code:" + responseCode);
-                retry(reconnectTime);
+                reconnect(generation);
             }
         } catch (Exception e) {
             Log.d(TAG, "exception:" + e);
-            retry(reconnectTime);
+            releaseConnection(permit);
+            reconnect(generation);
         }
     }
 
     /**
-     * 读取输入流
+     * 读取输入流，接收线程只负责读取数据并写入最新帧槽位，解码由调度器工作线程完成
      *
-     * @param bis
-     * @throws Exception
+     * @param parser 分段解析器
+     * @throws IOException
      */
-    protected void read(BufferedInputStream bis) throws IOException {
-        if (debug) {
-            decodeTime = System.currentTimeMillis();
-        }
+    protected void read(MJPEGParser parser) throws IOException {
         while (start) {
-            if (resume) {
-                if (mis == null) {
-                    mis = new MJPEGInputStream(bis, width * height * frameRate + headerLength);
-                }
-                byte[] data = mis.readBytes();
-                if (onRequestListener != null) {
-                    onRequestListener.onBytes(data);
-                }
-                BitmapFactory.Options options = new BitmapFactory.Options();
-                if (bitmap != null) {
-                    options.inBitmap = bitmap;
-                }
-                options.inMutable = true;
-                bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
-                if (debug) {
-                    index++;
-                    long duration = System.currentTimeMillis() - decodeTime;
-                    if (index == frameRate) {
-                        Log.d(TAG, "frame index:" + index + ",duration:" + duration);
-                        decodeTime = System.currentTimeMillis();
-                        index = 0;
+            parser.readFully();
+            receive(parser);
+        }
+    }
+
+    /**
+     * 接收当前帧，复制到缓冲池帧后回调监听并写入最新帧槽位
+     *
+     * @param parser 分段解析器
+     */
+    protected void receive(MJPEGParser parser) {
+        if (!resume) {
+            //暂停时继续读取数据，避免恢复后显示积压的旧帧
+            return;
+        }
+        Frame frame = pool.obtain(parser.length());
+        frame.arrivalTime(System.nanoTime());
+        frame.put(parser.array(), parser.offset(), parser.length());
+        long timestamp = parser.header().getTimestamp();
+        frame.timestamp(timestamp >= 0 ? timestamp : System.currentTimeMillis() * 1000L);
+        receive(frame);
+    }
+
+    /**
+     * 接收帧，回调监听并写入最新帧槽位，帧的引用转交给槽位
+     *
+     * @param frame 缓冲池帧，接收时间为开始复制数据的时间
+     */
+    protected void receive(Frame frame) {
+        int length = frame.length();
+        long arrivalTime = frame.arrivalTime();
+        if (failures != 0) {
+            failures = 0;
+        }
+        try {
+            OnRequestListener[] current = listeners;
+            for (int i = 0; i < current.length; i++) {
+                current[i].onFrame(frame);
+            }
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
+        }
+        if (slot.offer(frame)) {
+            metrics.recordDropped();
+        }
+        metrics.recordReceived(length, System.nanoTime() - arrivalTime);
+        scheduleDecode();
+    }
+
+    /**
+     * 提交解码任务，同一数据流同时最多一个解码任务
+     */
+    private void scheduleDecode() {
+        if (decoding.compareAndSet(false, true)) {
+            scheduler.execute(decodeTask);
+        }
+    }
+
+    /**
+     * 解码最新帧，每次只解码一帧，仍有新帧时重新排队，让出工作线程给其他数据流
+     */
+    private void decodeNext() {
+        Frame frame = slot.poll();
+        if (frame != null) {
+            try {
+                synchronized (decodeLock) {
+                    if (start) {
+                        decode(frame);
+                    } else {
+                        metrics.recordDropped();
                     }
                 }
-                if (onRequestListener != null) {
-                    onRequestListener.onBitmap(bitmap);
-                }
+            } catch (RuntimeException e) {
+                metrics.recordCorrupt();
+                Log.d(TAG, "decode exception:" + e);
+            } finally {
+                frame.release();
             }
         }
+        decoding.set(false);
+        if (!slot.isEmpty()) {
+            scheduleDecode();
+        }
+    }
+
+    /**
+     * 解码帧
+     *
+     * @param frame 帧
+     */
+    protected void decode(Frame frame) {
+        long begin = System.nanoTime();
+        if (!info.parse(frame.array(), 0, frame.length()) || !info.isComplete()) {
+            //不完整或损坏的帧直接丢弃，不进行解码
+            metrics.recordCorrupt();
+            return;
+        }
+        frameWidth = info.getWidth();
+        frameHeight = info.getHeight();
+        int sample = calculateSampleSize(frameWidth, frameHeight);
+        if (sample != sampleSize) {
+            Log.d(TAG, "sample size:" + sample);
+            sampleSize = sample;
+        }
+        //从交换器获取没有被显示的位图写入，不会覆盖正在显示的帧
+        Bitmap reuse = exchanger.obtain();
+        if (reuse != null) {
+            //复用位图与采样后的尺寸不匹配时重新分配
+            long bytes = (long) ((frameWidth + sample - 1) / sample) * ((frameHeight + sample - 1) / sample) * 4;
+            long allocation = reuse.getAllocationByteCount();
+            if (allocation < bytes || allocation > bytes * 2) {
+                reuse = null;
+            }
+        }
+        options.inBitmap = reuse;
+        options.inMutable = true;
+        options.inSampleSize = sample;
+        Bitmap decoded;
+        try {
+            try {
+                decoded = BitmapFactory.decodeByteArray(frame.array(), 0, frame.length(), options);
+            } catch (IllegalArgumentException e) {
+                options.inBitmap = null;
+                decoded = BitmapFactory.decodeByteArray(frame.array(), 0, frame.length(), options);
+            }
+        } catch (RuntimeException e) {
+            exchanger.cancel();
+            throw e;
+        }
+        if (decoded == null) {
+            exchanger.cancel();
+            metrics.recordCorrupt();
+            return;
+        }
+        exchanger.publish(decoded);
+        bitmap = decoded;
+        metrics.recordDecoded(System.nanoTime() - begin);
+        if (debug && metrics.getFramesDecoded() % Math.max(1, frameRate) == 0) {
+            Log.d(TAG, metrics.snapshot().toString());
+        }
+        OnRequestListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onBitmap(bitmap);
+        }
+    }
+
+    /**
+     * 损坏或不完整的帧数
+     *
+     * @return
+     */
+    public long getCorruptFrames() {
+        return metrics.getFramesCorrupt();
+    }
+
+    /**
+     * 性能统计，显示者通过{@link StreamMetrics#recordRendered(long)}记录显示耗时
+     *
+     * @return
+     */
+    public StreamMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 数据流图像宽度
+     *
+     * @return 0表示未知
+     */
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    /**
+     * 数据流图像高度
+     *
+     * @return 0表示未知
+     */
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    /**
+     * 丢弃的帧数（解码慢于接收时被新帧替换）
+     *
+     * @return
+     */
+    public long getDroppedFrames() {
+        return slot.getDropped();
+    }
+
+    /**
+     * 是否已开始请求
+     *
+     * @return
+     */
+    public boolean isStarted() {
+        return future != null && !future.isCancelled();
+    }
+
+    /**
+     * 录像文件播放位置
+     *
+     * @return 时间戳（微秒，相对文件开始）
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * 录像文件总时长
+     *
+     * @return 微秒，网络数据流为0
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * 获取路径
+     *
+     * @return
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 获取位图交换器，显示者通过{@link BitmapExchanger#reader()}获取完整的最新帧
+     *
+     * @return
+     */
+    public BitmapExchanger getExchanger() {
+        return exchanger;
     }
 
     /**
@@ -356,37 +1169,72 @@ public class Request {
      */
     public void cancel() {
         Log.d(TAG, "cancel");
+        generation++;
         start = false;
         resume = true;
         if (future != null) {
             future.cancel(true);
             future = null;
         }
-        if (service != null) {
-            service.shutdown();
-            service = null;
+        if (slot.clear()) {
+            metrics.recordDropped();
         }
-        if (bitmap != null) {
-            bitmap.recycle();
+        metrics.unregister();
+        releaseConnection(permit);
+        synchronized (decodeLock) {
+            exchanger.clear();
             bitmap = null;
         }
         try {
-            if (bis != null) {
-                bis.close();
-            }
-            if (mis != null) {
-                mis.close();
+            if (is != null) {
+                is.close();
             }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            Log.d(TAG, "close exception:" + e);
         } finally {
-            bis = null;
-            mis = null;
+            is = null;
+            parser = null;
         }
         if (connection != null) {
             connection.disconnect();
             connection = null;
         }
+        if (nioConnection != null) {
+            nioConnection.close();
+            nioConnection = null;
+        }
+        if (snapshotPoller != null) {
+            snapshotPoller.close();
+            snapshotPoller = null;
+        }
+        if (datagramChannel != null) {
+            try {
+                datagramChannel.close();
+            } catch (IOException e) {
+                Log.d(TAG, "exception:" + e);
+            }
+            datagramChannel = null;
+        }
+    }
+
+    /**
+     * 显示区域
+     */
+    private static class Viewport {
+
+        /**
+         * 显示宽度
+         */
+        private int width;
+        /**
+         * 显示高度
+         */
+        private int height;
+        /**
+         * 缩放类型
+         */
+        private ScaleType scaleType;
+
     }
 
 }
@@ -0,0 +1,183 @@
+package androidx.mjpeg;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 非阻塞传输<br/>
+ * 所有{@link NioConnection}共享一个Selector和一个IO线程，
+ * 数据直接读入各连接的{@link MJPEGParser}缓冲区，一个线程即可服务几十路数据流。
+ * IO线程不会因为单个连接或回调的异常退出：异常只关闭对应的连接。
+ */
+public class SelectorTransport implements Runnable {
+
+    private final String TAG = SelectorTransport.class.getSimpleName();
+    /**
+     * 超时检查间隔（毫秒）
+     */
+    private final static long TIMEOUT_CHECK_INTERVAL = 500;
+    /**
+     * 共享传输
+     */
+    private static volatile SelectorTransport transport;
+    /**
+     * 选择器
+     */
+    private final Selector selector;
+    /**
+     * 待执行任务（在IO线程中执行）
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    /**
+     * 上次超时检查的时间（{@link System#nanoTime()}）
+     */
+    private long lastTimeoutCheck;
+
+    private SelectorTransport() throws IOException {
+        selector = Selector.open();
+        Thread thread = new Thread(this, "MJPEG-Selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 共享传输
+     *
+     * @return
+     * @throws IOException
+     */
+    public static SelectorTransport getInstance() throws IOException {
+        if (transport == null) {
+            synchronized (SelectorTransport.class) {
+                if (transport == null) {
+                    transport = new SelectorTransport();
+                }
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * 打开连接
+     *
+     * @param connection 连接
+     */
+    public void open(NioConnection connection) {
+        post(() -> {
+            try {
+                connection.register(selector);
+            } catch (IOException e) {
+                close(connection, e);
+            } catch (RuntimeException e) {
+                //如UnresolvedAddressException
+                close(connection, new IOException(e));
+            }
+        });
+    }
+
+    /**
+     * 关闭连接
+     *
+     * @param connection 连接
+     */
+    public void close(NioConnection connection) {
+        post(() -> connection.close(null));
+    }
+
+    /**
+     * 提交任务到IO线程
+     *
+     * @param runnable 任务
+     */
+    public void post(Runnable runnable) {
+        tasks.add(runnable);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select(TIMEOUT_CHECK_INTERVAL);
+            } catch (IOException e) {
+                Log.e(TAG, "select exception:" + e);
+                continue;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "task exception:" + e);
+                }
+            }
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isConnectable()) {
+                        connection.onConnectable();
+                    } else if (key.isWritable()) {
+                        connection.onWritable();
+                    } else if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+                } catch (IOException e) {
+                    close(connection, e);
+                } catch (RuntimeException e) {
+                    close(connection, new IOException(e));
+                }
+            }
+            checkTimeout();
+        }
+    }
+
+    /**
+     * 检查所有连接的连接超时和读取超时
+     */
+    private void checkTimeout() {
+        long now = System.nanoTime();
+        if (now - lastTimeoutCheck < TIMEOUT_CHECK_INTERVAL * 1000000L) {
+            return;
+        }
+        lastTimeoutCheck = now;
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (!key.isValid() || connection == null) {
+                continue;
+            }
+            try {
+                connection.checkTimeout(now);
+            } catch (IOException e) {
+                close(connection, e);
+            } catch (RuntimeException e) {
+                close(connection, new IOException(e));
+            }
+        }
+    }
+
+    /**
+     * 关闭连接，回调中的异常不会影响IO线程
+     *
+     * @param connection 连接
+     * @param e          异常
+     */
+    private void close(NioConnection connection, IOException e) {
+        try {
+            connection.close(e);
+        } catch (RuntimeException ex) {
+            Log.e(TAG, "close exception:" + ex);
+        }
+    }
+
+}
@@ -0,0 +1,589 @@
+package androidx.mjpeg;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * JPEG快照轮询连接<br/>
+ * 在一个HTTP/1.1持久连接（keep-alive）上重复请求单张JPEG（如snapshot.jpg），
+ * 最多同时发出{@link #pipeline(int)}个请求（流水线），上一张图片返回前下一个请求已经发出，隐藏往返延迟。
+ * 响应按请求顺序返回，数据直接读入复用的缓冲区，帧视图在下一次读取前有效。
+ * 发送和读取可以在不同线程中进行（一个发送线程，一个读取线程），读取线程阻塞时仍可按时发送请求。
+ * 服务器关闭连接时自动重新连接并补发未响应的请求，不支持持久连接（Connection: close、HTTP/1.0）的服务器退化为每次一个请求。
+ */
+public class SnapshotPoller implements Closeable {
+
+    /**
+     * 响应头最大长度
+     */
+    private final static int HEADER_MAX_LENGTH = 16 * 1024;
+
+    /**
+     * 地址
+     */
+    private final URL url;
+    /**
+     * 请求数据
+     */
+    private final byte[] request;
+    /**
+     * 响应头
+     */
+    private final PartHeader header = new PartHeader();
+    /**
+     * 流水线深度（同时未响应的请求数）
+     */
+    private int depth = 2;
+    /**
+     * 连接超时（毫秒）
+     */
+    private int connectTimeout;
+    /**
+     * 读取超时（毫秒）
+     */
+    private int readTimeout;
+    /**
+     * 最大帧大小
+     */
+    private int maxFrameSize = MJPEGParser.DEFAULT_MAX_FRAME_SIZE;
+    /**
+     * 连接
+     */
+    private Socket socket;
+    private InputStream is;
+    private OutputStream os;
+    /**
+     * 接收缓冲区，不够时扩容
+     */
+    private byte[] buffer;
+    /**
+     * 未处理数据的开始位置
+     */
+    private int position;
+    /**
+     * 数据结束位置
+     */
+    private int limit;
+    /**
+     * 当前帧在缓冲区中的位置
+     */
+    private int offset;
+    /**
+     * 当前帧长度
+     */
+    private int length;
+    /**
+     * 已发送未响应的请求数（同步访问）
+     */
+    private int outstanding;
+    /**
+     * 当前连接上已完成的响应数
+     */
+    private int responses;
+    /**
+     * 服务器是否支持持久连接
+     */
+    private boolean keepAlive = true;
+    /**
+     * 服务器将在当前响应后关闭连接，由读取线程重新连接，期间不发送（同步访问）
+     */
+    private boolean reopen;
+    /**
+     * 重新连接次数
+     */
+    private long reconnects;
+    /**
+     * 已关闭
+     */
+    private volatile boolean closed;
+
+    /**
+     * 构造连接
+     *
+     * @param url        图片地址，仅支持http
+     * @param bufferSize 初始缓冲区大小
+     */
+    public SnapshotPoller(URL url, int bufferSize) {
+        this.url = url;
+        buffer = new byte[Math.max(bufferSize, HEADER_MAX_LENGTH)];
+        String file = url.getFile().length() == 0 ? "/" : url.getFile();
+        String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+        String text = "GET " + file + " HTTP/1.1\r\n" +
+                "Host: " + host + "\r\n" +
+                "Accept: image/jpeg\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n";
+        request = text.getBytes(Charset.forName("ISO-8859-1"));
+    }
+
+    /**
+     * 设置流水线深度
+     *
+     * @param depth 同时未响应的请求数，1表示不使用流水线
+     * @return
+     */
+    public SnapshotPoller pipeline(int depth) {
+        this.depth = Math.max(1, depth);
+        return this;
+    }
+
+    /**
+     * 设置超时，0表示不超时
+     *
+     * @param connectTimeout 连接超时（毫秒）
+     * @param readTimeout    读取超时（毫秒）
+     * @return
+     */
+    public SnapshotPoller timeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * 设置最大帧大小，响应内容超过该值时不再读取（抛出异常，由调用者重新连接），避免异常的Content-Length或分块大小导致缓冲区无限扩容
+     *
+     * @param maxFrameSize 最大帧大小（字节）
+     * @return
+     * @see MJPEGParser#maxFrameSize(int)
+     */
+    public SnapshotPoller maxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = Math.max(1024, maxFrameSize);
+        return this;
+    }
+
+    /**
+     * 建立连接
+     *
+     * @throws IOException
+     */
+    public void connect() throws IOException {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        Socket socket = new Socket();
+        synchronized (this) {
+            this.socket = socket;
+        }
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(readTimeout);
+        socket.connect(new InetSocketAddress(url.getHost(), port), connectTimeout);
+        if (closed) {
+            socket.close();
+            throw new IOException("poller closed");
+        }
+        is = socket.getInputStream();
+        synchronized (this) {
+            os = socket.getOutputStream();
+        }
+        position = 0;
+        limit = 0;
+        responses = 0;
+    }
+
+    /**
+     * 是否可以继续发送请求（未达到流水线深度）
+     *
+     * @return
+     */
+    public synchronized boolean canSend() {
+        return !reopen && !closed && outstanding < (keepAlive ? depth : 1);
+    }
+
+    /**
+     * 发送一个请求
+     *
+     * @return 达到流水线深度或正在重新连接时不发送，返回false
+     * @throws IOException 写入失败，请求由读取线程重新连接后补发
+     */
+    public synchronized boolean send() throws IOException {
+        if (!canSend()) {
+            return false;
+        }
+        try {
+            os.write(request);
+            os.flush();
+        } catch (IOException e) {
+            //服务器已关闭连接（持久连接空闲超时），计入未响应的请求，唤醒读取线程重新连接
+            outstanding++;
+            reopen = true;
+            notifyAll();
+            throw e;
+        }
+        outstanding++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 读取一个响应，成功后可通过{@link #array()}、{@link #offset()}、{@link #length()}获取JPEG数据
+     *
+     * @throws IOException          响应码不是200、内容不是JPEG或超过最大帧大小
+     * @throws InterruptedException 等待请求发送时被中断
+     */
+    public void read() throws IOException, InterruptedException {
+        if (isReopen()) {
+            reopen();
+        }
+        synchronized (this) {
+            //等待发送线程发出请求
+            while (outstanding == 0) {
+                if (closed) {
+                    throw new IOException("poller closed");
+                }
+                wait();
+            }
+        }
+        if (isReopen()) {
+            //等待期间发送失败
+            reopen();
+        }
+        compact();
+        int headerEnd;
+        try {
+            headerEnd = readHeader();
+        } catch (EOFException | SocketException e) {
+            //持久连接空闲超时被服务器关闭（发送请求后可能收到RST），重新连接并补发请求
+            if (limit > position || responses == 0) {
+                throw e;
+            }
+            reopen();
+            headerEnd = readHeader();
+        }
+        if (limit - position < 12 || buffer[position + 4] != '/' || buffer[position + 8] != ' ') {
+            throw new IOException("invalid status line");
+        }
+        boolean http10 = buffer[position + 7] == '0';
+        int code = (buffer[position + 9] - '0') * 100 + (buffer[position + 10] - '0') * 10 + (buffer[position + 11] - '0');
+        header.parse(buffer, position, headerEnd);
+        position = headerEnd;
+        boolean close = header.isClose() || (http10 && !header.isKeepAlive());
+        if (header.isChunked()) {
+            readChunked();
+        } else if (header.getContentLength() >= 0) {
+            length = header.getContentLength();
+            if (length > maxFrameSize || (long) position + length > Integer.MAX_VALUE) {
+                throw new IOException("content length too large:" + length);
+            }
+            fill(position + length);
+            offset = position;
+            position += length;
+        } else {
+            //没有长度时读到连接关闭
+            readToEnd();
+            offset = position;
+            length = limit - position;
+            position = limit;
+            close = true;
+        }
+        responses++;
+        synchronized (this) {
+            outstanding--;
+            if (close) {
+                keepAlive = false;
+                reopen = true;
+            }
+        }
+        if (code != 200) {
+            throw new IOException("response code:" + code);
+        }
+        if (length < 2 || buffer[offset] != (byte) 0xFF || buffer[offset + 1] != (byte) 0xD8) {
+            throw new IOException("response is not a jpeg");
+        }
+    }
+
+    /**
+     * 读取响应头
+     *
+     * @return 响应头结束位置（空行之后）
+     * @throws IOException
+     */
+    private int readHeader() throws IOException {
+        int from = position + 3;
+        while (true) {
+            for (int i = from; i < limit; i++) {
+                if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            if (limit - position >= HEADER_MAX_LENGTH) {
+                throw new IOException("response header too large");
+            }
+            from = Math.max(from, limit);
+            fill();
+        }
+    }
+
+    /**
+     * 读取分块编码的内容，在缓冲区内原地拼接
+     *
+     * @throws IOException
+     */
+    private void readChunked() throws IOException {
+        offset = position;
+        int write = position;
+        while (true) {
+            int lineEnd = readLine(position);
+            int size = parseHex(position, lineEnd);
+            position = lineEnd;
+            if (size < 0) {
+                throw new IOException("invalid chunk size");
+            }
+            if (size == 0) {
+                //跳过trailer直到空行
+                while (true) {
+                    int end = readLine(position);
+                    boolean empty = end - position <= 2;
+                    position = end;
+                    if (empty) {
+                        break;
+                    }
+                }
+                break;
+            }
+            if ((long) write - offset + size > maxFrameSize) {
+                throw new IOException("chunked content too large");
+            }
+            fill(position + size + 2);
+            System.arraycopy(buffer, position, buffer, write, size);
+            write += size;
+            position += size + 2;
+        }
+        length = write - offset;
+    }
+
+    /**
+     * 读取一行
+     *
+     * @param from 行开始
+     * @return 行结束位置（换行之后）
+     * @throws IOException
+     */
+    private int readLine(int from) throws IOException {
+        int i = from;
+        while (true) {
+            for (; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    return i + 1;
+                }
+            }
+            if (limit - from >= HEADER_MAX_LENGTH) {
+                throw new IOException("line too long");
+            }
+            fill();
+        }
+    }
+
+    /**
+     * 解析十六进制数（分块大小，忽略扩展）
+     *
+     * @return 数值，格式错误返回-1
+     */
+    private int parseHex(int start, int end) {
+        int value = 0;
+        int i = start;
+        for (; i < end; i++) {
+            int c = buffer[i];
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                break;
+            }
+            if (value > (Integer.MAX_VALUE >> 4)) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return i == start ? -1 : value;
+    }
+
+    /**
+     * 读取到连接关闭
+     *
+     * @throws IOException
+     */
+    private void readToEnd() throws IOException {
+        while (true) {
+            if (limit - position > maxFrameSize) {
+                throw new IOException("content too large");
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int n = is.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                return;
+            }
+            limit += n;
+        }
+    }
+
+    /**
+     * 读取一次数据，缓冲区满时扩容
+     *
+     * @throws IOException
+     */
+    private void fill() throws IOException {
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int n = is.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            throw new EOFException("connection closed");
+        }
+        limit += n;
+    }
+
+    /**
+     * 读取数据直到指定位置
+     *
+     * @param end 结束位置
+     * @throws IOException
+     */
+    private void fill(int end) throws IOException {
+        if (end > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+        }
+        while (limit < end) {
+            fill();
+        }
+    }
+
+    /**
+     * 响应开始前整理缓冲区：没有剩余数据时从头开始，剩余空间不足时把剩余数据（下一个流水线响应的开头）移到开头。
+     * 读取一个响应期间不移动数据，位置保持有效
+     */
+    private void compact() {
+        if (position == limit) {
+            position = 0;
+            limit = 0;
+        } else if (position > buffer.length / 2 || buffer.length - limit < HEADER_MAX_LENGTH) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+    }
+
+    /**
+     * 重新连接并补发未响应的请求
+     *
+     * @throws IOException
+     */
+    private void reopen() throws IOException {
+        synchronized (this) {
+            reopen = true;
+        }
+        closeSocket();
+        connect();
+        synchronized (this) {
+            reconnects++;
+            reopen = false;
+            int pending = Math.min(outstanding, keepAlive ? depth : 1);
+            outstanding = 0;
+            for (int i = 0; i < pending; i++) {
+                send();
+            }
+        }
+    }
+
+    private synchronized boolean isReopen() {
+        return reopen;
+    }
+
+    /**
+     * 帧数据缓冲区
+     *
+     * @return
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * 帧在缓冲区中的位置
+     *
+     * @return
+     */
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * 帧长度
+     *
+     * @return
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 响应头中的时间戳（X-Timestamp）
+     *
+     * @return 微秒，-1表示未提供
+     */
+    public long timestamp() {
+        return header.getTimestamp();
+    }
+
+    /**
+     * 已发送未响应的请求数
+     *
+     * @return
+     */
+    public synchronized int getOutstanding() {
+        return outstanding;
+    }
+
+    /**
+     * 服务器是否支持持久连接
+     *
+     * @return
+     */
+    public synchronized boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * 重新连接次数（服务器关闭持久连接）
+     *
+     * @return
+     */
+    public synchronized long getReconnects() {
+        return reconnects;
+    }
+
+    private synchronized void closeSocket() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 关闭连接，可以在其他线程调用以中断阻塞的读取
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeSocket();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+}
@@ -0,0 +1,504 @@
+package androidx.mjpeg;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 数据流性能统计<br/>
+ * 每个{@link Request}一个，记录接收字节数、接收/解码/显示/丢弃帧数、重连次数，以及分发、解码、显示耗时的直方图。
+ * 记录只使用原子计数和固定的对数分桶，不分配内存，可以在接收、解码、渲染线程中直接调用；
+ * 需要查看时通过{@link #snapshot()}获取单个数据流的快照，或{@link #snapshotAll()}汇总所有运行中的数据流，
+ * 据此判断卡顿来自网络（字节速率低）、解码（解码耗时高、丢弃多）还是显示（显示耗时高、显示帧数少）。
+ */
+public class StreamMetrics {
+
+    /**
+     * 字节速率统计窗口（纳秒）
+     */
+    private final static long RATE_WINDOW = 1000000000L;
+    /**
+     * 运行中的数据流
+     */
+    private final static CopyOnWriteArraySet<StreamMetrics> active = new CopyOnWriteArraySet<>();
+
+    /**
+     * 数据流路径
+     */
+    private volatile String path;
+    /**
+     * 接收字节数
+     */
+    private final AtomicLong bytesReceived = new AtomicLong();
+    /**
+     * 接收帧数
+     */
+    private final AtomicLong framesReceived = new AtomicLong();
+    /**
+     * 解码帧数
+     */
+    private final AtomicLong framesDecoded = new AtomicLong();
+    /**
+     * 显示帧数
+     */
+    private final AtomicLong framesRendered = new AtomicLong();
+    /**
+     * 丢弃帧数（解码慢于接收时被新帧替换）
+     */
+    private final AtomicLong framesDropped = new AtomicLong();
+    /**
+     * 损坏或不完整的帧数
+     */
+    private final AtomicLong framesCorrupt = new AtomicLong();
+    /**
+     * 重连次数
+     */
+    private final AtomicLong reconnects = new AtomicLong();
+    /**
+     * 分发耗时：分帧完成后复制到缓冲池帧、回调监听并写入最新帧槽位（不含网络读取和分帧）
+     */
+    private final Histogram dispatchTime = new Histogram();
+    /**
+     * 解码耗时
+     */
+    private final Histogram decodeTime = new Histogram();
+    /**
+     * 显示耗时
+     */
+    private final Histogram renderTime = new Histogram();
+    /**
+     * 速率窗口开始时间
+     */
+    private volatile long windowStart = System.nanoTime();
+    /**
+     * 速率窗口内的字节数
+     */
+    private volatile long windowBytes;
+    /**
+     * 最近一帧的接收时间
+     */
+    private volatile long lastReceived = windowStart;
+    /**
+     * 最近一个完整窗口的字节速率
+     */
+    private volatile long bytesPerSecond;
+
+    public StreamMetrics() {
+    }
+
+    /**
+     * 创建统计
+     *
+     * @param path 数据流路径
+     */
+    public StreamMetrics(String path) {
+        this.path = path;
+    }
+
+    /**
+     * 设置数据流路径
+     *
+     * @param path
+     */
+    public void path(String path) {
+        this.path = path;
+    }
+
+    /**
+     * 加入汇总（数据流开始）
+     */
+    public void register() {
+        active.add(this);
+    }
+
+    /**
+     * 移出汇总（数据流结束）
+     */
+    public void unregister() {
+        active.remove(this);
+    }
+
+    /**
+     * 记录接收到的帧（接收线程）
+     *
+     * @param bytes 帧字节数
+     * @param nanos 分发耗时（纳秒）
+     */
+    public void recordReceived(int bytes, long nanos) {
+        bytesReceived.addAndGet(bytes);
+        framesReceived.incrementAndGet();
+        dispatchTime.record(nanos);
+        //同一数据流只有一个接收线程
+        long now = System.nanoTime();
+        lastReceived = now;
+        windowBytes += bytes;
+        long elapsed = now - windowStart;
+        if (elapsed >= RATE_WINDOW) {
+            bytesPerSecond = windowBytes * 1000000000L / elapsed;
+            windowBytes = 0;
+            windowStart = now;
+        }
+    }
+
+    /**
+     * 当前字节速率，在查看时计算，数据停止到达时逐渐降为0
+     *
+     * @param now 当前时间（{@link System#nanoTime()}）
+     * @return 字节/秒
+     */
+    private long bytesPerSecond(long now) {
+        if (now - lastReceived >= RATE_WINDOW) {
+            //最近一秒没有数据
+            return 0;
+        }
+        long elapsed = now - windowStart;
+        if (elapsed >= RATE_WINDOW) {
+            //当前窗口超过一秒还没有结束（帧间隔变长），按窗口内的平均速率计算
+            return windowBytes * 1000000000L / elapsed;
+        }
+        return bytesPerSecond;
+    }
+
+    /**
+     * 记录解码完成的帧
+     *
+     * @param nanos 解码耗时（纳秒）
+     */
+    public void recordDecoded(long nanos) {
+        framesDecoded.incrementAndGet();
+        decodeTime.record(nanos);
+    }
+
+    /**
+     * 记录显示的帧
+     *
+     * @param nanos 显示耗时（纳秒）
+     */
+    public void recordRendered(long nanos) {
+        framesRendered.incrementAndGet();
+        renderTime.record(nanos);
+    }
+
+    /**
+     * 记录丢弃的帧
+     */
+    public void recordDropped() {
+        framesDropped.incrementAndGet();
+    }
+
+    /**
+     * 记录损坏或不完整的帧
+     */
+    public void recordCorrupt() {
+        framesCorrupt.incrementAndGet();
+    }
+
+    /**
+     * 记录重连
+     */
+    public void recordReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    /**
+     * 接收帧数
+     *
+     * @return
+     */
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    /**
+     * 解码帧数
+     *
+     * @return
+     */
+    public long getFramesDecoded() {
+        return framesDecoded.get();
+    }
+
+    /**
+     * 丢弃帧数
+     *
+     * @return
+     */
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    /**
+     * 损坏或不完整的帧数
+     *
+     * @return
+     */
+    public long getFramesCorrupt() {
+        return framesCorrupt.get();
+    }
+
+    /**
+     * 清零
+     */
+    public void reset() {
+        bytesReceived.set(0);
+        framesReceived.set(0);
+        framesDecoded.set(0);
+        framesRendered.set(0);
+        framesDropped.set(0);
+        framesCorrupt.set(0);
+        reconnects.set(0);
+        dispatchTime.reset();
+        decodeTime.reset();
+        renderTime.reset();
+        bytesPerSecond = 0;
+    }
+
+    /**
+     * 当前数据流的快照
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(path);
+        snapshot.add(this);
+        return snapshot;
+    }
+
+    /**
+     * 汇总所有运行中数据流的快照
+     *
+     * @return
+     */
+    public static Snapshot snapshotAll() {
+        Snapshot snapshot = new Snapshot(null);
+        for (StreamMetrics metrics : active) {
+            snapshot.add(metrics);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 所有运行中数据流各自的快照
+     *
+     * @return
+     */
+    public static Snapshot[] snapshots() {
+        Object[] current = active.toArray();
+        Snapshot[] snapshots = new Snapshot[current.length];
+        for (int i = 0; i < current.length; i++) {
+            snapshots[i] = ((StreamMetrics) current[i]).snapshot();
+        }
+        return snapshots;
+    }
+
+    /**
+     * 耗时直方图<br/>
+     * 按微秒的2的幂分桶（第i桶为[2^(i-1), 2^i)微秒），记录为一次原子加，不分配内存。
+     */
+    public static class Histogram {
+
+        /**
+         * 分桶数
+         */
+        private final static int BUCKETS = 32;
+
+        /**
+         * 分桶计数
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        /**
+         * 总耗时（纳秒）
+         */
+        private final AtomicLong total = new AtomicLong();
+        /**
+         * 最大耗时（纳秒）
+         */
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * 记录耗时
+         *
+         * @param nanos 纳秒
+         */
+        public void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            total.addAndGet(nanos);
+            long current;
+            while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+                //其他线程同时更新最大值
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            total.set(0);
+            max.set(0);
+        }
+
+    }
+
+    /**
+     * 统计快照，多个数据流的快照为各项相加，直方图合并后计算分位数
+     */
+    public static class Snapshot {
+
+        /**
+         * 数据流路径，汇总快照为null
+         */
+        public final String path;
+        /**
+         * 数据流数量
+         */
+        public int streams;
+        /**
+         * 字节速率（字节/秒，最近一秒，数据停止到达时为0）
+         */
+        public long bytesPerSecond;
+        /**
+         * 接收字节数
+         */
+        public long bytesReceived;
+        /**
+         * 接收帧数
+         */
+        public long framesReceived;
+        /**
+         * 解码帧数
+         */
+        public long framesDecoded;
+        /**
+         * 显示帧数
+         */
+        public long framesRendered;
+        /**
+         * 丢弃帧数
+         */
+        public long framesDropped;
+        /**
+         * 损坏帧数
+         */
+        public long framesCorrupt;
+        /**
+         * 队列深度：已接收但还没有解码、丢弃或判定损坏的帧
+         */
+        public long queueDepth;
+        /**
+         * 重连次数
+         */
+        public long reconnects;
+        /**
+         * 分发耗时分桶
+         */
+        public final long[] dispatchTime = new long[Histogram.BUCKETS];
+        /**
+         * 解码耗时分桶
+         */
+        public final long[] decodeTime = new long[Histogram.BUCKETS];
+        /**
+         * 显示耗时分桶
+         */
+        public final long[] renderTime = new long[Histogram.BUCKETS];
+        /**
+         * 分发、解码、显示的总耗时（纳秒）
+         */
+        public long dispatchTotal, decodeTotal, renderTotal;
+        /**
+         * 分发、解码、显示的最大耗时（纳秒）
+         */
+        public long dispatchMax, decodeMax, renderMax;
+
+        Snapshot(String path) {
+            this.path = path;
+        }
+
+        private void add(StreamMetrics metrics) {
+            streams++;
+            bytesPerSecond += metrics.bytesPerSecond(System.nanoTime());
+            bytesReceived += metrics.bytesReceived.get();
+            long received = metrics.framesReceived.get();
+            long decoded = metrics.framesDecoded.get();
+            long dropped = metrics.framesDropped.get();
+            long corrupt = metrics.framesCorrupt.get();
+            framesReceived += received;
+            framesDecoded += decoded;
+            framesRendered += metrics.framesRendered.get();
+            framesDropped += dropped;
+            framesCorrupt += corrupt;
+            queueDepth += Math.max(0, received - decoded - dropped - corrupt);
+            reconnects += metrics.reconnects.get();
+            dispatchTotal += add(dispatchTime, metrics.dispatchTime);
+            decodeTotal += add(decodeTime, metrics.decodeTime);
+            renderTotal += add(renderTime, metrics.renderTime);
+            dispatchMax = Math.max(dispatchMax, metrics.dispatchTime.max.get());
+            decodeMax = Math.max(decodeMax, metrics.decodeTime.max.get());
+            renderMax = Math.max(renderMax, metrics.renderTime.max.get());
+        }
+
+        private static long add(long[] target, Histogram histogram) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] += histogram.buckets.get(i);
+            }
+            return histogram.total.get();
+        }
+
+        /**
+         * 分位数（微秒，所在分桶的上限）
+         *
+         * @param buckets  分桶
+         * @param quantile 分位，例如0.5、0.99
+         * @return 没有记录时返回0
+         */
+        public static long percentile(long[] buckets, double quantile) {
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * quantile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (buckets.length - 1);
+        }
+
+        /**
+         * 平均耗时（微秒）
+         *
+         * @param buckets 分桶
+         * @param total   总耗时（纳秒）
+         * @return
+         */
+        public static long average(long[] buckets, long total) {
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            return count == 0 ? 0 : total / count / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s streams:%d, %dKB/s, frames received:%d decoded:%d rendered:%d dropped:%d corrupt:%d, queue:%d, reconnects:%d, "
+                            + "dispatch avg:%dus p99:%dus, decode avg:%dus p99:%dus, render avg:%dus p99:%dus",
+                    path == null ? "all" : path, streams, bytesPerSecond / 1024,
+                    framesReceived, framesDecoded, framesRendered, framesDropped, framesCorrupt, queueDepth, reconnects,
+                    average(dispatchTime, dispatchTotal), percentile(dispatchTime, 0.99),
+                    average(decodeTime, decodeTotal), percentile(decodeTime, 0.99),
+                    average(renderTime, renderTotal), percentile(renderTime, 0.99));
+        }
+
+    }
+
+}
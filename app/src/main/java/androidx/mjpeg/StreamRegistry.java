@@ -0,0 +1,182 @@
+package androidx.mjpeg;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 数据流注册表<br/>
+ * 相同路径的播放器共享同一个{@link Request}（一个上游连接），
+ * 每一帧数据和解码后的位图广播给所有监听，最后一个使用者释放后断开连接。
+ * 所有使用者都暂停时才暂停上游；多个使用者的参数合并（尺寸和帧率取最大值），不会被最后加入的使用者覆盖。
+ */
+public class StreamRegistry {
+
+    /**
+     * 共享数据流
+     */
+    private final static Map<String, Entry> streams = new HashMap<>();
+
+    /**
+     * 共享数据流引用
+     */
+    private static class Entry {
+
+        /**
+         * 请求
+         */
+        private final Request request;
+        /**
+         * 引用数量
+         */
+        private int references;
+        /**
+         * 暂停的使用者数量
+         */
+        private int paused;
+        /**
+         * 合并后的宽度
+         */
+        private int width;
+        /**
+         * 合并后的高度
+         */
+        private int height;
+        /**
+         * 合并后的帧率
+         */
+        private int frameRate;
+
+        private Entry(Request request) {
+            this.request = request;
+        }
+
+    }
+
+    /**
+     * 获取共享请求，引用数量加1
+     *
+     * @param path 路径
+     * @return
+     */
+    public static synchronized Request acquire(String path) {
+        Entry entry = streams.get(path);
+        if (entry == null) {
+            entry = new Entry(new Request(path));
+            streams.put(path, entry);
+        }
+        entry.references++;
+        return entry.request;
+    }
+
+    /**
+     * 释放共享请求，引用数量归零后取消请求
+     *
+     * @param request 请求
+     */
+    public static synchronized void release(Request request) {
+        release(request, false);
+    }
+
+    /**
+     * 释放共享请求，引用数量归零后取消请求，剩余使用者都已暂停时暂停上游
+     *
+     * @param request 请求
+     * @param paused  释放的使用者是否处于暂停状态
+     */
+    public static synchronized void release(Request request, boolean paused) {
+        Entry entry = find(request);
+        if (entry == null) {
+            request.cancel();
+            return;
+        }
+        entry.references--;
+        if (paused && entry.paused > 0) {
+            entry.paused--;
+        }
+        if (entry.references <= 0) {
+            streams.remove(request.getPath());
+            request.cancel();
+        } else if (entry.paused >= entry.references) {
+            request.pause();
+        }
+    }
+
+    /**
+     * 一个使用者暂停，所有使用者都暂停时暂停上游
+     *
+     * @param request 请求
+     */
+    public static synchronized void pause(Request request) {
+        Entry entry = find(request);
+        if (entry == null) {
+            request.pause();
+            return;
+        }
+        entry.paused = Math.min(entry.references, entry.paused + 1);
+        if (entry.paused >= entry.references) {
+            request.pause();
+        }
+    }
+
+    /**
+     * 一个使用者恢复，恢复上游
+     *
+     * @param request 请求
+     */
+    public static synchronized void resume(Request request) {
+        Entry entry = find(request);
+        if (entry != null && entry.paused > 0) {
+            entry.paused--;
+        }
+        request.resume();
+    }
+
+    /**
+     * 设置共享请求的参数：唯一使用者直接设置，多个使用者时尺寸和帧率取最大值，重连时间保持不变
+     *
+     * @param request       请求
+     * @param width         宽度
+     * @param height        高度
+     * @param frameRate     帧率
+     * @param reconnectTime 重连时间（毫秒）
+     */
+    public static synchronized void configure(Request request, int width, int height, int frameRate, long reconnectTime) {
+        Entry entry = find(request);
+        if (entry == null || entry.references <= 1) {
+            request.width(width).height(height).frameRate(frameRate).reconnectTime(reconnectTime);
+            if (entry != null) {
+                entry.width = width;
+                entry.height = height;
+                entry.frameRate = frameRate;
+            }
+            return;
+        }
+        entry.width = Math.max(entry.width, width);
+        entry.height = Math.max(entry.height, height);
+        entry.frameRate = Math.max(entry.frameRate, frameRate);
+        request.width(entry.width).height(entry.height).frameRate(entry.frameRate);
+    }
+
+    /**
+     * 查找请求对应的共享数据流
+     *
+     * @param request 请求
+     * @return 不是共享请求时返回null
+     */
+    private static Entry find(Request request) {
+        Entry entry = streams.get(request.getPath());
+        return entry == null || entry.request != request ? null : entry;
+    }
+
+    /**
+     * 使用者数量
+     *
+     * @param path 路径
+     * @return
+     */
+    public static synchronized int count(String path) {
+        Entry entry = streams.get(path);
+        return entry == null ? 0 : entry.references;
+    }
+
+}
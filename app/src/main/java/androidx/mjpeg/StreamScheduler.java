@@ -0,0 +1,267 @@
+package androidx.mjpeg;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 数据流调度器<br/>
+ * 所有{@link Request}共享：一个定时线程负责连接/重连计时，
+ * 按CPU核数创建的工作线程负责解码（每个任务只处理一帧，按提交顺序轮转，保证多路数据流公平），
+ * 阻塞读取使用可复用的IO线程。解码线程和定时线程的数量固定，不随数据流数量增加而增长；
+ * IO线程池不设上限，每个阻塞读取的数据流（{@link Request#nio(boolean)}为false）在连接期间占用一个IO线程，
+ * 大量数据流时应使用非阻塞模式，所有连接共享一个{@link SelectorTransport}线程。
+ * 同时进行的连接尝试数量有上限，大量数据流同时重连时排队连接，避免重连风暴。
+ */
+public class StreamScheduler {
+
+    /**
+     * 默认最大同时连接尝试数
+     */
+    private final static int DEFAULT_MAX_CONNECTING = 8;
+
+    /**
+     * 共享调度器
+     */
+    private static volatile StreamScheduler scheduler;
+    /**
+     * 定时线程
+     */
+    private final ScheduledThreadPoolExecutor timer;
+    /**
+     * 工作线程
+     */
+    private final ThreadPoolExecutor workers;
+    /**
+     * IO线程，不设上限，阻塞读取的数据流各占用一个
+     */
+    private final ThreadPoolExecutor io;
+    /**
+     * 连接尝试计数锁
+     */
+    private final Object connectLock = new Object();
+    /**
+     * 正在进行的连接尝试数
+     */
+    private int connecting;
+    /**
+     * 最大同时连接尝试数
+     */
+    private volatile int maxConnecting = DEFAULT_MAX_CONNECTING;
+
+    /**
+     * 构造调度器
+     *
+     * @param threads 工作线程数量
+     */
+    public StreamScheduler(int threads) {
+        timer = new ScheduledThreadPoolExecutor(1, factory("MJPEG-Timer"));
+        timer.setRemoveOnCancelPolicy(true);
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factory("MJPEG-Worker"));
+        io = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), factory("MJPEG-IO"));
+    }
+
+    /**
+     * 共享调度器，工作线程数量为CPU核数
+     *
+     * @return
+     */
+    public static StreamScheduler getInstance() {
+        if (scheduler == null) {
+            synchronized (StreamScheduler.class) {
+                if (scheduler == null) {
+                    scheduler = new StreamScheduler(Math.max(1, Runtime.getRuntime().availableProcessors()));
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    /**
+     * 线程工厂
+     *
+     * @param name 线程名称
+     * @return
+     */
+    private static ThreadFactory factory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 延时在IO线程中执行阻塞任务（连接、读取）
+     *
+     * @param runnable 任务
+     * @param delay    延时（毫秒）
+     * @return 任务
+     */
+    public Task schedule(Runnable runnable, long delay) {
+        Task task = new Task(runnable);
+        task.timer = timer.schedule(task::dispatch, delay, TimeUnit.MILLISECONDS);
+        return task;
+    }
+
+    /**
+     * 延时在工作线程中执行短任务
+     *
+     * @param runnable 任务
+     * @param delay    延时（毫秒）
+     * @return
+     */
+    public ScheduledFuture<?> delay(Runnable runnable, long delay) {
+        return timer.schedule(() -> workers.execute(runnable), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在工作线程中执行短任务（解码等），任务按提交顺序轮转执行
+     *
+     * @param runnable 任务
+     */
+    public void execute(Runnable runnable) {
+        workers.execute(runnable);
+    }
+
+    /**
+     * IO线程池，用于阻塞任务
+     *
+     * @return
+     */
+    public ExecutorService io() {
+        return io;
+    }
+
+    /**
+     * 设置最大同时连接尝试数，建立连接（到收到响应头）期间占用
+     *
+     * @param maxConnecting 数量，至少为1
+     * @return
+     */
+    public StreamScheduler maxConnecting(int maxConnecting) {
+        synchronized (connectLock) {
+            this.maxConnecting = Math.max(1, maxConnecting);
+            connectLock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * 获取连接许可，超过最大同时连接尝试数时等待，必须与{@link #releaseConnection()}成对调用
+     *
+     * @throws InterruptedException 等待时被取消
+     */
+    public void acquireConnection() throws InterruptedException {
+        synchronized (connectLock) {
+            while (connecting >= maxConnecting) {
+                connectLock.wait();
+            }
+            connecting++;
+        }
+    }
+
+    /**
+     * 释放连接许可
+     */
+    public void releaseConnection() {
+        synchronized (connectLock) {
+            connecting--;
+            connectLock.notify();
+        }
+    }
+
+    /**
+     * 正在进行的连接尝试数
+     *
+     * @return
+     */
+    public int getConnecting() {
+        synchronized (connectLock) {
+            return connecting;
+        }
+    }
+
+    /**
+     * 工作线程数量
+     *
+     * @return
+     */
+    public int getWorkerCount() {
+        return workers.getCorePoolSize();
+    }
+
+    /**
+     * 调度任务
+     */
+    public class Task {
+
+        /**
+         * 任务
+         */
+        private final Runnable runnable;
+        /**
+         * 定时
+         */
+        private volatile ScheduledFuture<?> timer;
+        /**
+         * 执行
+         */
+        private volatile Future<?> future;
+        /**
+         * 已取消
+         */
+        private volatile boolean cancelled;
+
+        private Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        /**
+         * 定时到达，提交到IO线程
+         */
+        private void dispatch() {
+            synchronized (this) {
+                if (!cancelled) {
+                    future = io.submit(runnable);
+                }
+            }
+        }
+
+        /**
+         * 取消任务
+         *
+         * @param interrupt 是否中断正在执行的任务
+         */
+        public void cancel(boolean interrupt) {
+            synchronized (this) {
+                cancelled = true;
+            }
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            if (future != null) {
+                future.cancel(interrupt);
+            }
+        }
+
+        /**
+         * 是否已取消
+         *
+         * @return
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+    }
+
+}
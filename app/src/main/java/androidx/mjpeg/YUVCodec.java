@@ -2,13 +2,17 @@ package androidx.mjpeg;
 
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
+import android.media.Image;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.view.View;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * YUV编码
@@ -81,6 +85,31 @@ public class YUVCodec {
         return colorFormat;
     }
 
+    /**
+     * 并行转换的最小行数
+     */
+    private final static int BAND_ROWS = 32;
+    /**
+     * 并行计算线程池
+     */
+    private static volatile ForkJoinPool pool;
+
+    /**
+     * 并行计算线程池（YUV转换和{@link JPEGDecoder}分段解码共享），线程数量为CPU核数
+     *
+     * @return
+     */
+    static ForkJoinPool pool() {
+        if (pool == null) {
+            synchronized (YUVCodec.class) {
+                if (pool == null) {
+                    pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+                }
+            }
+        }
+        return pool;
+    }
+
     /**
      * 获取NV12编码数据
      *
@@ -93,11 +122,28 @@ public class YUVCodec {
     public static byte[] getNV12(int colorFormat, int width, int height, Bitmap bitmap) {
         int[] argb = new int[width * height];
         bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+        byte[] data = new byte[getYUV420Size(width, height)];
         switch (colorFormat) {
             case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible:
-                return toYUV420P(argb, width, height);
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
+                toYUV420P(argb, width, height, data);
+                break;
+            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
+                toYUV420SP(argb, width, height, data);
+                break;
         }
-        return new byte[width * height * 3 / 2];
+        return data;
+    }
+
+    /**
+     * YUV420数据长度
+     *
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @return
+     */
+    public static int getYUV420Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
     }
 
     /**
@@ -109,37 +155,27 @@ public class YUVCodec {
      * @return
      */
     public static byte[] toYUV420SP(int[] argb, int width, int height) {
-        byte[] data = new byte[width * height * 3 / 2];
-        final int frameSize = width * height;
-        int yIndex = 0;
-        int uvIndex = frameSize;
-        int a, R, G, B, Y, U, V;
-        int index = 0;
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                a = (argb[index] & 0xff000000) >> 24;
-                R = (argb[index] & 0xff0000) >> 16;
-                G = (argb[index] & 0xff00) >> 8;
-                B = (argb[index] & 0xff) >> 0;
-                Y = ((66 * R + 129 * G + 25 * B + 128) >> 8) + 16;
-                V = ((-38 * R - 74 * G + 112 * B + 128) >> 8) + 128;
-                U = ((112 * R - 94 * G - 18 * B + 128) >> 8) + 128;
-                Y = Math.max(0, Math.min(Y, 255));
-                V = Math.max(0, Math.min(V, 255));
-                U = Math.max(0, Math.min(U, 255));
-                data[yIndex++] = (byte) Y;
-                if (j % 2 == 0 && index % 2 == 0) {
-                    data[uvIndex++] = (byte) V;
-                    data[uvIndex++] = (byte) U;
-                }
-                index++;
-            }
-        }
+        byte[] data = new byte[getYUV420Size(width, height)];
+        toYUV420SP(argb, width, height, data);
         return data;
     }
 
     /**
-     * 转YUV420P/1420/YU12
+     * 转YUV420SP/NV12，写入调用者提供的缓冲区
+     *
+     * @param argb   argb字节
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @param data   输出缓冲区，长度不小于{@link #getYUV420Size(int, int)}
+     */
+    public static void toYUV420SP(int[] argb, int width, int height, byte[] data) {
+        int frameSize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        convert(argb, width, height, data, 0, width, frameSize, frameSize + 1, chromaWidth * 2, 2);
+    }
+
+    /**
+     * 转YUV420P/I420/YU12
      *
      * @param argb   argb字节
      * @param width  图像宽度
@@ -147,37 +183,332 @@ public class YUVCodec {
      * @return
      */
     public static byte[] toYUV420P(int[] argb, int width, int height) {
-        byte[] data = new byte[width * height * 3 / 2];
-        final int frameSize = width * height;
-        int yIndex = 0;
-        int uIndex = frameSize;
-        int vIndex = frameSize + frameSize / 4;
-        int R, G, B, Y, U, V;
-        int index = 0;
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                R = (argb[index] & 0xff0000) >> 16;
-                G = (argb[index] & 0xff00) >> 8;
-                B = (argb[index] & 0xff) >> 0;
-                Y = ((66 * R + 129 * G + 25 * B + 128) >> 8) + 16;
-                V = ((-38 * R - 74 * G + 112 * B + 128) >> 8) + 128;
-                U = ((112 * R - 94 * G - 18 * B + 128) >> 8) + 128;
-                Y = Math.max(0, Math.min(Y, 255));
-                V = Math.max(0, Math.min(V, 255));
-                U = Math.max(0, Math.min(U, 255));
-                data[yIndex + i] = (byte) Y;
-                if (i % 2 == 0 && j % 2 == 0) {
-                    data[uIndex + i / 2] = (byte) V;
-                    data[vIndex + i / 2] = (byte) U;
+        byte[] data = new byte[getYUV420Size(width, height)];
+        toYUV420P(argb, width, height, data);
+        return data;
+    }
+
+    /**
+     * 转YUV420P/I420/YU12，写入调用者提供的缓冲区
+     *
+     * @param argb   argb字节
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @param data   输出缓冲区，长度不小于{@link #getYUV420Size(int, int)}
+     */
+    public static void toYUV420P(int[] argb, int width, int height, byte[] data) {
+        int frameSize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        int chromaSize = chromaWidth * ((height + 1) / 2);
+        convert(argb, width, height, data, 0, width, frameSize, frameSize + chromaSize, chromaWidth, 1);
+    }
+
+    /**
+     * 转YUV420，按偏移、行跨度和像素跨度写入，支持平面（I420/YV12）和半平面（NV12/NV21）格式，
+     * 色度取2x2像素的平均值，按行带并行转换
+     *
+     * @param argb          argb字节
+     * @param width         图像宽度
+     * @param height        图像高度
+     * @param data          输出缓冲区
+     * @param yOffset       Y平面偏移
+     * @param yRowStride    Y平面行跨度
+     * @param uOffset       U平面偏移
+     * @param vOffset       V平面偏移
+     * @param uvRowStride   UV平面行跨度
+     * @param uvPixelStride UV像素跨度，平面格式为1，半平面格式为2
+     */
+    public static void convert(int[] argb, int width, int height, byte[] data, int yOffset, int yRowStride, int uOffset, int vOffset, int uvRowStride, int uvPixelStride) {
+        Band band = new Band(argb, width, height, 0, height);
+        band.data = data;
+        band.yOffset = yOffset;
+        band.yRowStride = yRowStride;
+        band.uOffset = uOffset;
+        band.vOffset = vOffset;
+        band.uvRowStride = uvRowStride;
+        band.uvPixelStride = uvPixelStride;
+        invoke(band);
+    }
+
+    /**
+     * 转YUV420，直接写入编码器输入图像（{@link android.media.MediaCodec#getInputImage(int)}）的各平面
+     *
+     * @param argb   argb字节
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @param image  YUV_420_888格式图像
+     */
+    public static void convert(int[] argb, int width, int height, Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        Band band = new Band(argb, width, height, 0, height);
+        band.y = planes[0].getBuffer();
+        band.yRowStride = planes[0].getRowStride();
+        band.u = planes[1].getBuffer();
+        band.v = planes[2].getBuffer();
+        band.uvRowStride = planes[1].getRowStride();
+        band.uvPixelStride = planes[1].getPixelStride();
+        invoke(band);
+    }
+
+    /**
+     * 复制YUV420P/I420数据到编码器输入图像（{@link android.media.MediaCodec#getInputImage(int)}）的各平面
+     *
+     * @param data   I420数据
+     * @param width  图像宽度
+     * @param height 图像高度
+     * @param image  YUV_420_888格式图像
+     */
+    public static void copy(byte[] data, int width, int height, Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        for (int row = 0; row < height; row++) {
+            y.position(row * yRowStride);
+            y.put(data, row * width, width);
+        }
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int frameSize = width * height;
+        int chromaSize = chromaWidth * chromaHeight;
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        for (int row = 0; row < chromaHeight; row++) {
+            int source = row * chromaWidth;
+            int target = row * uvRowStride;
+            if (uvPixelStride == 1) {
+                u.position(target);
+                u.put(data, frameSize + source, chromaWidth);
+                v.position(target);
+                v.put(data, frameSize + chromaSize + source, chromaWidth);
+            } else {
+                for (int x = 0; x < chromaWidth; x++) {
+                    u.put(target + x * uvPixelStride, data[frameSize + source + x]);
+                    v.put(target + x * uvPixelStride, data[frameSize + chromaSize + source + x]);
                 }
-                index++;
             }
-            yIndex += width;
-            if (j % 2 == 1) {
-                uIndex += width / 2;
-                vIndex += width / 2;
+        }
+    }
+
+    /**
+     * 执行转换，小图像直接在当前线程转换
+     *
+     * @param band 行带
+     */
+    private static void invoke(Band band) {
+        if (band.height <= BAND_ROWS * 2 || Runtime.getRuntime().availableProcessors() <= 1) {
+            band.convert();
+        } else {
+            pool().invoke(band);
+        }
+    }
+
+    /**
+     * 行带转换任务，按偶数行拆分，保证每个2x2色度块只由一个任务写入
+     */
+    private static class Band extends RecursiveAction {
+
+        /**
+         * argb像素
+         */
+        private final int[] argb;
+        /**
+         * 图像宽度
+         */
+        private final int width;
+        /**
+         * 图像高度
+         */
+        private final int height;
+        /**
+         * 开始行（偶数）
+         */
+        private final int rowStart;
+        /**
+         * 结束行（不包含）
+         */
+        private final int rowEnd;
+        /**
+         * 输出数组，为空时写入平面缓冲区
+         */
+        private byte[] data;
+        /**
+         * Y平面缓冲区
+         */
+        private ByteBuffer y;
+        /**
+         * U平面缓冲区
+         */
+        private ByteBuffer u;
+        /**
+         * V平面缓冲区
+         */
+        private ByteBuffer v;
+        /**
+         * 偏移
+         */
+        private int yOffset, uOffset, vOffset;
+        /**
+         * 跨度
+         */
+        private int yRowStride, uvRowStride, uvPixelStride;
+
+        private Band(int[] argb, int width, int height, int rowStart, int rowEnd) {
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        /**
+         * 拆分子任务
+         *
+         * @param rowStart 开始行
+         * @param rowEnd   结束行
+         * @return
+         */
+        private Band split(int rowStart, int rowEnd) {
+            Band band = new Band(argb, width, height, rowStart, rowEnd);
+            band.data = data;
+            band.y = y;
+            band.u = u;
+            band.v = v;
+            band.yOffset = yOffset;
+            band.uOffset = uOffset;
+            band.vOffset = vOffset;
+            band.yRowStride = yRowStride;
+            band.uvRowStride = uvRowStride;
+            band.uvPixelStride = uvPixelStride;
+            return band;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowEnd - rowStart;
+            if (rows <= BAND_ROWS) {
+                convert();
+                return;
+            }
+            int middle = rowStart + ((rows / 2) & ~1);
+            invokeAll(split(rowStart, middle), split(middle, rowEnd));
+        }
+
+        /**
+         * 转换行带
+         */
+        private void convert() {
+            if (data != null) {
+                convertArray();
+            } else {
+                convertBuffer();
             }
         }
-        return data;
+
+        /**
+         * 转换到数组
+         */
+        private void convertArray() {
+            for (int row = rowStart; row < rowEnd; row += 2) {
+                int next = row + 1 < height ? row + 1 : row;
+                int top = row * width;
+                int bottom = next * width;
+                int yTop = yOffset + row * yRowStride;
+                int yBottom = yOffset + next * yRowStride;
+                int uv = (row >> 1) * uvRowStride;
+                for (int x = 0; x < width; x += 2) {
+                    int right = x + 1 < width ? 1 : 0;
+                    int p0 = argb[top + x];
+                    int p1 = argb[top + x + right];
+                    int p2 = argb[bottom + x];
+                    int p3 = argb[bottom + x + right];
+                    data[yTop + x] = luma(p0);
+                    data[yBottom + x] = luma(p2);
+                    if (right != 0) {
+                        data[yTop + x + 1] = luma(p1);
+                        data[yBottom + x + 1] = luma(p3);
+                    }
+                    int r = ((p0 >> 16) & 0xff) + ((p1 >> 16) & 0xff) + ((p2 >> 16) & 0xff) + ((p3 >> 16) & 0xff);
+                    int g = ((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff) + ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff);
+                    int b = (p0 & 0xff) + (p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff);
+                    int index = uv + (x >> 1) * uvPixelStride;
+                    data[uOffset + index] = chromaU(r, g, b);
+                    data[vOffset + index] = chromaV(r, g, b);
+                }
+            }
+        }
+
+        /**
+         * 转换到平面缓冲区（绝对位置写入，不修改缓冲区位置）
+         */
+        private void convertBuffer() {
+            for (int row = rowStart; row < rowEnd; row += 2) {
+                int next = row + 1 < height ? row + 1 : row;
+                int top = row * width;
+                int bottom = next * width;
+                int yTop = row * yRowStride;
+                int yBottom = next * yRowStride;
+                int uv = (row >> 1) * uvRowStride;
+                for (int x = 0; x < width; x += 2) {
+                    int right = x + 1 < width ? 1 : 0;
+                    int p0 = argb[top + x];
+                    int p1 = argb[top + x + right];
+                    int p2 = argb[bottom + x];
+                    int p3 = argb[bottom + x + right];
+                    y.put(yTop + x, luma(p0));
+                    y.put(yBottom + x, luma(p2));
+                    if (right != 0) {
+                        y.put(yTop + x + 1, luma(p1));
+                        y.put(yBottom + x + 1, luma(p3));
+                    }
+                    int r = ((p0 >> 16) & 0xff) + ((p1 >> 16) & 0xff) + ((p2 >> 16) & 0xff) + ((p3 >> 16) & 0xff);
+                    int g = ((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff) + ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff);
+                    int b = (p0 & 0xff) + (p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff);
+                    int index = uv + (x >> 1) * uvPixelStride;
+                    u.put(index, chromaU(r, g, b));
+                    v.put(index, chromaV(r, g, b));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 亮度（BT.601，结果在16~235之间，不需要截断）
+     *
+     * @param pixel argb像素
+     * @return
+     */
+    private static byte luma(int pixel) {
+        int r = (pixel >> 16) & 0xff;
+        int g = (pixel >> 8) & 0xff;
+        int b = pixel & 0xff;
+        return (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+    }
+
+    /**
+     * 色度U（Cb），参数为2x2像素的分量之和
+     *
+     * @param r 红色之和
+     * @param g 绿色之和
+     * @param b 蓝色之和
+     * @return
+     */
+    private static byte chromaU(int r, int g, int b) {
+        return (byte) (((-38 * r - 74 * g + 112 * b + 512) >> 10) + 128);
     }
+
+    /**
+     * 色度V（Cr），参数为2x2像素的分量之和
+     *
+     * @param r 红色之和
+     * @param g 绿色之和
+     * @param b 蓝色之和
+     * @return
+     */
+    private static byte chromaV(int r, int g, int b) {
+        return (byte) (((112 * r - 94 * g - 18 * b + 512) >> 10) + 128);
+    }
+
 }
@@ -0,0 +1,191 @@
+package androidx.mjpeg;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AVI录像文件结构测试：RIFF/hdrl/strl/movi/idx1的位置与长度，帧块与索引一致
+ */
+public class AVIRecorderTest {
+
+    /**
+     * 文件头长度（RIFF + hdrl列表 + movi列表头）
+     */
+    private final static int HEADER_LENGTH = 224;
+    /**
+     * movi标识位置
+     */
+    private final static int MOVI_OFFSET = 220;
+
+    @Test
+    public void layout() throws IOException {
+        List<byte[]> frames = frames();
+        File file = File.createTempFile("layout", ".avi");
+        try {
+            AVIRecorder recorder = new AVIRecorder(file.getPath());
+            long timestamp = 1000000;
+            for (byte[] frame : frames) {
+                assertTrue(recorder.write(frame, 0, frame.length, timestamp));
+                timestamp += 40000;
+            }
+            //不是JPEG的数据不写入
+            assertFalse(recorder.write(new byte[100], 0, 100, timestamp));
+            recorder.close();
+            assertLayout(file, frames, 40000);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void asyncWriter() throws IOException {
+        List<byte[]> frames = frames();
+        File file = File.createTempFile("writer", ".avi");
+        FrameBufferPool pool = new FrameBufferPool(8);
+        try {
+            AVIWriter writer = new AVIWriter(new AVIRecorder(file.getPath()), frames.size(), null);
+            long timestamp = 0;
+            for (byte[] data : frames) {
+                Frame frame = pool.obtain(data.length).put(data, 0, data.length).timestamp(timestamp);
+                assertTrue(writer.write(frame));
+                //回调返回后接收线程释放帧，录像持有自己的引用
+                frame.release();
+                timestamp += 40000;
+            }
+            //关闭时写完队列中的帧
+            writer.close();
+            assertTrue(writer.isClosed());
+            assertEquals(0, writer.getDroppedFrames());
+            assertEquals(frames.size(), writer.getRecorder().getFrames());
+            Frame late = pool.obtain(10);
+            assertFalse(writer.write(late));
+            late.release();
+            assertLayout(file, frames, 40000);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 测试帧，包含奇数长度（块需要填充）
+     *
+     * @return
+     * @throws IOException
+     */
+    private static List<byte[]> frames() throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        for (byte[] frame : MJPEGTestServer.generate(3, 64, 48)) {
+            frames.add(frame);
+        }
+        byte[] odd = frames.get(1);
+        if ((odd.length & 1) == 0) {
+            frames.set(1, Arrays.copyOf(odd, odd.length + 1));
+        }
+        return frames;
+    }
+
+    /**
+     * 检查文件结构
+     *
+     * @param file     AVI文件
+     * @param frames   写入的帧
+     * @param perFrame 每帧时长（微秒）
+     * @throws IOException
+     */
+    private static void assertLayout(File file, List<byte[]> frames, int perFrame) throws IOException {
+        ByteBuffer avi = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        int maxFrameSize = 0;
+        int moviLength = 4;
+        for (byte[] frame : frames) {
+            maxFrameSize = Math.max(maxFrameSize, frame.length);
+            moviLength += 8 + frame.length + (frame.length & 1);
+        }
+        int moviEnd = MOVI_OFFSET + moviLength;
+        int fileLength = moviEnd + 8 + frames.size() * 16;
+        assertEquals(fileLength, avi.limit());
+        //RIFF
+        assertFourcc(avi, 0, "RIFF");
+        assertEquals(fileLength - 8, avi.getInt(4));
+        assertFourcc(avi, 8, "AVI ");
+        //hdrl：avih(8+56) + strl列表(8+116)
+        assertFourcc(avi, 12, "LIST");
+        assertEquals(192, avi.getInt(16));
+        assertFourcc(avi, 20, "hdrl");
+        assertFourcc(avi, 24, "avih");
+        assertEquals(56, avi.getInt(28));
+        assertEquals(perFrame, avi.getInt(32));
+        assertEquals(0x10, avi.getInt(44));
+        assertEquals(frames.size(), avi.getInt(48));
+        assertEquals(1, avi.getInt(56));
+        assertEquals(maxFrameSize + 8, avi.getInt(60));
+        assertEquals(64, avi.getInt(64));
+        assertEquals(48, avi.getInt(68));
+        //strl：strh(8+56) + strf(8+40)
+        assertFourcc(avi, 88, "LIST");
+        assertEquals(116, avi.getInt(92));
+        assertFourcc(avi, 96, "strl");
+        assertFourcc(avi, 100, "strh");
+        assertEquals(56, avi.getInt(104));
+        assertFourcc(avi, 108, "vids");
+        assertFourcc(avi, 112, "MJPG");
+        assertEquals(perFrame, avi.getInt(128));
+        assertEquals(1000000, avi.getInt(132));
+        assertEquals(frames.size(), avi.getInt(140));
+        assertFourcc(avi, 164, "strf");
+        assertEquals(40, avi.getInt(168));
+        assertEquals(64, avi.getInt(176));
+        assertEquals(48, avi.getInt(180));
+        assertFourcc(avi, 188, "MJPG");
+        //movi列表头在hdrl之后：12 + 8 + 192
+        assertFourcc(avi, 212, "LIST");
+        assertEquals(moviLength, avi.getInt(216));
+        assertFourcc(avi, MOVI_OFFSET, "movi");
+        //帧块
+        int position = HEADER_LENGTH;
+        for (byte[] frame : frames) {
+            assertFourcc(avi, position, "00dc");
+            assertEquals(frame.length, avi.getInt(position + 4));
+            byte[] data = new byte[frame.length];
+            ((ByteBuffer) avi.duplicate().position(position + 8)).get(data);
+            assertArrayEquals(frame, data);
+            position += 8 + frame.length + (frame.length & 1);
+        }
+        assertEquals(moviEnd, position);
+        //idx1：偏移相对movi标识，指向帧块头
+        assertFourcc(avi, moviEnd, "idx1");
+        assertEquals(frames.size() * 16, avi.getInt(moviEnd + 4));
+        int chunk = HEADER_LENGTH;
+        for (int i = 0; i < frames.size(); i++) {
+            int entry = moviEnd + 8 + i * 16;
+            assertFourcc(avi, entry, "00dc");
+            assertEquals(0x10, avi.getInt(entry + 4));
+            assertEquals(chunk - MOVI_OFFSET, avi.getInt(entry + 8));
+            assertEquals(frames.get(i).length, avi.getInt(entry + 12));
+            chunk += 8 + frames.get(i).length + (frames.get(i).length & 1);
+        }
+    }
+
+    /**
+     * 检查四字符码
+     */
+    private static void assertFourcc(ByteBuffer buffer, int position, String expected) {
+        byte[] code = new byte[4];
+        ((ByteBuffer) buffer.duplicate().position(position)).get(code);
+        assertEquals("at " + position, expected, new String(code, Charset.forName("ISO-8859-1")));
+    }
+
+}
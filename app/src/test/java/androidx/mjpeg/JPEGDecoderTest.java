@@ -0,0 +1,344 @@
+package androidx.mjpeg;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JPEG解码测试<br/>
+ * 用ImageIO编码各种采样格式、尺寸和重置间隔的JPEG，亮度与ImageIO读取的原始YCbCr样本比较（误差不超过1），
+ * 色度与2x2平均比较，I420、NV12和直接缓冲区输出一致；另外检查省略DHT的帧（附录K标准表）、截断的帧，
+ * 以及按重置段并行解码与顺序解码的结果逐字节相同（包括缺少RST标记时回退到顺序解码）。
+ */
+public class JPEGDecoderTest {
+
+    /**
+     * 采样因子（亮度水平、垂直）：4:4:4、4:2:2、4:2:0、1x2
+     */
+    private final static int[][] SAMPLINGS = {{1, 1}, {2, 1}, {2, 2}, {1, 2}};
+    /**
+     * 图像尺寸（宽、高），包含不是MCU整数倍的奇数尺寸
+     */
+    private final static int[][] SIZES = {{1, 1}, {7, 5}, {17, 9}, {33, 31}, {64, 48}, {161, 121}};
+
+    @Test
+    public void subsamplings() throws IOException {
+        JPEGDecoder decoder = new JPEGDecoder();
+        for (int[] size : SIZES) {
+            for (int[] sampling : SAMPLINGS) {
+                String message = size[0] + "x" + size[1] + " " + sampling[0] + "x" + sampling[1];
+                byte[] jpeg = RTPJPEGParserTest.encode(image(size[0], size[1], false), sampling[0], sampling[1], 0);
+                assertDecoded(message, decoder, jpeg);
+            }
+            byte[] gray = RTPJPEGParserTest.encode(image(size[0], size[1], true), 1, 1, 0);
+            assertDecoded(size[0] + "x" + size[1] + " gray", decoder, gray);
+        }
+    }
+
+    @Test
+    public void restartInterval() throws IOException {
+        JPEGDecoder decoder = new JPEGDecoder();
+        for (int interval : new int[]{1, 3, 7}) {
+            for (int[] sampling : SAMPLINGS) {
+                for (int[] size : new int[][]{{64, 48}, {161, 121}}) {
+                    String message = size[0] + "x" + size[1] + " " + sampling[0] + "x" + sampling[1] + " DRI " + interval;
+                    byte[] jpeg = RTPJPEGParserTest.encode(image(size[0], size[1], false), sampling[0], sampling[1], interval);
+                    assertTrue(message, decoder.parse(jpeg, 0, jpeg.length));
+                    assertEquals(message, interval, decoder.getRestartInterval());
+                    assertDecoded(message, decoder, jpeg);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void standardHuffmanTables() throws IOException {
+        JPEGDecoder decoder = new JPEGDecoder();
+        for (int[] sampling : SAMPLINGS) {
+            byte[] jpeg = RTPJPEGParserTest.encode(image(64, 48, false), sampling[0], sampling[1], 0);
+            byte[] stripped = strip(jpeg, 0xC4);
+            assertTrue(stripped.length < jpeg.length);
+            //省略DHT段时使用附录K的标准表，ImageIO默认也使用标准表编码
+            byte[] expected = new byte[YUVCodec.getYUV420Size(64, 48)];
+            byte[] actual = new byte[expected.length];
+            assertTrue(decoder.decodeYUV420P(jpeg, 0, jpeg.length, expected));
+            assertTrue(decoder.decodeYUV420P(stripped, 0, stripped.length, actual));
+            assertArrayEquals(sampling[0] + "x" + sampling[1], expected, actual);
+        }
+    }
+
+    @Test
+    public void truncated() throws IOException {
+        JPEGDecoder decoder = new JPEGDecoder();
+        byte[] jpeg = RTPJPEGParserTest.encode(image(64, 48, false), 2, 2, 0);
+        byte[] out = new byte[YUVCodec.getYUV420Size(64, 48)];
+        int scan = scanStart(jpeg);
+        //熵编码数据中间截断：解析成功但解码失败，不能把补位当作数据
+        for (int length : new int[]{scan + 1, scan + (jpeg.length - scan) / 2, jpeg.length - 40}) {
+            assertTrue(decoder.parse(jpeg, 0, length));
+            assertFalse(String.valueOf(length), decoder.decodeYUV420P(jpeg, 0, length, out));
+        }
+        //标记段中间截断
+        assertFalse(decoder.decodeYUV420P(jpeg, 0, scan - 10, out));
+        assertFalse(decoder.decodeYUV420P(jpeg, 0, 3, out));
+        //只缺少EOI的帧可以解码
+        assertTrue(decoder.decodeYUV420P(jpeg, 0, jpeg.length - 2, out));
+        //失败后可以继续使用
+        assertDecoded("after truncated", decoder, jpeg);
+    }
+
+    @Test
+    public void parallel() throws IOException {
+        JPEGDecoder sequential = new JPEGDecoder();
+        //同一个解码器依次使用不同的并行数量，任务数量少于已缓存的任务时也要正确
+        JPEGDecoder parallel = new JPEGDecoder();
+        parallel.setParallel(true);
+        for (int[] sampling : SAMPLINGS) {
+            for (int interval : new int[]{1, 2, 5}) {
+                for (int[] size : new int[][]{{161, 121}, {320, 240}}) {
+                    String message = size[0] + "x" + size[1] + " " + sampling[0] + "x" + sampling[1] + " DRI " + interval;
+                    byte[] jpeg = RTPJPEGParserTest.encode(image(size[0], size[1], false), sampling[0], sampling[1], interval);
+                    byte[] expected = new byte[YUVCodec.getYUV420Size(size[0], size[1])];
+                    assertTrue(message, sequential.decodeYUV420SP(jpeg, 0, jpeg.length, expected));
+                    for (int parallelism : new int[]{4, 2, 7, 3}) {
+                        parallel.setParallelism(parallelism);
+                        byte[] actual = new byte[expected.length];
+                        assertTrue(message, parallel.decodeYUV420SP(jpeg, 0, jpeg.length, actual));
+                        assertArrayEquals(message + " parallelism " + parallelism, expected, actual);
+                    }
+                    //直接缓冲区输出，各任务使用独立的缓冲区副本
+                    int frameSize = size[0] * size[1];
+                    ByteBuffer y = ByteBuffer.allocateDirect(frameSize);
+                    ByteBuffer uv = ByteBuffer.allocateDirect(expected.length - frameSize);
+                    ByteBuffer v = uv.duplicate();
+                    v.position(1);
+                    assertTrue(message, parallel.parse(jpeg, 0, jpeg.length));
+                    assertTrue(message, parallel.decode(y, size[0], uv, v.slice(), (size[0] + 1) / 2 * 2, 2));
+                    byte[] actual = new byte[expected.length];
+                    y.get(actual, 0, frameSize);
+                    uv.get(actual, frameSize, uv.remaining());
+                    assertArrayEquals(message + " buffer", expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelMissingRestartMarker() throws IOException {
+        byte[] jpeg = RTPJPEGParserTest.encode(image(160, 120, false), 2, 2, 2);
+        //去掉第一个RST标记：并行解码找不到全部段，按顺序解码，结果与顺序解码相同
+        int scan = scanStart(jpeg);
+        int marker = scan;
+        while (!(jpeg[marker] == (byte) 0xFF && (jpeg[marker + 1] & 0xF8) == 0xD0)) {
+            marker++;
+        }
+        byte[] corrupted = new byte[jpeg.length - 2];
+        System.arraycopy(jpeg, 0, corrupted, 0, marker);
+        System.arraycopy(jpeg, marker + 2, corrupted, marker, jpeg.length - marker - 2);
+        JPEGDecoder sequential = new JPEGDecoder();
+        JPEGDecoder parallel = new JPEGDecoder();
+        parallel.setParallel(true);
+        parallel.setParallelism(4);
+        byte[] expected = new byte[YUVCodec.getYUV420Size(160, 120)];
+        byte[] actual = new byte[expected.length];
+        boolean decoded = sequential.decodeYUV420P(corrupted, 0, corrupted.length, expected);
+        assertEquals(decoded, parallel.decodeYUV420P(corrupted, 0, corrupted.length, actual));
+        assertArrayEquals(expected, actual);
+        //之后完整的帧仍然并行解码
+        assertTrue(sequential.decodeYUV420P(jpeg, 0, jpeg.length, expected));
+        assertTrue(parallel.decodeYUV420P(jpeg, 0, jpeg.length, actual));
+        assertArrayEquals(expected, actual);
+    }
+
+    /**
+     * 测试图像：渐变加随机噪声，RGB噪声相同只影响亮度，色度平滑，与ImageIO的色度插值比较误差小
+     *
+     * @param width  宽度
+     * @param height 高度
+     * @param gray   灰度图像
+     * @return
+     */
+    static BufferedImage image(int width, int height, boolean gray) {
+        BufferedImage image = new BufferedImage(width, height, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31 + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = Math.min(255, x * 200 / width + noise);
+                int g = Math.min(255, y * 200 / height + noise);
+                int b = Math.min(255, (x + y) * 100 / (width + height) + 100 + noise);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 检查I420、NV12和直接缓冲区输出，并与ImageIO读取的原始样本比较
+     *
+     * @param message 说明
+     * @param decoder 解码器
+     * @param jpeg    JPEG
+     * @throws IOException
+     */
+    private static void assertDecoded(String message, JPEGDecoder decoder, byte[] jpeg) throws IOException {
+        Raster raster = raster(jpeg);
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int frameSize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        int chromaSize = chromaWidth * chromaHeight;
+        byte[] i420 = new byte[YUVCodec.getYUV420Size(width, height)];
+        assertTrue(message, decoder.decodeYUV420P(jpeg, 0, jpeg.length, i420));
+        assertEquals(message, width, decoder.getWidth());
+        assertEquals(message, height, decoder.getHeight());
+        boolean gray = raster.getNumBands() == 1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int expected = raster.getSample(x, y, 0);
+                int actual = i420[y * width + x] & 0xFF;
+                if (Math.abs(expected - actual) > 1) {
+                    throw new AssertionError(message + " luma (" + x + "," + y + ") expected " + expected + " but was " + actual);
+                }
+            }
+        }
+        //ImageIO读取的色度是插值放大后的样本，边缘处与2x2平均的差别较大：
+        //较大的图像逐个样本误差不超过1，较小的图像只检查平均误差，很小的图像不比较色度
+        boolean large = width >= 48 && height >= 48;
+        boolean small = width < 16 || height < 16;
+        for (int band = 1; band <= 2 && !small; band++) {
+            int offset = frameSize + (band - 1) * chromaSize;
+            long error = 0;
+            for (int y = 0; y < chromaHeight; y++) {
+                for (int x = 0; x < chromaWidth; x++) {
+                    int actual = i420[offset + y * chromaWidth + x] & 0xFF;
+                    int expected = gray ? 128 : average(raster, band, x * 2, y * 2);
+                    error += Math.abs(expected - actual);
+                    if (large && Math.abs(expected - actual) > 1) {
+                        throw new AssertionError(message + " chroma " + band + " (" + x + "," + y + ") expected " + expected + " but was " + actual);
+                    }
+                }
+            }
+            assertTrue(message + " chroma " + band + " mean error " + (double) error / chromaSize, error * 2 <= chromaSize);
+        }
+        //NV12与I420的平面一致
+        byte[] nv12 = new byte[i420.length];
+        assertTrue(message, decoder.decodeYUV420SP(jpeg, 0, jpeg.length, nv12));
+        assertArrayEquals(message, Arrays.copyOf(i420, frameSize), Arrays.copyOf(nv12, frameSize));
+        for (int i = 0; i < chromaSize; i++) {
+            assertEquals(message, i420[frameSize + i], nv12[frameSize + i * 2]);
+            assertEquals(message, i420[frameSize + chromaSize + i], nv12[frameSize + i * 2 + 1]);
+        }
+        //直接缓冲区（带行跨度）与数组输出一致
+        int yRowStride = width + 3;
+        int uvRowStride = chromaWidth + 5;
+        ByteBuffer y = ByteBuffer.allocateDirect(yRowStride * height);
+        ByteBuffer u = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+        ByteBuffer v = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+        assertTrue(message, decoder.parse(jpeg, 0, jpeg.length));
+        assertTrue(message, decoder.decode(y, yRowStride, u, v, uvRowStride, 1));
+        assertEquals(message, 0, y.position());
+        for (int row = 0; row < height; row++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(message, i420[row * width + x], y.get(row * yRowStride + x));
+            }
+        }
+        for (int row = 0; row < chromaHeight; row++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                assertEquals(message, i420[frameSize + row * chromaWidth + x], u.get(row * uvRowStride + x));
+                assertEquals(message, i420[frameSize + chromaSize + row * chromaWidth + x], v.get(row * uvRowStride + x));
+            }
+        }
+    }
+
+    /**
+     * ImageIO读取的原始YCbCr样本（不做颜色转换）
+     *
+     * @param jpeg JPEG
+     * @return
+     * @throws IOException
+     */
+    private static Raster raster(byte[] jpeg) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(jpeg))) {
+            reader.setInput(stream);
+            return reader.readRaster(0, null);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * 2x2区域的平均值，超出图像的部分不计
+     */
+    private static int average(Raster raster, int band, int x, int y) {
+        int sum = 0;
+        int area = 0;
+        for (int dy = 0; dy < 2 && y + dy < raster.getHeight(); dy++) {
+            for (int dx = 0; dx < 2 && x + dx < raster.getWidth(); dx++) {
+                sum += raster.getSample(x + dx, y + dy, band);
+                area++;
+            }
+        }
+        return (sum + area / 2) / area;
+    }
+
+    /**
+     * 去掉指定标记段
+     *
+     * @param jpeg   JPEG
+     * @param marker 标记
+     * @return
+     */
+    static byte[] strip(byte[] jpeg, int marker) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        int position = 2;
+        int scan = scanStart(jpeg);
+        while (position < scan) {
+            int length = 2 + ((jpeg[position + 2] & 0xFF) << 8 | (jpeg[position + 3] & 0xFF));
+            if ((jpeg[position + 1] & 0xFF) != marker) {
+                out.write(jpeg, position, length);
+            }
+            position += length;
+        }
+        out.write(jpeg, scan, jpeg.length - scan);
+        return out.toByteArray();
+    }
+
+    /**
+     * 熵编码数据开始位置（SOS段之后）
+     *
+     * @param jpeg JPEG
+     * @return
+     */
+    static int scanStart(byte[] jpeg) {
+        int position = 2;
+        while (position + 4 <= jpeg.length) {
+            int length = (jpeg[position + 2] & 0xFF) << 8 | (jpeg[position + 3] & 0xFF);
+            if ((jpeg[position + 1] & 0xFF) == 0xDA) {
+                return position + 2 + length;
+            }
+            position += 2 + length;
+        }
+        return jpeg.length;
+    }
+
+}
@@ -0,0 +1,221 @@
+package androidx.mjpeg;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 录像文件索引测试：idx1索引（相对movi和绝对偏移）、扫描标记建立索引（EXIF缩略图、损坏的帧、没有索引的AVI），以及按时间定位
+ */
+public class MJPEGArchiveTest {
+
+    /**
+     * movi标识位置（{@link AVIRecorder}的文件头布局）
+     */
+    private final static int MOVI_OFFSET = 220;
+
+    @Test
+    public void aviIndex() throws IOException {
+        List<byte[]> frames = frames(5);
+        File file = record(frames, 25);
+        try (MJPEGArchive archive = new MJPEGArchive(file.getPath(), 10)) {
+            //帧间隔取自avih，不使用参数帧率
+            assertEquals(40000, archive.getFrameDuration());
+            assertFrames(archive, frames);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void aviAbsoluteIndex() throws IOException {
+        List<byte[]> frames = frames(5);
+        File file = record(frames, 25);
+        try {
+            //idx1偏移改为文件绝对位置
+            try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+                long index = access.length() - frames.size() * 16;
+                ByteBuffer entry = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < frames.size(); i++) {
+                    long position = index + i * 16 + 8;
+                    access.seek(position);
+                    entry.clear();
+                    access.readFully(entry.array());
+                    int offset = entry.getInt(0);
+                    entry.putInt(0, offset + MOVI_OFFSET);
+                    access.seek(position);
+                    access.write(entry.array());
+                }
+            }
+            try (MJPEGArchive archive = new MJPEGArchive(file.getPath(), 10)) {
+                assertFrames(archive, frames);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void aviWithoutIndex() throws IOException {
+        List<byte[]> frames = frames(4);
+        File file = record(frames, 25);
+        try {
+            //录像中断，没有idx1，扫描movi中的帧，帧间隔仍取自avih
+            try (RandomAccessFile access = new RandomAccessFile(file, "rw")) {
+                access.setLength(access.length() - 8 - frames.size() * 16);
+            }
+            try (MJPEGArchive archive = new MJPEGArchive(file.getPath(), 10)) {
+                assertEquals(40000, archive.getFrameDuration());
+                assertFrames(archive, frames);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void scan() throws IOException {
+        List<byte[]> frames = frames(3);
+        byte[] thumbnail = frames.get(0);
+        List<byte[]> expected = new ArrayList<>();
+        //APP1中带EXIF缩略图（包含FFD8/FFD9）的帧不能在缩略图的EOI处截断
+        expected.add(exif(frames.get(1), thumbnail));
+        expected.add(frames.get(2));
+        expected.add(exif(frames.get(0), thumbnail));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{0x00, (byte) 0xFF, 0x12});
+        out.write(expected.get(0));
+        //帧之间的数据和不完整的帧忽略
+        out.write("--boundary\r\n".getBytes(Charset.forName("ISO-8859-1")));
+        byte[] truncated = frames.get(1);
+        //截断在霍夫曼表段中间，按段长度跳过的数据包含下一帧的开头
+        out.write(truncated, 0, truncated.length / 2);
+        out.write(expected.get(1));
+        out.write(expected.get(2));
+        out.write(truncated, 0, 40);
+        File file = File.createTempFile("archive", ".mjpeg");
+        try {
+            Files.write(file.toPath(), out.toByteArray());
+            try (MJPEGArchive archive = new MJPEGArchive(file.getPath(), 20)) {
+                assertEquals(50000, archive.getFrameDuration());
+                assertFrames(archive, expected);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void seek() throws IOException {
+        List<byte[]> frames = frames(10);
+        File file = record(frames, 25);
+        try (MJPEGArchive archive = new MJPEGArchive(file.getPath(), 25)) {
+            assertEquals(10 * 40000, archive.getDuration());
+            assertEquals(0, archive.indexOf(-1));
+            assertEquals(0, archive.indexOf(39999));
+            assertEquals(1, archive.indexOf(40000));
+            assertEquals(7, archive.indexOf(7 * 40000 + 20000));
+            assertEquals(9, archive.indexOf(Long.MAX_VALUE));
+            for (int i = 0; i < frames.size(); i++) {
+                assertEquals(i, archive.indexOf(archive.timestamp(i)));
+            }
+            //随机访问
+            for (int index : new int[]{9, 0, 5, 5, 3}) {
+                assertArrayEquals(frames.get(index), bytes(archive.frame(index)));
+                assertEquals(frames.get(index).length, archive.length(index));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * 测试帧
+     *
+     * @param count 帧数
+     * @return
+     * @throws IOException
+     */
+    private static List<byte[]> frames(int count) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        for (byte[] frame : MJPEGTestServer.generate(count, 32, 24)) {
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * 录制AVI文件
+     *
+     * @param frames    帧
+     * @param frameRate 帧率
+     * @return
+     * @throws IOException
+     */
+    private static File record(List<byte[]> frames, int frameRate) throws IOException {
+        File file = File.createTempFile("archive", ".avi");
+        AVIRecorder recorder = new AVIRecorder(file.getPath()).frameRate(frameRate);
+        for (byte[] frame : frames) {
+            recorder.write(frame, 0, frame.length, 0);
+        }
+        recorder.close();
+        return file;
+    }
+
+    /**
+     * 在SOI之后插入带缩略图的APP1（EXIF）段
+     *
+     * @param jpeg      JPEG
+     * @param thumbnail 缩略图JPEG
+     * @return
+     */
+    private static byte[] exif(byte[] jpeg, byte[] thumbnail) {
+        byte[] header = "Exif\0\0".getBytes(Charset.forName("ISO-8859-1"));
+        int length = 2 + header.length + thumbnail.length;
+        ByteBuffer buffer = ByteBuffer.allocate(jpeg.length + 2 + length);
+        buffer.put(jpeg, 0, 2);
+        buffer.put((byte) 0xFF).put((byte) 0xE1).putShort((short) length);
+        buffer.put(header).put(thumbnail);
+        buffer.put(jpeg, 2, jpeg.length - 2);
+        return buffer.array();
+    }
+
+    /**
+     * 检查索引的帧及其内容
+     *
+     * @param archive  录像文件
+     * @param expected 帧
+     * @throws IOException
+     */
+    private static void assertFrames(MJPEGArchive archive, List<byte[]> expected) throws IOException {
+        assertEquals(expected.size(), archive.getFrames());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("frame " + i, expected.get(i), bytes(archive.frame(i)));
+        }
+    }
+
+    /**
+     * 帧数据
+     *
+     * @param frame 帧视图
+     * @return
+     */
+    private static byte[] bytes(ByteBuffer frame) {
+        byte[] data = new byte[frame.remaining()];
+        frame.get(data);
+        return data;
+    }
+
+}
@@ -0,0 +1,225 @@
+package androidx.mjpeg;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分段解析测试：分隔符跨越多次写入、没有或错误的Content-Length（回退到查找分隔符）、
+ * 检测数据流格式、超过初始缓冲区的帧，以及超过最大帧大小的帧被丢弃
+ */
+public class MJPEGParserTest {
+
+    private final static Charset ASCII = Charset.forName("ISO-8859-1");
+    private final static String BOUNDARY = "myboundary";
+
+    @Test
+    public void splitWrites() throws IOException {
+        List<byte[]> frames = MJPEGTestServer.generate(4, 32, 24);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < frames.size(); i++) {
+            stream.write(part(frames.get(i), "Content-Type: image/jpeg\r\nContent-Length: " + frames.get(i).length
+                    + "\r\nX-Timestamp-Usec: " + (i + 1) + "\r\n"));
+        }
+        //每种写入长度都会把分隔符、分段头和帧尾拆分到不同的写入中
+        for (int piece : new int[]{1, 2, 3, 5, 7, 13, 64, 1000}) {
+            MJPEGParser parser = new MJPEGParser(BOUNDARY);
+            List<byte[]> parsed = new ArrayList<>();
+            byte[] data = stream.toByteArray();
+            for (int offset = 0; offset < data.length; offset += piece) {
+                parser.write(data, offset, Math.min(piece, data.length - offset));
+                while (parser.next()) {
+                    assertEquals(parsed.size() + 1, parser.header().getTimestamp());
+                    assertEquals(PartHeader.TYPE_JPEG, parser.header().getContentType());
+                    parsed.add(parser.toByteArray());
+                }
+            }
+            assertFrames("piece " + piece, frames, parsed);
+        }
+        //拉取模式，每次只读取少量数据
+        MJPEGParser parser = new MJPEGParser(new SlowInputStream(stream.toByteArray(), 5), "--" + BOUNDARY, 1024);
+        List<byte[]> parsed = new ArrayList<>();
+        while (parser.read()) {
+            parsed.add(parser.toByteArray());
+        }
+        assertFrames("pull", frames, parsed);
+    }
+
+    @Test
+    public void missingContentLength() throws IOException {
+        List<byte[]> frames = MJPEGTestServer.generate(3, 32, 24);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            stream.write(part(frame, "Content-Type: image/jpeg\r\n"));
+        }
+        stream.write(ascii("--" + BOUNDARY + "--\r\n"));
+        assertFrames("missing", frames, push(new MJPEGParser(BOUNDARY), stream.toByteArray(), 7));
+    }
+
+    @Test
+    public void wrongContentLength() throws IOException {
+        List<byte[]> frames = MJPEGTestServer.generate(3, 32, 24);
+        for (int error : new int[]{-10, -1, 1, 10}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            for (byte[] frame : frames) {
+                //帧尾校验不通过，不信任Content-Length，按分隔符确定帧结束
+                stream.write(part(frame, "Content-Length: " + (frame.length + error) + "\r\n"));
+            }
+            stream.write(ascii("--" + BOUNDARY + "--\r\n\r\n"));
+            assertFrames("error " + error, frames, push(new MJPEGParser(BOUNDARY), stream.toByteArray(), 11));
+        }
+    }
+
+    @Test
+    public void detect() throws IOException {
+        List<byte[]> frames = MJPEGTestServer.generate(3, 32, 24);
+        //没有指定分隔符：以--开头的第一行作为分隔符
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(ascii("\r\n"));
+        for (byte[] frame : frames) {
+            stream.write(part(frame, "Content-Length: " + frame.length + "\r\n"));
+        }
+        assertFrames("boundary", frames, push(new MJPEGParser(null), stream.toByteArray(), 3));
+        //不以--开头：按帧头帧尾查找，忽略帧之间的数据
+        stream.reset();
+        for (byte[] frame : frames) {
+            stream.write(frame);
+            stream.write(ascii("\r\n\r\n"));
+        }
+        assertFrames("image", frames, push(new MJPEGParser(""), stream.toByteArray(), 3));
+    }
+
+    @Test
+    public void largeFrame() throws IOException {
+        byte[] large = RTPJPEGParserTest.encode(JPEGDecoderTest.image(320, 240, false), 1, 1, 0);
+        List<byte[]> frames = new ArrayList<>(MJPEGTestServer.generate(2, 32, 24));
+        frames.add(1, large);
+        for (boolean contentLength : new boolean[]{true, false}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            for (byte[] frame : frames) {
+                stream.write(part(frame, contentLength ? "Content-Length: " + frame.length + "\r\n" : ""));
+            }
+            stream.write(ascii("--" + BOUNDARY + "--\r\n"));
+            MJPEGParser parser = new MJPEGParser(new SlowInputStream(stream.toByteArray(), 4096), BOUNDARY, 1024);
+            List<byte[]> parsed = new ArrayList<>();
+            while (parser.read()) {
+                parsed.add(parser.toByteArray());
+            }
+            assertFrames("content length " + contentLength, frames, parsed);
+            //缓冲区扩容
+            assertTrue(parser.array().length >= large.length);
+        }
+    }
+
+    @Test
+    public void maxFrameSize() throws IOException {
+        List<byte[]> small = MJPEGTestServer.generate(2, 32, 24);
+        byte[] large = RTPJPEGParserTest.encode(JPEGDecoderTest.image(320, 240, false), 1, 1, 0);
+        int maxFrameSize = 4 * 1024;
+        assertTrue(large.length > maxFrameSize * 4);
+        for (String header : new String[]{"Content-Length: ", null}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(part(small.get(0), header == null ? "" : header + small.get(0).length + "\r\n"));
+            //超过最大帧大小的Content-Length不信任，查找分隔符超过最大帧大小时丢弃该帧
+            stream.write(part(large, header == null ? "" : header + large.length + "\r\n"));
+            stream.write(part(small.get(1), header == null ? "" : header + small.get(1).length + "\r\n"));
+            stream.write(ascii("--" + BOUNDARY + "--\r\n"));
+            MJPEGParser parser = new MJPEGParser(null, BOUNDARY, 1024).maxFrameSize(maxFrameSize);
+            assertFrames(String.valueOf(header), small, push(parser, stream.toByteArray(), 512));
+            //缓冲区不会为丢弃的帧无限增长
+            assertTrue(parser.array().length <= maxFrameSize * 4);
+        }
+        //按帧头帧尾查找时同样丢弃（没有帧尾的大帧）
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(small.get(0));
+        stream.write(large, 0, large.length - 2);
+        stream.write(small.get(1));
+        MJPEGParser parser = new MJPEGParser(null, "", 1024).maxFrameSize(maxFrameSize);
+        assertFrames("image", small, push(parser, stream.toByteArray(), 512));
+        assertFalse(parser.next());
+        assertTrue(parser.array().length <= maxFrameSize * 4);
+    }
+
+    /**
+     * 分段：分隔符、分段头、空行、帧数据
+     *
+     * @param frame   帧
+     * @param headers 分段头（每行以\r\n结束）
+     * @return
+     * @throws IOException
+     */
+    private static byte[] part(byte[] frame, String headers) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ascii("--" + BOUNDARY + "\r\n" + headers + "\r\n"));
+        out.write(frame);
+        out.write(ascii("\r\n"));
+        return out.toByteArray();
+    }
+
+    /**
+     * 按固定长度推送数据，取出所有帧
+     *
+     * @param parser 解析器
+     * @param data   数据流
+     * @param piece  每次写入的长度
+     * @return
+     */
+    private static List<byte[]> push(MJPEGParser parser, byte[] data, int piece) {
+        List<byte[]> frames = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += piece) {
+            parser.write(data, offset, Math.min(piece, data.length - offset));
+            while (parser.next()) {
+                frames.add(parser.toByteArray());
+            }
+        }
+        return frames;
+    }
+
+    private static void assertFrames(String message, List<byte[]> expected, List<byte[]> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(message + " frame " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(ASCII);
+    }
+
+    /**
+     * 每次最多读取指定长度的输入流
+     */
+    private static class SlowInputStream extends InputStream {
+
+        private final ByteArrayInputStream in;
+        private final int piece;
+
+        private SlowInputStream(byte[] data, int piece) {
+            this.in = new ByteArrayInputStream(data);
+            this.piece = piece;
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return in.read(b, off, Math.min(len, piece));
+        }
+
+    }
+
+}
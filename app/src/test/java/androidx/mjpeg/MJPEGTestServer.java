@@ -0,0 +1,421 @@
+package androidx.mjpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 本地MJPEG测试服务器<br/>
+ * 在127.0.0.1的随机端口上提供multipart/x-mixed-replace数据流，帧来自录制的JPEG序列或生成的JPEG，
+ * 每个连接一个发送线程，按帧率循环发送，分段头带X-Timestamp（发送时间）用于计算端到端延迟。
+ * 可以设置分隔符样式、省略Content-Length、慢速分块发送（slow-drip）和定期断开连接，模拟各种摄像头和网络状况。
+ * 路径以.jpg结尾时作为快照地址，在持久连接上按请求逐个返回单张JPEG（支持流水线请求）。
+ */
+public class MJPEGTestServer {
+
+    /**
+     * 分隔符样式
+     */
+    public enum BoundaryStyle {
+        /**
+         * boundary=frame，分段以--frame开始
+         */
+        PLAIN,
+        /**
+         * boundary="frame"
+         */
+        QUOTED,
+        /**
+         * boundary=--frame，声明中已包含--
+         */
+        DASHED,
+        /**
+         * Content-Type中没有boundary，由解析器从数据流中检测
+         */
+        MISSING
+    }
+
+    /**
+     * 分隔符
+     */
+    private final static String BOUNDARY = "frame";
+    private final static Charset ASCII = Charset.forName("ISO-8859-1");
+
+    /**
+     * 帧序列
+     */
+    private final List<byte[]> frames;
+    /**
+     * 帧率
+     */
+    private int fps = 25;
+    /**
+     * 分隔符样式
+     */
+    private BoundaryStyle boundaryStyle = BoundaryStyle.PLAIN;
+    /**
+     * 是否发送Content-Length
+     */
+    private boolean contentLength = true;
+    /**
+     * 慢速发送的分块大小，0表示整帧发送
+     */
+    private int dripBytes;
+    /**
+     * 慢速发送的分块间隔（毫秒）
+     */
+    private long dripDelay;
+    /**
+     * 每个连接发送多少帧后断开，0表示不断开
+     */
+    private int disconnectAfter;
+    /**
+     * 服务端口
+     */
+    private ServerSocket server;
+    /**
+     * 连接
+     */
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    /**
+     * 已接受的连接数
+     */
+    private final AtomicLong accepted = new AtomicLong();
+    /**
+     * 已发送帧数
+     */
+    private final AtomicLong sent = new AtomicLong();
+    /**
+     * 主动断开次数
+     */
+    private final AtomicLong disconnects = new AtomicLong();
+
+    /**
+     * 使用指定的帧序列
+     *
+     * @param frames JPEG帧
+     */
+    public MJPEGTestServer(List<byte[]> frames) {
+        this.frames = frames;
+    }
+
+    /**
+     * 读取目录中的JPEG序列（按文件名排序）
+     *
+     * @param directory 目录
+     * @return
+     * @throws IOException
+     */
+    public static List<byte[]> load(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".jpg") || name.toLowerCase().endsWith(".jpeg"));
+        if (files == null || files.length == 0) {
+            throw new IOException("no jpeg in " + directory);
+        }
+        Arrays.sort(files);
+        List<byte[]> frames = new ArrayList<>();
+        for (File file : files) {
+            frames.add(Files.readAllBytes(file.toPath()));
+        }
+        return frames;
+    }
+
+    /**
+     * 生成JPEG序列（移动的色块）
+     *
+     * @param count  帧数
+     * @param width  宽度
+     * @param height 高度
+     * @return
+     * @throws IOException
+     */
+    public static List<byte[]> generate(int count, int width, int height) throws IOException {
+        Random random = new Random(1);
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] pixels = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels[y * width + x] = ((x + i * 4) & 0xFF) << 16 | ((y + i * 2) & 0xFF) << 8 | random.nextInt(32);
+                }
+            }
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            frames.add(out.toByteArray());
+        }
+        return frames;
+    }
+
+    public MJPEGTestServer fps(int fps) {
+        this.fps = Math.max(1, fps);
+        return this;
+    }
+
+    public MJPEGTestServer boundaryStyle(BoundaryStyle boundaryStyle) {
+        this.boundaryStyle = boundaryStyle;
+        return this;
+    }
+
+    public MJPEGTestServer contentLength(boolean contentLength) {
+        this.contentLength = contentLength;
+        return this;
+    }
+
+    /**
+     * 慢速发送：每帧按分块发送，分块之间等待
+     *
+     * @param bytes 分块大小
+     * @param delay 间隔（毫秒）
+     * @return
+     */
+    public MJPEGTestServer drip(int bytes, long delay) {
+        this.dripBytes = bytes;
+        this.dripDelay = delay;
+        return this;
+    }
+
+    /**
+     * 每个连接发送指定帧数后断开
+     *
+     * @param frames 帧数，0表示不断开
+     * @return
+     */
+    public MJPEGTestServer disconnectAfter(int frames) {
+        this.disconnectAfter = frames;
+        return this;
+    }
+
+    /**
+     * 启动服务
+     *
+     * @return
+     * @throws IOException
+     */
+    public MJPEGTestServer start() throws IOException {
+        server = new ServerSocket(0, 512, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(this::accept, "mjpeg-test-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * 数据流地址
+     *
+     * @param name 路径名，不同名称只用于区分数据流
+     * @return
+     */
+    public String url(String name) {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/" + name;
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                accepted.incrementAndGet();
+                connections.add(socket);
+                Thread thread = new Thread(() -> serve(socket), "mjpeg-test-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 发送数据流
+     *
+     * @param socket 连接
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream is = socket.getInputStream();
+            String request = readRequest(is);
+            OutputStream os = socket.getOutputStream();
+            if (request.contains(".jpg ")) {
+                serveSnapshot(is, os);
+                return;
+            }
+            os.write(responseHeader().getBytes(ASCII));
+            os.flush();
+            long interval = 1000000000L / fps;
+            long next = System.nanoTime();
+            for (int index = 0; !socket.isClosed(); index++) {
+                if (disconnectAfter > 0 && index >= disconnectAfter) {
+                    disconnects.incrementAndGet();
+                    break;
+                }
+                byte[] frame = frames.get(index % frames.size());
+                long now = System.currentTimeMillis() * 1000L;
+                StringBuilder header = new StringBuilder();
+                header.append("--").append(BOUNDARY).append("\r\n");
+                header.append("Content-Type: image/jpeg\r\n");
+                if (contentLength) {
+                    header.append("Content-Length: ").append(frame.length).append("\r\n");
+                }
+                header.append("X-Timestamp: ").append(now / 1000000L).append('.').append(String.format("%06d", now % 1000000L)).append("\r\n\r\n");
+                os.write(header.toString().getBytes(ASCII));
+                if (dripBytes > 0) {
+                    for (int offset = 0; offset < frame.length; offset += dripBytes) {
+                        os.write(frame, offset, Math.min(dripBytes, frame.length - offset));
+                        os.flush();
+                        Thread.sleep(dripDelay);
+                    }
+                } else {
+                    os.write(frame);
+                }
+                os.write('\r');
+                os.write('\n');
+                os.flush();
+                sent.incrementAndGet();
+                next += interval;
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            //客户端断开
+        } finally {
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //忽略
+            }
+        }
+    }
+
+    /**
+     * 快照：每个请求返回一张JPEG，连接保持打开，按帧序列循环
+     *
+     * @param is 输入流
+     * @param os 输出流
+     * @throws IOException
+     */
+    private void serveSnapshot(InputStream is, OutputStream os) throws IOException {
+        for (int index = 0; ; index++) {
+            if (disconnectAfter > 0 && index >= disconnectAfter) {
+                disconnects.incrementAndGet();
+                return;
+            }
+            byte[] frame = frames.get(index % frames.size());
+            long now = System.currentTimeMillis() * 1000L;
+            String header = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: image/jpeg\r\n"
+                    + "Content-Length: " + frame.length + "\r\n"
+                    + "X-Timestamp: " + now / 1000000L + "." + String.format("%06d", now % 1000000L) + "\r\n"
+                    + "\r\n";
+            os.write(header.getBytes(ASCII));
+            os.write(frame);
+            os.flush();
+            sent.incrementAndGet();
+            if (readRequest(is).isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 读取请求头
+     *
+     * @param is 输入流
+     * @return 请求行，连接关闭时为空
+     * @throws IOException
+     */
+    private static String readRequest(InputStream is) throws IOException {
+        StringBuilder line = new StringBuilder();
+        boolean first = true;
+        int matched = 0;
+        int c;
+        while (matched < 4 && (c = is.read()) >= 0) {
+            matched = c == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (c == '\r' ? 1 : 0);
+            if (c == '\n') {
+                first = false;
+            } else if (first && c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * 响应头
+     *
+     * @return
+     */
+    private String responseHeader() {
+        String contentType = "multipart/x-mixed-replace";
+        switch (boundaryStyle) {
+            case QUOTED:
+                contentType += "; boundary=\"" + BOUNDARY + "\"";
+                break;
+            case DASHED:
+                contentType += "; boundary=--" + BOUNDARY;
+                break;
+            case MISSING:
+                break;
+            default:
+                contentType += "; boundary=" + BOUNDARY;
+                break;
+        }
+        return "HTTP/1.0 200 OK\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDisconnects() {
+        return disconnects.get();
+    }
+
+    /**
+     * 停止服务并断开所有连接
+     */
+    public void stop() {
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            //忽略
+        }
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //忽略
+            }
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+package androidx.mjpeg;
+
+import android.graphics.Bitmap;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 多数据流负载测试<br/>
+ * 使用{@link MJPEGTestServer}在本机提供数据流，同时运行N个{@link Request}，统计持续帧率、端到端延迟（服务器发送到回调）、
+ * 客户端线程的内存分配速率和GC次数。本地单元测试中Android API返回默认值（BitmapFactory不解码），
+ * 测量的是网络读取、分帧和分发的开销；解码开销见benchmark模块。<br/>
+ * 负载测试默认跳过，指定数据流数量时运行：
+ * {@code ./gradlew :app:testDebugUnitTest --tests androidx.mjpeg.MultiStreamLoadTest -Pload.streams=50 -Pload.seconds=30}
+ */
+public class MultiStreamLoadTest {
+
+    /**
+     * 测试服务器的线程名前缀，统计内存分配时排除
+     */
+    private final static String SERVER_THREAD = "mjpeg-test";
+
+    /**
+     * 开始统计的时间（{@link System#nanoTime()}），之前到达的帧不计入延迟
+     */
+    private static volatile long measureStart;
+
+    @Test
+    public void smoke() throws Exception {
+        for (MJPEGTestServer.BoundaryStyle style : MJPEGTestServer.BoundaryStyle.values()) {
+            MJPEGTestServer server = new MJPEGTestServer(MJPEGTestServer.generate(4, 160, 120))
+                    .fps(30)
+                    .boundaryStyle(style)
+                    .contentLength(style != MJPEGTestServer.BoundaryStyle.MISSING)
+                    .disconnectAfter(20)
+                    .start();
+            try {
+                Result result = run(server, 2, 0, 2, 200, false);
+                assertTrue(style + " " + result, result.frames > 0);
+                assertTrue(style + " " + result, result.reconnects > 0);
+            } finally {
+                server.stop();
+            }
+        }
+        MJPEGTestServer server = new MJPEGTestServer(MJPEGTestServer.generate(4, 160, 120)).start();
+        try {
+            Result result = run(server, 2, 0, 2, 200, true);
+            assertTrue("snapshot " + result, result.frames > 0);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void load() throws Exception {
+        String streams = System.getProperty("load.streams");
+        Assume.assumeTrue("set -Pload.streams to run", streams != null);
+        int fps = Integer.getInteger("load.fps", 25);
+        int width = Integer.getInteger("load.width", 640);
+        int height = Integer.getInteger("load.height", 480);
+        MJPEGTestServer server = new MJPEGTestServer(MJPEGTestServer.generate(25, width, height))
+                .fps(fps)
+                .contentLength(!Boolean.getBoolean("load.noContentLength"))
+                .drip(Integer.getInteger("load.dripBytes", 0), Integer.getInteger("load.dripDelay", 0))
+                .disconnectAfter(Integer.getInteger("load.disconnectAfter", 0))
+                .start();
+        try {
+            Result result = run(server, Integer.parseInt(streams), 2, Integer.getInteger("load.seconds", 10), 1000, Boolean.getBoolean("load.snapshot"));
+            System.out.println(result);
+            assertTrue(result.toString(), result.frames > 0);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * 运行负载
+     *
+     * @param server        测试服务器
+     * @param streams       数据流数量
+     * @param warmup        预热秒数，不计入统计
+     * @param seconds       统计秒数
+     * @param reconnectTime 重连时间（毫秒）
+     * @param snapshot      是否使用快照轮询（帧率为load.fps）
+     * @return
+     * @throws InterruptedException
+     */
+    public static Result run(MJPEGTestServer server, int streams, int warmup, int seconds, long reconnectTime, boolean snapshot) throws InterruptedException {
+        //延迟分桶（微秒，2的幂），与StreamMetrics相同
+        AtomicLongArray latency = new AtomicLongArray(32);
+        List<Request> requests = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            Request request = Request.from(server.url("stream" + i + (snapshot ? ".jpg" : "")))
+                    .frameRate(Integer.getInteger("load.fps", 25))
+                    .reconnectTime(reconnectTime);
+            request.addRequestListener(new OnRequestListener() {
+                @Override
+                public void onBitmap(Bitmap bitmap) {
+
+                }
+
+                @Override
+                public void onBytes(byte[] data) {
+
+                }
+
+                @Override
+                public void onFrame(Frame frame) {
+                    long micros = System.currentTimeMillis() * 1000L - frame.timestamp();
+                    if (frame.arrivalTime() >= measureStart) {
+                        latency.incrementAndGet(Math.min(31, 64 - Long.numberOfLeadingZeros(Math.max(0, micros))));
+                    }
+                }
+            });
+            requests.add(request);
+        }
+        measureStart = Long.MAX_VALUE;
+        for (Request request : requests) {
+            request.start();
+        }
+        Thread.sleep(warmup * 1000L);
+        long frames = 0;
+        long reconnects = 0;
+        for (Request request : requests) {
+            StreamMetrics.Snapshot current = request.getMetrics().snapshot();
+            frames -= current.framesReceived;
+            reconnects -= current.reconnects;
+        }
+        long allocated = -allocatedBytes();
+        long gcCount = -gcCount();
+        long begin = System.nanoTime();
+        measureStart = begin;
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.nanoTime() - begin;
+        allocated += allocatedBytes();
+        gcCount += gcCount();
+        for (Request request : requests) {
+            StreamMetrics.Snapshot current = request.getMetrics().snapshot();
+            frames += current.framesReceived;
+            reconnects += current.reconnects;
+        }
+        for (Request request : requests) {
+            request.cancel();
+        }
+        long[] buckets = new long[latency.length()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = latency.get(i);
+        }
+        Result result = new Result();
+        result.streams = streams;
+        result.frames = frames;
+        result.fps = frames * 1e9 / elapsed / streams;
+        result.latencyP50 = StreamMetrics.Snapshot.percentile(buckets, 0.5) / 1000.0;
+        result.latencyP99 = StreamMetrics.Snapshot.percentile(buckets, 0.99) / 1000.0;
+        result.allocationRate = allocated * 1e9 / elapsed / (1024 * 1024);
+        result.gcCount = gcCount;
+        result.reconnects = reconnects;
+        return result;
+    }
+
+    /**
+     * 客户端线程累计分配的字节数（不含测试服务器线程）
+     *
+     * @return 不支持时返回0
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long[] ids = bean.getAllThreadIds();
+        ThreadInfo[] infos = bean.getThreadInfo(ids);
+        long[] bytes = ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(ids);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] != null && bytes[i] > 0 && !infos[i].getThreadName().startsWith(SERVER_THREAD)) {
+                total += bytes[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * GC次数
+     *
+     * @return
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * 负载结果
+     */
+    public static class Result {
+
+        public int streams;
+        public long frames;
+        /**
+         * 每个数据流的平均帧率
+         */
+        public double fps;
+        /**
+         * 延迟中位数（毫秒，分桶上限）
+         */
+        public double latencyP50;
+        /**
+         * 延迟P99（毫秒，分桶上限）
+         */
+        public double latencyP99;
+        /**
+         * 客户端内存分配速率（MB/s）
+         */
+        public double allocationRate;
+        public long gcCount;
+        public long reconnects;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "streams:%d frames:%d fps/stream:%.1f latency p50:%.1fms p99:%.1fms allocation:%.1fMB/s gc:%d reconnects:%d",
+                    streams, frames, fps, latencyP50, latencyP99, allocationRate, gcCount, reconnects);
+        }
+
+    }
+
+}
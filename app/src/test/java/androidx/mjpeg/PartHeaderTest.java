@@ -0,0 +1,90 @@
+package androidx.mjpeg;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 分段头解析测试：字段名忽略大小写、很长的头信息行、数值溢出
+ */
+public class PartHeaderTest {
+
+    private final static Charset ASCII = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void ignoreCase() {
+        PartHeader header = new PartHeader();
+        assertTrue(parse(header, "CONTENT-TYPE: IMAGE/JPEG\r\ncontent-LENGTH:1234\r\nX-TimeStamp: 12.5\r\n"));
+        assertEquals(1234, header.getContentLength());
+        assertEquals(PartHeader.TYPE_JPEG, header.getContentType());
+        assertEquals(12500000, header.getTimestamp());
+        assertTrue(parse(header, "Content-Length : \t 42\nx-timestamp-usec: 7\nConnection: Keep-Alive\nTRANSFER-encoding: Chunked\n"));
+        assertEquals(42, header.getContentLength());
+        assertEquals(7, header.getTimestamp());
+        assertEquals(PartHeader.TYPE_UNKNOWN, header.getContentType());
+        assertTrue(header.isKeepAlive());
+        assertFalse(header.isClose());
+        assertTrue(header.isChunked());
+        //重复使用时重置
+        assertFalse(parse(header, "connection: CLOSE\r\n"));
+        assertEquals(-1, header.getContentLength());
+        assertEquals(-1, header.getTimestamp());
+        assertTrue(header.isClose());
+        assertFalse(header.isChunked());
+    }
+
+    @Test
+    public void longLines() {
+        PartHeader header = new PartHeader();
+        char[] filler = new char[64 * 1024];
+        Arrays.fill(filler, 'a');
+        String value = new String(filler);
+        //行长度不受限制，很长的其他字段和没有冒号的行不影响后续字段
+        assertTrue(parse(header, "X-Custom: " + value + "\r\n" + value + "\r\nContent-Type: image/jpeg; " + value
+                + "\r\nContent-Length: 100\r\n"));
+        assertEquals(100, header.getContentLength());
+        assertEquals(PartHeader.TYPE_JPEG, header.getContentType());
+        //很长的字段名不会被误认为已知字段
+        assertFalse(parse(header, "Content-Length" + value + ": 100\r\n"));
+        //数值之后的内容忽略
+        assertTrue(parse(header, "Content-Length: 100" + value + "\r\n"));
+        assertEquals(100, header.getContentLength());
+    }
+
+    @Test
+    public void overflow() {
+        PartHeader header = new PartHeader();
+        //超过long范围的数值不能回绕为看似有效的长度
+        assertFalse(parse(header, "Content-Length: 18446744073709551716\r\n"));
+        assertEquals(-1, header.getContentLength());
+        assertFalse(parse(header, "Content-Length: 99999999999999999999999999999\r\n"));
+        assertFalse(parse(header, "Content-Length: 2147483648\r\n"));
+        assertTrue(parse(header, "Content-Length: 2147483647\r\n"));
+        assertEquals(Integer.MAX_VALUE, header.getContentLength());
+        assertTrue(parse(header, "Content-Length: 000000000000000000000000000123\r\n"));
+        assertEquals(123, header.getContentLength());
+        parse(header, "X-Timestamp-Usec: 999999999999999999\r\n");
+        assertEquals(999999999999999999L, header.getTimestamp());
+        parse(header, "X-Timestamp-Usec: 18446744073709551617\r\n");
+        assertEquals(-1, header.getTimestamp());
+        parse(header, "X-Timestamp-Usec: 123456789012345678901234567890\r\n");
+        assertEquals(-1, header.getTimestamp());
+        parse(header, "X-Timestamp: 9223372036854.775807\r\n");
+        assertEquals(-1, header.getTimestamp());
+        parse(header, "X-Timestamp: 9223372036843.999999\r\n");
+        assertEquals(9223372036843999999L, header.getTimestamp());
+        parse(header, "X-Timestamp: 1697550000.1234567\r\n");
+        assertEquals(1697550000123456L, header.getTimestamp());
+    }
+
+    private static boolean parse(PartHeader header, String text) {
+        byte[] data = ("--" + text).getBytes(ASCII);
+        return header.parse(data, 2, data.length);
+    }
+
+}
@@ -0,0 +1,218 @@
+package androidx.mjpeg;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 预录缓冲环形逻辑测试：尾部回绕、覆盖淘汰、保留时长、索引已满，以及导出的内容和冻结
+ */
+public class PreEventBufferTest {
+
+    /**
+     * 帧间隔（微秒）
+     */
+    private final static long FRAME_TIME = 40000;
+
+    /**
+     * 小于所有测试帧长度的JPEG，帧尾填充帧序号用于区分
+     */
+    private static byte[] jpeg;
+
+    @Test
+    public void tailWrap() throws IOException {
+        File file = File.createTempFile("pre", ".buf");
+        PreEventBuffer buffer = new PreEventBuffer(file.getPath(), 60, 3500, 16);
+        try {
+            //0:[0,1000) 1:[1000,2000) 2:[2000,3000)，之后每帧从头覆盖最旧的帧
+            for (int i = 0; i < 7; i++) {
+                assertTrue(append(buffer, i, 1000));
+                assertEquals(Math.min(3, i + 1), buffer.getFrames());
+            }
+            assertFrames(buffer, 4, 5, 6);
+            //4:[1000,2000) 5:[2000,3000) 6:[0,1000)，写入位置1000，尾部放不下2600字节：
+            //淘汰写入位置之后的旧帧4和5，再从头写入覆盖6
+            append(buffer, 7, 2600);
+            assertFrames(buffer, 7);
+        } finally {
+            buffer.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void overlapEviction() throws IOException {
+        File file = File.createTempFile("pre", ".buf");
+        PreEventBuffer buffer = new PreEventBuffer(file.getPath(), 60, 6000, 16);
+        try {
+            //0:[0,2000) 1:[2000,4000) 2:[4000,5600)
+            append(buffer, 0, 2000);
+            append(buffer, 1, 2000);
+            append(buffer, 2, 1600);
+            //尾部剩余400字节不足，从头写入[0,3000)，覆盖0和1
+            append(buffer, 3, 3000);
+            assertFrames(buffer, 2, 3);
+            //[3000,4200)覆盖2
+            append(buffer, 4, 1200);
+            assertFrames(buffer, 3, 4);
+            //[4200,6000)写满
+            append(buffer, 5, 1800);
+            assertFrames(buffer, 3, 4, 5);
+            //尾部没有空间，尾部的帧5是最新的，不淘汰；从头写入[0,2000)覆盖3
+            append(buffer, 6, 2000);
+            assertFrames(buffer, 4, 5, 6);
+            //[2000,5200)覆盖4和5
+            append(buffer, 7, 3200);
+            assertFrames(buffer, 6, 7);
+            //超过容量的帧不写入
+            assertFalse(append(buffer, 8, 6001));
+            assertFrames(buffer, 6, 7);
+        } finally {
+            buffer.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void retention() throws IOException {
+        File file = File.createTempFile("pre", ".buf");
+        //保留1秒（25帧）
+        PreEventBuffer buffer = new PreEventBuffer(file.getPath(), 1, 1024 * 1024, 256);
+        try {
+            for (int i = 0; i < 40; i++) {
+                append(buffer, i, 1000);
+            }
+            //第39帧与第14帧相差1秒，不超过保留时长
+            assertEquals(26, buffer.getFrames());
+            assertEquals(14 * FRAME_TIME, buffer.getFirstTimestamp());
+            assertEquals(39 * FRAME_TIME, buffer.getLastTimestamp());
+            //间隔超过保留时长，之前的帧全部淘汰
+            buffer.append(frame(40, 1000), 0, 1000, 100 * FRAME_TIME);
+            assertEquals(1, buffer.getFrames());
+            assertEquals(100 * FRAME_TIME, buffer.getFirstTimestamp());
+        } finally {
+            buffer.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void indexFull() throws IOException {
+        File file = File.createTempFile("pre", ".buf");
+        PreEventBuffer buffer = new PreEventBuffer(file.getPath(), 60, 1024 * 1024, 4);
+        try {
+            for (int i = 0; i < 10; i++) {
+                append(buffer, i, 1000);
+                assertEquals(Math.min(4, i + 1), buffer.getFrames());
+            }
+            assertFrames(buffer, 6, 7, 8, 9);
+        } finally {
+            buffer.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void export() throws IOException {
+        File file = File.createTempFile("pre", ".buf");
+        File avi = File.createTempFile("pre", ".avi");
+        PreEventBuffer buffer = new PreEventBuffer(file.getPath(), 60, 1024 * 1024, 64);
+        try {
+            for (int i = 0; i < 10; i++) {
+                append(buffer, i, 1000 + i);
+            }
+            //时间段包含两端
+            assertEquals(4, buffer.export(avi.getPath(), 3 * FRAME_TIME, 6 * FRAME_TIME));
+            assertArchive(avi, 3, 4, 5, 6);
+            //导出结束后继续写入
+            assertTrue(append(buffer, 10, 1000));
+            //冻结期间不写入，导出不解除冻结
+            buffer.freeze();
+            assertFalse(append(buffer, 11, 1000));
+            assertEquals(2, buffer.export(avi.getPath(), 9 * FRAME_TIME, Long.MAX_VALUE));
+            assertArchive(avi, 9, 10);
+            assertFalse(append(buffer, 11, 1000));
+            buffer.unfreeze();
+            assertTrue(append(buffer, 11, 1000));
+        } finally {
+            buffer.close();
+            file.delete();
+            avi.delete();
+        }
+    }
+
+    /**
+     * 追加测试帧，时间戳为帧序号 x 帧间隔
+     *
+     * @return 是否写入
+     */
+    private static boolean append(PreEventBuffer buffer, int index, int length) throws IOException {
+        return buffer.append(frame(index, length), 0, length, index * FRAME_TIME);
+    }
+
+    /**
+     * 测试帧：JPEG后填充帧序号
+     *
+     * @param index  帧序号
+     * @param length 长度
+     * @return
+     * @throws IOException
+     */
+    private static byte[] frame(int index, int length) throws IOException {
+        if (jpeg == null) {
+            jpeg = MJPEGTestServer.generate(1, 8, 8).get(0);
+        }
+        byte[] data = Arrays.copyOf(jpeg, length);
+        Arrays.fill(data, Math.min(jpeg.length, length), length, (byte) index);
+        return data;
+    }
+
+    /**
+     * 检查缓冲中的帧（按时间顺序）及其内容
+     *
+     * @param buffer  预录缓冲
+     * @param indexes 帧序号
+     * @throws IOException
+     */
+    private static void assertFrames(PreEventBuffer buffer, int... indexes) throws IOException {
+        assertEquals(indexes.length, buffer.getFrames());
+        assertEquals(indexes[0] * FRAME_TIME, buffer.getFirstTimestamp());
+        assertEquals(indexes[indexes.length - 1] * FRAME_TIME, buffer.getLastTimestamp());
+        File avi = File.createTempFile("pre", ".avi");
+        try {
+            assertEquals(indexes.length, buffer.export(avi.getPath(), 0, Long.MAX_VALUE));
+            assertArchive(avi, indexes);
+        } finally {
+            avi.delete();
+        }
+    }
+
+    /**
+     * 检查导出的AVI文件中的帧
+     *
+     * @param avi     AVI文件
+     * @param indexes 帧序号
+     * @throws IOException
+     */
+    private static void assertArchive(File avi, int... indexes) throws IOException {
+        try (MJPEGArchive archive = new MJPEGArchive(avi.getPath(), 25)) {
+            assertEquals(indexes.length, archive.getFrames());
+            for (int i = 0; i < indexes.length; i++) {
+                ByteBuffer data = archive.frame(i);
+                byte[] actual = new byte[data.remaining()];
+                data.get(actual);
+                assertArrayEquals("frame " + indexes[i], frame(indexes[i], actual.length), actual);
+                assertEquals(indexes[i], actual[actual.length - 1]);
+            }
+        }
+    }
+
+}
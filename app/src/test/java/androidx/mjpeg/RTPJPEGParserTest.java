@@ -0,0 +1,486 @@
+package androidx.mjpeg;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.plugins.jpeg.JPEGQTable;
+import javax.imageio.stream.ImageOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RTP/JPEG（RFC 2435）重组测试<br/>
+ * 用ImageIO编码JPEG（量化表按RFC 2435附录A由Q值计算），拆分为RTP包后通过本机回环{@link DatagramChannel}发送，
+ * 比较重建帧与原始帧的解码像素。
+ */
+public class RTPJPEGParserTest {
+
+    /**
+     * 图像宽度
+     */
+    private final static int WIDTH = 160;
+    /**
+     * 图像高度
+     */
+    private final static int HEIGHT = 120;
+    /**
+     * RTP负载最大长度，每帧拆分为多个包
+     */
+    private final static int MTU = 400;
+    /**
+     * 编码使用的Q值
+     */
+    private final static int QUALITY = 80;
+    /**
+     * 相邻帧的RTP时间戳间隔（90kHz，25fps）
+     */
+    private final static int TIMESTAMP_STEP = 3600;
+
+    /**
+     * RTP序号
+     */
+    private int sequence = 1000;
+
+    @Test
+    public void reorder() throws IOException {
+        try (Loopback loopback = new Loopback()) {
+            RTPJPEGParser parser = new RTPJPEGParser();
+            Random random = new Random(1);
+            for (int i = 0; i < 8; i++) {
+                byte[] jpeg = encode(image(i), 1, 0);
+                List<byte[]> packets = packetize(jpeg, i * TIMESTAMP_STEP, 255, true);
+                Collections.shuffle(packets, random);
+                List<byte[]> frames = loopback.transfer(parser, packets);
+                assertEquals("frame " + i, 1, frames.size());
+                assertPixels("frame " + i, jpeg, frames.get(0));
+            }
+            assertEquals(8, parser.getFrames());
+            assertEquals(0, parser.getDroppedFrames());
+            assertEquals(0, parser.getLostPackets());
+        }
+    }
+
+    @Test
+    public void duplicate() throws IOException {
+        try (Loopback loopback = new Loopback()) {
+            RTPJPEGParser parser = new RTPJPEGParser();
+            List<byte[]> previous = null;
+            for (int i = 0; i < 4; i++) {
+                byte[] jpeg = encode(image(i), 1, 0);
+                List<byte[]> packets = packetize(jpeg, i * TIMESTAMP_STEP, 255, true);
+                List<byte[]> sent = new ArrayList<>();
+                for (byte[] packet : packets) {
+                    sent.add(packet);
+                    sent.add(packet);
+                }
+                List<byte[]> frames = loopback.transfer(parser, sent);
+                assertEquals("frame " + i, 1, frames.size());
+                assertPixels("frame " + i, jpeg, frames.get(0));
+                if (previous != null) {
+                    //已输出帧的迟到包不会再次输出
+                    assertEquals("late frame " + i, 0, loopback.transfer(parser, previous).size());
+                }
+                previous = packets;
+            }
+            assertEquals(4, parser.getFrames());
+        }
+    }
+
+    @Test
+    public void loss() throws IOException {
+        try (Loopback loopback = new Loopback()) {
+            RTPJPEGParser parser = new RTPJPEGParser();
+            byte[][] jpegs = new byte[3][];
+            List<byte[]> frames = new ArrayList<>();
+            for (int i = 0; i < jpegs.length; i++) {
+                jpegs[i] = encode(image(i), 1, 0);
+                List<byte[]> packets = packetize(jpegs[i], i * TIMESTAMP_STEP, 255, true);
+                assertTrue(packets.size() > 2);
+                if (i == 1) {
+                    packets.remove(1);
+                }
+                frames.addAll(loopback.transfer(parser, packets));
+            }
+            assertEquals(2, frames.size());
+            assertPixels("frame 0", jpegs[0], frames.get(0));
+            assertPixels("frame 2", jpegs[2], frames.get(1));
+            assertEquals(1, parser.getLostPackets());
+            assertEquals(1, parser.getDroppedFrames());
+        }
+    }
+
+    @Test
+    public void tables() throws IOException {
+        try (Loopback loopback = new Loopback()) {
+            RTPJPEGParser parser = new RTPJPEGParser();
+            //Q<128：按Q值计算量化表
+            byte[] jpeg = encode(image(0), 1, 0);
+            List<byte[]> frames = loopback.transfer(parser, packetize(jpeg, 0, QUALITY, false));
+            assertEquals(1, frames.size());
+            assertPixels("computed tables", jpeg, frames.get(0));
+            //Q=128~254：第一帧带内量化表，之后的帧省略
+            for (int i = 1; i < 4; i++) {
+                jpeg = encode(image(i), 1, 0);
+                frames = loopback.transfer(parser, packetize(jpeg, i * TIMESTAMP_STEP, 200, i == 1));
+                assertEquals("cached tables " + i, 1, frames.size());
+                assertPixels("cached tables " + i, jpeg, frames.get(0));
+            }
+            //Q=255：每帧必须带内量化表，缺少时丢弃
+            jpeg = encode(image(4), 1, 0);
+            assertEquals(0, loopback.transfer(parser, packetize(jpeg, 4 * TIMESTAMP_STEP, 255, false)).size());
+            assertEquals(1, parser.getDroppedFrames());
+            frames = loopback.transfer(parser, packetize(jpeg, 5 * TIMESTAMP_STEP, 255, true));
+            assertEquals(1, frames.size());
+            assertPixels("in-band tables", jpeg, frames.get(0));
+        }
+    }
+
+    @Test
+    public void restartMarkers() throws IOException {
+        try (Loopback loopback = new Loopback()) {
+            RTPJPEGParser parser = new RTPJPEGParser();
+            int timestamp = 0;
+            //类型64（4:2:2）和65（4:2:0）
+            for (int type = 0; type < 2; type++) {
+                for (int interval : new int[]{1, 4}) {
+                    byte[] jpeg = encode(image(type * 10 + interval), type, interval);
+                    List<byte[]> packets = packetize(jpeg, timestamp, 255, true);
+                    assertEquals(64 + type, packets.get(0)[12 + 4] & 0xFF);
+                    List<byte[]> frames = loopback.transfer(parser, packets);
+                    assertEquals("type " + type + " interval " + interval, 1, frames.size());
+                    byte[] frame = frames.get(0);
+                    assertTrue("DRI", indexOf(frame, (byte) 0xFF, (byte) 0xDD) > 0);
+                    assertPixels("type " + type + " interval " + interval, jpeg, frame);
+                    timestamp += TIMESTAMP_STEP;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void request() throws Exception {
+        int port;
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            probe.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            port = probe.socket().getLocalPort();
+        }
+        BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+        Request request = Request.from("rtp://127.0.0.1:" + port);
+        request.addRequestListener(new OnRequestListener() {
+            @Override
+            public void onBitmap(Bitmap bitmap) {
+
+            }
+
+            @Override
+            public void onBytes(byte[] data) {
+
+            }
+
+            @Override
+            public void onFrame(Frame frame) {
+                received.add(frame.toByteArray());
+            }
+        });
+        request.start();
+        try (DatagramChannel sender = DatagramChannel.open()) {
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+            byte[] jpeg = encode(image(0), 1, 2);
+            byte[] frame = null;
+            //接收端在IO线程中绑定，绑定之前发送的包会丢失，重复发送直到收到帧
+            for (int i = 0; i < 50 && frame == null; i++) {
+                for (byte[] packet : packetize(jpeg, i * TIMESTAMP_STEP, 255, true)) {
+                    sender.send(ByteBuffer.wrap(packet), target);
+                }
+                frame = received.poll(100, TimeUnit.MILLISECONDS);
+            }
+            assertNotNull("no frame received", frame);
+            assertPixels("request", jpeg, frame);
+        } finally {
+            request.cancel();
+        }
+    }
+
+    /**
+     * 测试图像，每帧内容不同
+     *
+     * @param index 帧序号
+     * @return
+     */
+    private static BufferedImage image(int index) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                image.setRGB(x, y, ((x + index * 7) & 0xFF) << 16 | ((y * 2) & 0xFF) << 8 | ((x ^ y) + index * 13) & 0xFF);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * 编码基线JPEG，量化表按RFC 2435附录A由{@link #QUALITY}计算，使用标准Huffman表
+     *
+     * @param image           图像
+     * @param type            RTP/JPEG类型，0为4:2:2，1为4:2:0
+     * @param restartInterval 重启间隔（MCU数量），0表示不使用
+     * @return
+     * @throws IOException
+     */
+    private static byte[] encode(BufferedImage image, int type, int restartInterval) throws IOException {
+        return encode(image, 2, type == 0 ? 1 : 2, restartInterval);
+    }
+
+    /**
+     * 编码基线JPEG，量化表按RFC 2435附录A由{@link #QUALITY}计算，使用标准Huffman表
+     *
+     * @param image              图像，灰度图像只有一个分量
+     * @param horizontalSampling 亮度水平采样因子
+     * @param verticalSampling   亮度垂直采样因子
+     * @param restartInterval    重启间隔（MCU数量），0表示不使用
+     * @return
+     * @throws IOException
+     */
+    static byte[] encode(BufferedImage image, int horizontalSampling, int verticalSampling, int restartInterval) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        String format = "javax_imageio_jpeg_image_1.0";
+        Element tree = (Element) metadata.getAsTree(format);
+        NodeList tables = tree.getElementsByTagName("dqtable");
+        JPEGQTable[] standard = {JPEGQTable.K1Luminance, JPEGQTable.K2Chrominance};
+        for (int i = 0; i < tables.getLength(); i++) {
+            ((IIOMetadataNode) tables.item(i)).setUserObject(scale(standard[Math.min(i, 1)]));
+        }
+        Element luma = (Element) tree.getElementsByTagName("componentSpec").item(0);
+        luma.setAttribute("HsamplingFactor", String.valueOf(horizontalSampling));
+        luma.setAttribute("VsamplingFactor", String.valueOf(verticalSampling));
+        if (restartInterval > 0) {
+            Element sequence = (Element) tree.getElementsByTagName("markerSequence").item(0);
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", String.valueOf(restartInterval));
+            sequence.insertBefore(dri, sequence.getElementsByTagName("sos").item(0));
+        }
+        metadata.setFromTree(format, tree);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 按RFC 2435附录A缩放量化表
+     *
+     * @param table 标准量化表
+     * @return
+     */
+    private static JPEGQTable scale(JPEGQTable table) {
+        int factor = QUALITY < 50 ? 5000 / QUALITY : 200 - QUALITY * 2;
+        int[] values = table.getTable();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.max(1, Math.min(255, (values[i] * factor + 50) / 100));
+        }
+        return new JPEGQTable(values);
+    }
+
+    /**
+     * 按RFC 2435拆分JPEG帧：扫描数据分片，去掉帧尾
+     *
+     * @param jpeg      JPEG帧
+     * @param timestamp RTP时间戳
+     * @param quality   Q值，大于等于128时量化表可以带内传输
+     * @param inBand    第一个分片是否带内传输量化表（Q值大于等于128时），否则量化表头长度为0
+     * @return RTP包
+     */
+    private List<byte[]> packetize(byte[] jpeg, int timestamp, int quality, boolean inBand) {
+        ByteArrayOutputStream tables = new ByteArrayOutputStream();
+        int width = 0;
+        int height = 0;
+        int type = 1;
+        int restartInterval = 0;
+        int scan = 0;
+        int position = 2;
+        while (position + 4 <= jpeg.length) {
+            int marker = jpeg[position + 1] & 0xFF;
+            int length = (jpeg[position + 2] & 0xFF) << 8 | (jpeg[position + 3] & 0xFF);
+            if (marker == 0xDB) {
+                for (int p = position + 4; p < position + 2 + length; p += 65) {
+                    tables.write(jpeg, p + 1, 64);
+                }
+            } else if (marker == 0xC0) {
+                height = (jpeg[position + 5] & 0xFF) << 8 | (jpeg[position + 6] & 0xFF);
+                width = (jpeg[position + 7] & 0xFF) << 8 | (jpeg[position + 8] & 0xFF);
+                type = (jpeg[position + 11] & 0xFF) == 0x21 ? 0 : 1;
+            } else if (marker == 0xDD) {
+                restartInterval = (jpeg[position + 4] & 0xFF) << 8 | (jpeg[position + 5] & 0xFF);
+            } else if (marker == 0xDA) {
+                scan = position + 2 + length;
+                break;
+            }
+            position += 2 + length;
+        }
+        int total = jpeg.length - 2 - scan;
+        List<byte[]> packets = new ArrayList<>();
+        for (int offset = 0; offset < total; offset += MTU) {
+            int length = Math.min(MTU, total - offset);
+            ByteArrayOutputStream packet = new ByteArrayOutputStream();
+            //RTP头
+            packet.write(0x80);
+            packet.write((offset + length == total ? 0x80 : 0) | RTPJPEGParser.PAYLOAD_TYPE);
+            packet.write(sequence >> 8);
+            packet.write(sequence++);
+            packet.write(timestamp >>> 24);
+            packet.write(timestamp >> 16);
+            packet.write(timestamp >> 8);
+            packet.write(timestamp);
+            packet.write(new byte[]{0x12, 0x34, 0x56, 0x78}, 0, 4);
+            //JPEG头
+            packet.write(0);
+            packet.write(offset >> 16);
+            packet.write(offset >> 8);
+            packet.write(offset);
+            packet.write(type + (restartInterval > 0 ? 64 : 0));
+            packet.write(quality);
+            packet.write(width / 8);
+            packet.write(height / 8);
+            if (restartInterval > 0) {
+                packet.write(restartInterval >> 8);
+                packet.write(restartInterval);
+                packet.write(0xFF);
+                packet.write(0xFF);
+            }
+            if (offset == 0 && quality >= 128) {
+                //量化表头，长度为0表示省略量化表
+                int tablesLength = inBand ? tables.size() : 0;
+                packet.write(0);
+                packet.write(0);
+                packet.write(tablesLength >> 8);
+                packet.write(tablesLength);
+                packet.write(tables.toByteArray(), 0, tablesLength);
+            }
+            packet.write(jpeg, scan + offset, length);
+            packets.add(packet.toByteArray());
+        }
+        return packets;
+    }
+
+    /**
+     * 比较两个JPEG的解码像素
+     *
+     * @param message  说明
+     * @param expected 原始帧
+     * @param actual   重建帧
+     * @throws IOException
+     */
+    private static void assertPixels(String message, byte[] expected, byte[] actual) throws IOException {
+        BufferedImage expectedImage = ImageIO.read(new ByteArrayInputStream(expected));
+        BufferedImage actualImage = ImageIO.read(new ByteArrayInputStream(actual));
+        assertNotNull(message, actualImage);
+        assertEquals(message, expectedImage.getWidth(), actualImage.getWidth());
+        assertEquals(message, expectedImage.getHeight(), actualImage.getHeight());
+        assertArrayEquals(message,
+                expectedImage.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH),
+                actualImage.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+    }
+
+    /**
+     * 查找两字节标记
+     *
+     * @return 位置，未找到返回-1
+     */
+    private static int indexOf(byte[] data, byte first, byte second) {
+        for (int i = 0; i + 1 < data.length; i++) {
+            if (data[i] == first && data[i + 1] == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 本机回环UDP通道
+     */
+    private static class Loopback implements Closeable {
+
+        private final DatagramChannel sender;
+        private final DatagramChannel receiver;
+        private final ByteBuffer packet = ByteBuffer.allocateDirect(64 * 1024);
+
+        Loopback() throws IOException {
+            receiver = DatagramChannel.open();
+            receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            receiver.configureBlocking(false);
+            sender = DatagramChannel.open();
+            sender.connect(receiver.getLocalAddress());
+        }
+
+        /**
+         * 逐个发送数据包，接收后传给解析器
+         *
+         * @param parser  解析器
+         * @param packets 数据包
+         * @return 输出的完整帧
+         * @throws IOException
+         */
+        List<byte[]> transfer(RTPJPEGParser parser, List<byte[]> packets) throws IOException {
+            List<byte[]> frames = new ArrayList<>();
+            for (byte[] data : packets) {
+                sender.write(ByteBuffer.wrap(data));
+                packet.clear();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                while (receiver.receive(packet) == null) {
+                    assertFalse("packet lost on loopback", System.nanoTime() > deadline);
+                    Thread.yield();
+                }
+                packet.flip();
+                if (parser.push(packet)) {
+                    frames.add(Arrays.copyOfRange(parser.array(), parser.offset(), parser.offset() + parser.length()));
+                }
+            }
+            return frames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            sender.close();
+            receiver.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,345 @@
+package androidx.mjpeg;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 快照轮询测试：分块编码拼接、流水线响应跨多次读取、持久连接空闲关闭后的重新连接和补发，以及最大帧大小
+ */
+public class SnapshotPollerTest {
+
+    private final static Charset ASCII = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void chunked() throws Exception {
+        List<byte[]> frames = MJPEGTestServer.generate(3, 64, 48);
+        try (Server server = new Server((socket, connection) -> {
+            int index = 0;
+            while (readRequest(socket.getInputStream())) {
+                byte[] frame = frames.get(index++ % frames.size());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                out.write(ascii("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nTransfer-Encoding: chunked\r\n\r\n"));
+                //大小不等的分块，带扩展和trailer
+                int[] sizes = {1, 100, frame.length};
+                int offset = 0;
+                for (int size : sizes) {
+                    int length = Math.min(size, frame.length - offset);
+                    out.write(ascii(Integer.toHexString(length) + ";name=value\r\n"));
+                    out.write(frame, offset, length);
+                    out.write(ascii("\r\n"));
+                    offset += length;
+                }
+                out.write(ascii("0\r\nX-Trailer: end\r\n\r\n"));
+                write(socket, out.toByteArray(), 50);
+            }
+        })) {
+            SnapshotPoller poller = server.poller(1);
+            try {
+                for (int i = 0; i < 5; i++) {
+                    assertTrue(poller.send());
+                    poller.read();
+                    assertFrame(frames.get(i % frames.size()), poller);
+                }
+                assertTrue(poller.isKeepAlive());
+                assertEquals(0, poller.getReconnects());
+                assertEquals(1, server.accepted.get());
+            } finally {
+                poller.close();
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedSplit() throws Exception {
+        List<byte[]> frames = MJPEGTestServer.generate(3, 64, 48);
+        try (Server server = new Server((socket, connection) -> {
+            //收到全部请求后一次性返回，按很小的块写出，响应头和内容跨越多次读取
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < frames.size(); i++) {
+                if (!readRequest(socket.getInputStream())) {
+                    return;
+                }
+                byte[] frame = frames.get(i);
+                out.write(ascii("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nContent-Length: " + frame.length
+                        + "\r\nX-Timestamp-Usec: " + (i + 1) + "\r\n\r\n"));
+                out.write(frame);
+            }
+            write(socket, out.toByteArray(), 7);
+            readRequest(socket.getInputStream());
+        })) {
+            SnapshotPoller poller = server.poller(3);
+            try {
+                for (int i = 0; i < frames.size(); i++) {
+                    assertTrue(poller.send());
+                }
+                //达到流水线深度
+                assertFalse(poller.send());
+                assertEquals(3, poller.getOutstanding());
+                for (int i = 0; i < frames.size(); i++) {
+                    poller.read();
+                    assertFrame(frames.get(i), poller);
+                    assertEquals(i + 1, poller.timestamp());
+                }
+                assertEquals(0, poller.getOutstanding());
+                assertEquals(0, poller.getReconnects());
+            } finally {
+                poller.close();
+            }
+        }
+    }
+
+    @Test
+    public void idleReopen() throws Exception {
+        List<byte[]> frames = MJPEGTestServer.generate(2, 64, 48);
+        CountDownLatch idleClosed = new CountDownLatch(1);
+        try (Server server = new Server((socket, connection) -> {
+            while (readRequest(socket.getInputStream())) {
+                write(socket, response(frames.get(connection == 0 ? 0 : 1)), 0);
+                if (connection == 0) {
+                    //第一个连接响应后空闲超时关闭
+                    socket.close();
+                    idleClosed.countDown();
+                    return;
+                }
+            }
+        })) {
+            SnapshotPoller poller = server.poller(2);
+            try {
+                assertTrue(poller.send());
+                poller.read();
+                assertFrame(frames.get(0), poller);
+                assertTrue(idleClosed.await(5, TimeUnit.SECONDS));
+                Thread.sleep(50);
+                //连接已关闭：第一次写入通常成功（对方回复RST），之后的写入失败
+                int sent = 0;
+                for (int i = 0; i < 2; i++) {
+                    try {
+                        if (poller.send()) {
+                            sent++;
+                        }
+                    } catch (IOException e) {
+                        sent++;
+                    }
+                    Thread.sleep(50);
+                }
+                assertTrue(sent > 0);
+                int responses = 0;
+                while (poller.getOutstanding() > 0) {
+                    poller.read();
+                    assertFrame(frames.get(1), poller);
+                    responses++;
+                }
+                assertTrue(responses > 0);
+                assertEquals(1, poller.getReconnects());
+                assertEquals(2, server.accepted.get());
+                //新连接上继续请求
+                assertTrue(poller.send());
+                poller.read();
+                assertFrame(frames.get(1), poller);
+            } finally {
+                poller.close();
+            }
+        }
+    }
+
+    @Test
+    public void maxFrameSize() throws Exception {
+        for (String header : new String[]{"Content-Length: 2000000000\r\n", "Transfer-Encoding: chunked\r\n"}) {
+            try (Server server = new Server((socket, connection) -> {
+                if (readRequest(socket.getInputStream())) {
+                    String body = header.startsWith("Transfer") ? "7fffffff\r\n" : "";
+                    write(socket, ascii("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\n" + header + "\r\n" + body), 0);
+                    readRequest(socket.getInputStream());
+                }
+            })) {
+                SnapshotPoller poller = server.poller(1).maxFrameSize(64 * 1024);
+                try {
+                    assertTrue(poller.send());
+                    poller.read();
+                    fail(header);
+                } catch (IOException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("too large"));
+                } finally {
+                    poller.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 检查读取的帧
+     */
+    private static void assertFrame(byte[] expected, SnapshotPoller poller) {
+        assertArrayEquals(expected, Arrays.copyOfRange(poller.array(), poller.offset(), poller.offset() + poller.length()));
+    }
+
+    /**
+     * 带Content-Length的响应
+     *
+     * @param frame 图片
+     * @return
+     * @throws IOException
+     */
+    private static byte[] response(byte[] frame) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ascii("HTTP/1.1 200 OK\r\nContent-Type: image/jpeg\r\nContent-Length: " + frame.length + "\r\n\r\n"));
+        out.write(frame);
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(ASCII);
+    }
+
+    /**
+     * 读取一个请求（到空行）
+     *
+     * @param is 输入流
+     * @return 连接关闭返回false
+     * @throws IOException
+     */
+    private static boolean readRequest(InputStream is) throws IOException {
+        int matched = 0;
+        while (matched < 4) {
+            int c = is.read();
+            if (c < 0) {
+                return false;
+            }
+            if (c == (matched % 2 == 0 ? '\r' : '\n')) {
+                matched++;
+            } else {
+                matched = c == '\r' ? 1 : 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 分块写出
+     *
+     * @param socket 连接
+     * @param data   数据
+     * @param piece  每次写出的长度，0表示一次写出
+     * @throws IOException
+     */
+    private static void write(Socket socket, byte[] data, int piece) throws IOException {
+        OutputStream os = socket.getOutputStream();
+        if (piece <= 0) {
+            os.write(data);
+            os.flush();
+            return;
+        }
+        for (int offset = 0; offset < data.length; offset += piece) {
+            os.write(data, offset, Math.min(piece, data.length - offset));
+            os.flush();
+            if (offset / piece % 64 == 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 连接处理
+     */
+    private interface Handler {
+
+        /**
+         * 处理一个连接
+         *
+         * @param socket     连接
+         * @param connection 连接序号（从0开始）
+         * @throws IOException
+         */
+        void handle(Socket socket, int connection) throws IOException;
+
+    }
+
+    /**
+     * 按脚本响应的本机服务器，每个连接一个线程
+     */
+    private static class Server implements AutoCloseable {
+
+        private final ServerSocket serverSocket;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final AtomicInteger accepted = new AtomicInteger();
+
+        private Server(Handler handler) throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = serverSocket.accept();
+                        sockets.add(socket);
+                        int connection = accepted.getAndIncrement();
+                        Thread worker = new Thread(() -> {
+                            try {
+                                handler.handle(socket, connection);
+                            } catch (IOException ignored) {
+                            } finally {
+                                try {
+                                    socket.close();
+                                } catch (IOException ignored) {
+                                }
+                            }
+                        }, "snapshot-test-" + connection);
+                        worker.setDaemon(true);
+                        worker.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            }, "snapshot-test");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * 连接到服务器的轮询
+         *
+         * @param depth 流水线深度
+         * @return
+         * @throws IOException
+         */
+        private SnapshotPoller poller(int depth) throws IOException {
+            URL url = new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/snapshot.jpg");
+            SnapshotPoller poller = new SnapshotPoller(url, 1024).pipeline(depth).timeouts(2000, 5000);
+            poller.connect();
+            return poller;
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,180 @@
+package androidx.mjpeg.benchmark;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * 基准测试数据<br/>
+ * 使用ImageIO生成确定性的JPEG帧（固定随机种子的渐变加噪声，接近摄像头画面的压缩率），
+ * 并拼接为multipart/x-mixed-replace录制数据；也可以加载真实录制的数据流文件。
+ */
+public final class Captures {
+
+    /**
+     * 分隔符
+     */
+    public final static String BOUNDARY = "mjpegboundary";
+
+    private Captures() {
+    }
+
+    /**
+     * 解析分辨率参数
+     *
+     * @param size 例如：1280x720
+     * @return {宽, 高}
+     */
+    public static int[] size(String size) {
+        int index = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, index)), Integer.parseInt(size.substring(index + 1))};
+    }
+
+    /**
+     * 生成ARGB像素
+     *
+     * @param width  宽度
+     * @param height 高度
+     * @param seed   随机种子
+     * @return
+     */
+    public static int[] argb(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(24);
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (y * 255 / height + noise) & 0xFF;
+                int b = ((x + y) * 128 / (width + height) + noise) & 0xFF;
+                argb[y * width + x] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+        }
+        return argb;
+    }
+
+    /**
+     * 生成JPEG帧（4:2:0，质量80）
+     *
+     * @param width           宽度
+     * @param height          高度
+     * @param seed            随机种子
+     * @param restartInterval 重同步间隔（MCU），0表示不插入
+     * @return
+     * @throws IOException
+     */
+    public static byte[] jpeg(int width, int height, long seed, int restartInterval) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, argb(width, height, seed), 0, width);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.8f);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        if (restartInterval > 0) {
+            String format = "javax_imageio_jpeg_image_1.0";
+            Element tree = (Element) metadata.getAsTree(format);
+            Element sequence = (Element) tree.getElementsByTagName("markerSequence").item(0);
+            NodeList scans = sequence.getElementsByTagName("sos");
+            IIOMetadataNode dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", String.valueOf(restartInterval));
+            sequence.insertBefore(dri, scans.item(0));
+            metadata.setFromTree(format, tree);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 生成不同内容的JPEG帧序列
+     *
+     * @param count  帧数
+     * @param width  宽度
+     * @param height 高度
+     * @return
+     * @throws IOException
+     */
+    public static List<byte[]> frames(int count, int width, int height) throws IOException {
+        //少量不同的帧循环使用，避免生成时间过长
+        int distinct = Math.min(count, 8);
+        List<byte[]> distinctFrames = new ArrayList<>();
+        for (int i = 0; i < distinct; i++) {
+            distinctFrames.add(jpeg(width, height, i, 0));
+        }
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            frames.add(distinctFrames.get(i % distinct));
+        }
+        return frames;
+    }
+
+    /**
+     * 拼接multipart/x-mixed-replace数据
+     *
+     * @param frames        帧
+     * @param contentLength 分段头是否包含Content-Length
+     * @return
+     */
+    public static byte[] multipart(List<byte[]> frames, boolean contentLength) {
+        Charset charset = Charset.forName("ISO-8859-1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long timestamp = 1700000000000000L;
+        for (byte[] frame : frames) {
+            StringBuilder header = new StringBuilder();
+            header.append("--").append(BOUNDARY).append("\r\n");
+            header.append("Content-Type: image/jpeg\r\n");
+            if (contentLength) {
+                header.append("Content-Length: ").append(frame.length).append("\r\n");
+            }
+            header.append("X-Timestamp: ").append(timestamp / 1000000L).append('.').append(String.format("%06d", timestamp % 1000000L)).append("\r\n");
+            header.append("\r\n");
+            byte[] bytes = header.toString().getBytes(charset);
+            out.write(bytes, 0, bytes.length);
+            out.write(frame, 0, frame.length);
+            out.write('\r');
+            out.write('\n');
+            timestamp += 40000;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 加载录制数据，路径为空时生成100帧640x480的数据
+     *
+     * @param path          录制的multipart数据文件（分隔符为{@link #BOUNDARY}）
+     * @param contentLength 生成的数据是否包含Content-Length
+     * @return
+     * @throws IOException
+     */
+    public static byte[] capture(String path, boolean contentLength) throws IOException {
+        if (path != null && !path.isEmpty()) {
+            return Files.readAllBytes(Paths.get(path));
+        }
+        return multipart(frames(100, 640, 480), contentLength);
+    }
+
+}
@@ -0,0 +1,62 @@
+package androidx.mjpeg.benchmark;
+
+import androidx.mjpeg.JPEGDecoder;
+import androidx.mjpeg.JPEGInfo;
+import androidx.mjpeg.YUVCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 纯Java JPEG解码为YUV420P，帧每行插入重同步标记，并行模式按重同步段分块解码
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JPEGDecoderBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private byte[] jpeg;
+    private byte[] yuv;
+    private final JPEGDecoder decoder = new JPEGDecoder();
+    private final JPEGInfo info = new JPEGInfo();
+
+    @Setup
+    public void setup() throws IOException {
+        int[] dimension = Captures.size(size);
+        //4:2:0的MCU为16x16，每行一个重同步段
+        jpeg = Captures.jpeg(dimension[0], dimension[1], 1, (dimension[0] + 15) / 16);
+        yuv = new byte[YUVCodec.getYUV420Size(dimension[0], dimension[1])];
+        decoder.setParallel(parallel);
+    }
+
+    @Benchmark
+    public boolean decodeYUV420P() {
+        return decoder.decodeYUV420P(jpeg, 0, jpeg.length, yuv);
+    }
+
+    /**
+     * 标记解析（接收线程校验帧完整性的开销）
+     *
+     * @return
+     */
+    @Benchmark
+    public boolean parseInfo() {
+        return info.parse(jpeg, 0, jpeg.length) && info.isComplete();
+    }
+
+}
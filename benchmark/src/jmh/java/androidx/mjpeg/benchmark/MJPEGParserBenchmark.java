@@ -0,0 +1,86 @@
+package androidx.mjpeg.benchmark;
+
+import androidx.mjpeg.MJPEGInputStream;
+import androidx.mjpeg.MJPEGParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分帧：从录制的multipart数据中提取全部帧，每次调用处理整段数据<br/>
+ * 默认使用生成的100帧640x480数据，真实录制文件（分隔符为{@link Captures#BOUNDARY}）通过JMH参数指定：
+ * {@code java -jar benchmark/build/libs/benchmark-jmh.jar MJPEGParserBenchmark -p capture=/path/to/capture.mjpeg}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MJPEGParserBenchmark {
+
+    /**
+     * 分段头是否包含Content-Length，不包含时查找分隔符
+     */
+    @Param({"true", "false"})
+    public boolean contentLength;
+    /**
+     * 录制文件路径，为空时使用生成的数据
+     */
+    @Param({""})
+    public String capture;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        data = Captures.capture(capture, contentLength);
+    }
+
+    /**
+     * 拉取模式：{@link MJPEGInputStream}从输入流读取
+     *
+     * @return 帧数
+     * @throws IOException
+     */
+    @Benchmark
+    public int inputStream() throws IOException {
+        MJPEGInputStream is = new MJPEGInputStream(new ByteArrayInputStream(data), Captures.BOUNDARY, MJPEGParser.DEFAULT_BUFFER_SIZE);
+        int frames = 0;
+        try {
+            while (true) {
+                is.readFrame();
+                frames += is.length() > 0 ? 1 : 0;
+            }
+        } catch (EOFException e) {
+            return frames;
+        }
+    }
+
+    /**
+     * 推送模式：按16KB分块写入（与非阻塞连接的读取方式相同）
+     *
+     * @return 帧数
+     */
+    @Benchmark
+    public int push() {
+        MJPEGParser parser = new MJPEGParser(Captures.BOUNDARY);
+        int frames = 0;
+        for (int offset = 0; offset < data.length; offset += 16 * 1024) {
+            parser.write(data, offset, Math.min(16 * 1024, data.length - offset));
+            while (parser.next()) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+}
@@ -0,0 +1,143 @@
+package androidx.mjpeg.benchmark;
+
+import androidx.mjpeg.AVIRecorder;
+import androidx.mjpeg.RTPJPEGParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 封装与解封装：AVI录像写入，RTP/JPEG分片重组
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MuxBenchmark {
+
+    /**
+     * RTP负载最大长度
+     */
+    private final static int MTU = 1400;
+
+    private List<byte[]> frames;
+    private File file;
+    private final List<ByteBuffer> packets = new ArrayList<>();
+    private final RTPJPEGParser parser = new RTPJPEGParser();
+    private int sequence;
+    private int timestamp;
+
+    @Setup
+    public void setup() throws IOException {
+        frames = Captures.frames(25, 640, 480);
+        file = File.createTempFile("mux", ".avi");
+        packetize(frames.get(0));
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * 写入25帧并结束录像（写入索引、回写文件头）
+     *
+     * @return 帧数
+     * @throws IOException
+     */
+    @Benchmark
+    public int writeAVI() throws IOException {
+        AVIRecorder recorder = new AVIRecorder(file.getPath());
+        long time = 0;
+        for (byte[] frame : frames) {
+            recorder.write(frame, 0, frame.length, time);
+            time += 40000;
+        }
+        recorder.close();
+        return recorder.getFrames();
+    }
+
+    /**
+     * 重组一帧的全部RTP包并重建JPEG头
+     *
+     * @return 帧长度
+     */
+    @Benchmark
+    public int depacketizeRTP() {
+        //每次调用使用新的RTP时间戳，避免被当作迟到的包
+        timestamp += 3600;
+        int length = 0;
+        for (ByteBuffer packet : packets) {
+            packet.putInt(4, timestamp);
+            packet.putShort(2, (short) sequence++);
+            if (parser.push(packet)) {
+                length = parser.length();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 按RFC 2435拆分JPEG帧：扫描数据分片，Q=255带内量化表
+     *
+     * @param jpeg JPEG帧
+     */
+    private void packetize(byte[] jpeg) {
+        byte[] tables = new byte[128];
+        int tablesLength = 0;
+        int width = 0;
+        int height = 0;
+        int type = 1;
+        int scan = 0;
+        int position = 2;
+        while (position + 4 <= jpeg.length) {
+            int marker = jpeg[position + 1] & 0xFF;
+            int length = (jpeg[position + 2] & 0xFF) << 8 | (jpeg[position + 3] & 0xFF);
+            if (marker == 0xDB) {
+                for (int p = position + 4; p < position + 2 + length && tablesLength < tables.length; p += 65) {
+                    System.arraycopy(jpeg, p + 1, tables, tablesLength, 64);
+                    tablesLength += 64;
+                }
+            } else if (marker == 0xC0) {
+                height = (jpeg[position + 5] & 0xFF) << 8 | (jpeg[position + 6] & 0xFF);
+                width = (jpeg[position + 7] & 0xFF) << 8 | (jpeg[position + 8] & 0xFF);
+                type = (jpeg[position + 11] & 0xFF) == 0x21 ? 0 : 1;
+            } else if (marker == 0xDA) {
+                scan = position + 2 + length;
+                break;
+            }
+            position += 2 + length;
+        }
+        int end = jpeg.length - 2;
+        for (int offset = 0; scan + offset < end; ) {
+            int header = offset == 0 ? 4 + tablesLength : 0;
+            int length = Math.min(MTU - header, end - scan - offset);
+            ByteBuffer packet = ByteBuffer.allocate(12 + 8 + header + length);
+            boolean last = scan + offset + length >= end;
+            packet.put((byte) 0x80).put((byte) ((last ? 0x80 : 0) | RTPJPEGParser.PAYLOAD_TYPE)).putShort((short) 0);
+            packet.putInt(0).putInt(0x4D4A5047);
+            packet.putInt(offset);
+            packet.put((byte) type).put((byte) 255).put((byte) (width / 8)).put((byte) (height / 8));
+            if (header > 0) {
+                packet.put((byte) 0).put((byte) 0).putShort((short) tablesLength).put(tables, 0, tablesLength);
+            }
+            packet.put(jpeg, scan + offset, length);
+            packet.flip();
+            packets.add(packet);
+            offset += length;
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package androidx.mjpeg.benchmark;
+
+import androidx.mjpeg.PartHeader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段头解析（Content-Length、Content-Type、时间戳）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PartHeaderBenchmark {
+
+    private final byte[] typical = ("--" + Captures.BOUNDARY + "\r\n"
+            + "Content-Type: image/jpeg\r\n"
+            + "Content-Length: 48213\r\n"
+            + "X-Timestamp: 1700000000.040000\r\n"
+            + "\r\n").getBytes(Charset.forName("ISO-8859-1"));
+
+    private final byte[] noLength = ("--" + Captures.BOUNDARY + "\r\n"
+            + "Content-Type: image/jpeg\r\n"
+            + "\r\n").getBytes(Charset.forName("ISO-8859-1"));
+
+    private final PartHeader header = new PartHeader();
+
+    @Benchmark
+    public int contentLength() {
+        header.parse(typical, 0, typical.length);
+        return header.getContentLength();
+    }
+
+    @Benchmark
+    public int withoutContentLength() {
+        header.parse(noLength, 0, noLength.length);
+        return header.getContentType();
+    }
+
+}
@@ -0,0 +1,53 @@
+package androidx.mjpeg.benchmark;
+
+import androidx.mjpeg.YUVCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ARGB转YUV420，输出到复用的缓冲区
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YUVCodecBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    private int width;
+    private int height;
+    private int[] argb;
+    private byte[] yuv;
+
+    @Setup
+    public void setup() {
+        int[] dimension = Captures.size(size);
+        width = dimension[0];
+        height = dimension[1];
+        argb = Captures.argb(width, height, 1);
+        yuv = new byte[YUVCodec.getYUV420Size(width, height)];
+    }
+
+    @Benchmark
+    public byte[] toYUV420P() {
+        YUVCodec.toYUV420P(argb, width, height, yuv);
+        return yuv;
+    }
+
+    @Benchmark
+    public byte[] toYUV420SP() {
+        YUVCodec.toYUV420SP(argb, width, height, yuv);
+        return yuv;
+    }
+
+}